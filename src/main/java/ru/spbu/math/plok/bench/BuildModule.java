@@ -8,9 +8,14 @@ import ru.spbu.math.plok.model.client.Distribution;
 import ru.spbu.math.plok.model.client.ExponentialDistribution;
 import ru.spbu.math.plok.model.client.NormalDistribution;
 import ru.spbu.math.plok.model.client.UniformDistribution;
+import ru.spbu.math.plok.model.storagesystem.DeviceModel;
+import ru.spbu.math.plok.model.storagesystem.HddModel;
 import ru.spbu.math.plok.model.storagesystem.PLokStorage;
+import ru.spbu.math.plok.model.storagesystem.RowLogStorage;
 import ru.spbu.math.plok.model.storagesystem.SQLStorage;
+import ru.spbu.math.plok.model.storagesystem.SsdModel;
 import ru.spbu.math.plok.model.storagesystem.StorageSystem;
+import ru.spbu.math.plok.model.storagesystem.StreamSpreadStorage;
 
 public class BuildModule extends AbstractModule {
 
@@ -30,7 +35,50 @@ public class BuildModule extends AbstractModule {
 		bindConstant().annotatedWith(Names.named("p")).to(configs.getPeriod());
 		bindConstant().annotatedWith(Names.named("cacheUnitSize")).to(configs.getCacheUnitSize());
 		bindConstant().annotatedWith(Names.named("storagePath")).to(configs.getStoragePath());
+		bindConstant().annotatedWith(Names.named("rollupFactor")).to(configs.getRollupFactor());
+		bindConstant().annotatedWith(Names.named("rollupLevels")).to(configs.getRollupLevels());
+		bindConstant().annotatedWith(Names.named("shards")).to(configs.getShards());
+		bindConstant().annotatedWith(Names.named("shardPaths")).to(configs.getShardPaths());
+		bindConstant().annotatedWith(Names.named("stripe")).to(configs.getStripe());
+		bindConstant().annotatedWith(Names.named("layout")).to(configs.getLayout());
+		bindConstant().annotatedWith(Names.named("pageSize")).to(configs.getPageSize());
+		bindConstant().annotatedWith(Names.named("durability")).to(configs.getDurability());
+		bindConstant().annotatedWith(Names.named("commitMillis")).to(configs.getCommitMillis());
+		bindConstant().annotatedWith(Names.named("commitBlocks")).to(configs.getCommitBlocks());
+		bindConstant().annotatedWith(Names.named("commitWait")).to(configs.isCommitWait());
+		bindConstant().annotatedWith(Names.named("wal")).to(configs.isWal());
+		bindConstant().annotatedWith(Names.named("retention")).to(configs.getRetention());
+		bindConstant().annotatedWith(Names.named("segmentSlots")).to(configs.getSegmentSlots());
+		bindConstant().annotatedWith(Names.named("compactFactor")).to(configs.getCompactFactor());
+		bindConstant().annotatedWith(Names.named("maintenanceRate")).to(configs.getMaintenanceRate());
+		bindConstant().annotatedWith(Names.named("sqlBatch")).to(configs.getSqlBatch());
+		bindConstant().annotatedWith(Names.named("rowIndexEvery")).to(configs.getRowIndexEvery());
+		bindConstant().annotatedWith(Names.named("device")).to(configs.getDevice());
+		bindConstant().annotatedWith(Names.named("deviceModel")).to(configs.getDeviceModel());
+		bindConstant().annotatedWith(Names.named("seekMicros")).to(configs.getSeekMicros());
+		bindConstant().annotatedWith(Names.named("transferMBps")).to(configs.getTransferMBps());
+		bindConstant().annotatedWith(Names.named("pageMicros")).to(configs.getPageMicros());
+		bindConstant().annotatedWith(Names.named("queueDepth")).to(configs.getQueueDepth());
+		bindConstant().annotatedWith(Names.named("virtualTime")).to(configs.isVirtualTime());
+		bindConstant().annotatedWith(Names.named("sweep")).to(configs.getSweep());
+		bindConstant().annotatedWith(Names.named("parallel")).to(configs.getParallel());
+		bindConstant().annotatedWith(Names.named("table")).to(configs.getTable());
+		bindConstant().annotatedWith(Names.named("batch")).to(configs.getBatch());
+		bindConstant().annotatedWith(Names.named("ioThreads")).to(configs.getIoThreads());
+		bindConstant().annotatedWith(Names.named("async")).to(configs.isAsync());
+		bindConstant().annotatedWith(Names.named("forkMicros")).to(configs.getForkMicros());
+		bindConstant().annotatedWith(Names.named("placement")).to(configs.getPlacement());
+		bindConstant().annotatedWith(Names.named("extentSlots")).to(configs.getExtentSlots());
+		bindConstant().annotatedWith(Names.named("reorganizeMillis")).to(configs.getReorganizeMillis());
+		bindConstant().annotatedWith(Names.named("cacheBytes")).to(configs.getCacheBytes());
+		bindConstant().annotatedWith(Names.named("quantize")).to(configs.getQuantize());
+		bindConstant().annotatedWith(Names.named("quantizeBands")).to(configs.getQuantizeBands());
+		bindConstant().annotatedWith(Names.named("quantizeError")).to(configs.getQuantizeError());
+		bindConstant().annotatedWith(Names.named("cacheSnapshotMillis")).to(configs.getCacheSnapshotMillis());
+		bindConstant().annotatedWith(Names.named("warmUpBlocks")).to(configs.getWarmUpBlocks());
+		bindConstant().annotatedWith(Names.named("streams")).to(configs.getStreams());
 		initStorage();
+		initDeviceModel();
 		initDistribution();
 		
 	}
@@ -45,9 +93,22 @@ public class BuildModule extends AbstractModule {
 		}
 	}
 
+	private void initDeviceModel() {
+		if (configs.getDeviceModel().equalsIgnoreCase("hdd"))
+			bind(DeviceModel.class).to(HddModel.class);
+		else if (configs.getDeviceModel().equalsIgnoreCase("ssd"))
+			bind(DeviceModel.class).to(SsdModel.class);
+		else
+			bind(DeviceModel.class).to(DeviceModel.Ideal.class);
+	}
+
 	private void initStorage() {
 		if (configs.getStorage().equalsIgnoreCase("sql"))
 			bind(StorageSystem.class).to(SQLStorage.class);
+		else if (configs.getStorage().equalsIgnoreCase("rowlog"))
+			bind(StorageSystem.class).to(RowLogStorage.class);
+		else if (configs.getStorage().equalsIgnoreCase("streams"))
+			bind(StorageSystem.class).to(StreamSpreadStorage.class);
 		else {
 			bind(StorageSystem.class).to(PLokStorage.class);
 		}
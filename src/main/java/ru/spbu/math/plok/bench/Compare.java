@@ -0,0 +1,228 @@
+package ru.spbu.math.plok.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Splitter;
+
+/**
+ * Diffs JSON reports of a baseline and a candidate:
+ * {@code Compare base.json[,base2.json...] candidate.json[,candidate2.json...] [alpha] [tolerance]}.
+ * Serve latency and put throughput are compared over the raw samples of the reports, the
+ * per query disk counters over the runs (one value per report). A metric is a regression when it
+ * moved the bad way by more than {@code tolerance} (relative, 0.05 by default) and Welch's t-test
+ * rejects equal means at {@code alpha} (0.05 by default). The disk counters do not vary between
+ * runs of the same workload, with a single run on a side they are judged by the tolerance alone.
+ * Exits with 1 if there is a regression.
+ */
+public class Compare {
+
+	private static final double DEFAULT_ALPHA = 0.05;
+	private static final double DEFAULT_TOLERANCE = 0.05;
+	private static final String[] SAMPLED = {"serveLatencyMicros", "putRateSamples"};
+	private static final boolean[] SAMPLED_HIGHER_BETTER = {false, true};
+	private static final String[] PER_RUN = {"blocksReadPerQuery", "bytesReadPerQuery", "pagesReadPerQuery",
+			"readSeeksPerQuery", "simulatedReadMicrosPerQuery", "serveLatencyP99Micros", "putsPerSecond", "queriesPerSecond"};
+	private static final boolean[] PER_RUN_HIGHER_BETTER = {false, false, false, false, false, false, true, true};
+	private static final boolean[] PER_RUN_DETERMINISTIC = {true, true, true, true, true, false, false, false};
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: Compare base.json[,base2.json] candidate.json[,candidate2.json] [alpha] [tolerance]");
+			System.exit(2);
+		}
+		List<Map<String, Object>> base = results(args[0]);
+		List<Map<String, Object>> candidate = results(args[1]);
+		double alpha = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_ALPHA;
+		double tolerance = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_TOLERANCE;
+		System.out.println(String.format("%-28s %14s %14s %9s %9s  %s", "metric", "base", "candidate", "change", "p", "verdict"));
+		int regressions = 0;
+		for (int m = 0; m < SAMPLED.length; m++) {
+			regressions += compare(SAMPLED[m], samples(base, SAMPLED[m]), samples(candidate, SAMPLED[m]),
+					SAMPLED_HIGHER_BETTER[m], false, alpha, tolerance);
+		}
+		for (int m = 0; m < PER_RUN.length; m++) {
+			regressions += compare(PER_RUN[m], values(base, PER_RUN[m]), values(candidate, PER_RUN[m]),
+					PER_RUN_HIGHER_BETTER[m], PER_RUN_DETERMINISTIC[m], alpha, tolerance);
+		}
+		System.out.println(regressions == 0 ? "No significant regressions" : regressions + " significant regression(s)");
+		System.exit(regressions == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Prints the verdict on a metric, returns 1 if it regressed.
+	 *
+	 * @param deterministic the metric does not vary between runs of the same workload
+	 */
+	static int compare(String metric, double[] base, double[] candidate, boolean higherBetter, boolean deterministic, double alpha, double tolerance) {
+		if (base.length == 0 || candidate.length == 0) {
+			return 0;
+		}
+		double baseMean = mean(base);
+		double candidateMean = mean(candidate);
+		double change = baseMean == 0 ? (candidateMean == 0 ? 0 : Double.POSITIVE_INFINITY) : (candidateMean - baseMean) / Math.abs(baseMean);
+		double worse = higherBetter ? -change : change;
+		double p = welch(base, candidate);
+		String verdict;
+		boolean regression = false;
+		if (Math.abs(change) <= tolerance) {
+			verdict = "same";
+		} else if (Double.isNaN(p) && deterministic) {
+			regression = worse > 0;
+			verdict = regression ? "REGRESSION" : "improvement";
+		} else if (Double.isNaN(p)) {
+			verdict = worse > 0 ? "worse (too few runs to test)" : "better (too few runs to test)";
+		} else if (p >= alpha) {
+			verdict = "noise";
+		} else if (worse > 0) {
+			verdict = "REGRESSION";
+			regression = true;
+		} else {
+			verdict = "improvement";
+		}
+		System.out.println(String.format("%-28s %14.4g %14.4g %+8.1f%% %9s  %s", metric, baseMean, candidateMean,
+				100 * change, Double.isNaN(p) ? "-" : String.format("%.3g", p), verdict));
+		return regression ? 1 : 0;
+	}
+
+	private static List<Map<String, Object>> results(String files) throws IOException {
+		List<Map<String, Object>> results = new ArrayList<>();
+		for (String file : Splitter.on(',').trimResults().omitEmptyStrings().split(files)) {
+			Map<String, Object> report = ReportPrinter.read(new File(file)).get(ReportPrinter.RESULTS);
+			if (report == null) {
+				throw new IllegalArgumentException(file + " has no " + ReportPrinter.RESULTS + " section");
+			}
+			results.add(report);
+		}
+		return results;
+	}
+
+	private static double[] samples(List<Map<String, Object>> reports, String key) {
+		List<Double> pooled = new ArrayList<>();
+		for (Map<String, Object> report : reports) {
+			Object value = report.get(key);
+			if (value instanceof Collection) {
+				for (Object sample : (Collection<?>) value) {
+					pooled.add(((Number) sample).doubleValue());
+				}
+			}
+		}
+		return toArray(pooled);
+	}
+
+	private static double[] values(List<Map<String, Object>> reports, String key) {
+		List<Double> values = new ArrayList<>();
+		for (Map<String, Object> report : reports) {
+			Object value = report.get(key);
+			if (value instanceof Number) {
+				values.add(((Number) value).doubleValue());
+			}
+		}
+		return toArray(values);
+	}
+
+	private static double[] toArray(List<Double> list) {
+		double[] array = new double[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	private static double mean(double[] x) {
+		double sum = 0;
+		for (double v : x) {
+			sum += v;
+		}
+		return sum / x.length;
+	}
+
+	private static double variance(double[] x, double mean) {
+		double sum = 0;
+		for (double v : x) {
+			sum += (v - mean) * (v - mean);
+		}
+		return sum / (x.length - 1);
+	}
+
+	/**
+	 * Two sided p-value of Welch's t-test, NaN when a side has less than two values.
+	 */
+	static double welch(double[] a, double[] b) {
+		if (a.length < 2 || b.length < 2) {
+			return Double.NaN;
+		}
+		double ma = mean(a);
+		double mb = mean(b);
+		double va = variance(a, ma) / a.length;
+		double vb = variance(b, mb) / b.length;
+		if (va + vb == 0) {
+			return ma == mb ? 1.0 : 0.0;
+		}
+		double t = (ma - mb) / Math.sqrt(va + vb);
+		double df = (va + vb) * (va + vb) / (va * va / (a.length - 1) + vb * vb / (b.length - 1));
+		return incompleteBeta(df / (df + t * t), df / 2, 0.5);
+	}
+
+	/**
+	 * Regularized incomplete beta function I_x(a, b) by its continued fraction.
+	 */
+	private static double incompleteBeta(double x, double a, double b) {
+		if (x <= 0) {
+			return 0.0;
+		}
+		if (x >= 1) {
+			return 1.0;
+		}
+		double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+		if (x < (a + 1) / (a + b + 2)) {
+			return front * betaFraction(x, a, b) / a;
+		}
+		return 1 - front * betaFraction(1 - x, b, a) / b;
+	}
+
+	private static double betaFraction(double x, double a, double b) {
+		final double tiny = 1e-300;
+		double c = 1;
+		double d = 1 - (a + b) * x / (a + 1);
+		d = 1 / (Math.abs(d) < tiny ? tiny : d);
+		double h = d;
+		for (int m = 1; m <= 300; m++) {
+			int m2 = 2 * m;
+			double aa = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+			d = 1 + aa * d;
+			d = 1 / (Math.abs(d) < tiny ? tiny : d);
+			c = 1 + aa / c;
+			c = Math.abs(c) < tiny ? tiny : c;
+			h *= d * c;
+			aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+			d = 1 + aa * d;
+			d = 1 / (Math.abs(d) < tiny ? tiny : d);
+			c = 1 + aa / c;
+			c = Math.abs(c) < tiny ? tiny : c;
+			double delta = d * c;
+			h *= delta;
+			if (Math.abs(delta - 1) < 1e-12) {
+				break;
+			}
+		}
+		return h;
+	}
+
+	private static double logGamma(double x) {
+		double[] lanczos = {676.5203681218851, -1259.1392167224028, 771.32342877765313, -176.61502916214059,
+				12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
+		double sum = 0.99999999999980993;
+		double y = x - 1;
+		for (int i = 0; i < lanczos.length; i++) {
+			sum += lanczos[i] / (y + i + 1);
+		}
+		double t = y + lanczos.length - 0.5;
+		return 0.5 * Math.log(2 * Math.PI) + (y + 0.5) * Math.log(t) - t + Math.log(sum);
+	}
+
+}
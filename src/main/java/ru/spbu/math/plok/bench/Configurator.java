@@ -1,6 +1,10 @@
 package ru.spbu.math.plok.bench;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -12,8 +16,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.base.MoreObjects.ToStringHelper;
 
 import ru.spbu.math.plok.model.client.Distribution;
+import ru.spbu.math.plok.model.storagesystem.FilePersistentStorage;
 
 public class Configurator {
 
@@ -23,6 +29,45 @@ public class Configurator {
 	private static final String 	DEFAULT_PHASE_BREAK 	= "2000";
 	private static final String 	DEFAULT_S 				= "PLok";
 	private static final String 	DEFAULT_C 				= "0.25";
+	private static final String 	DEFAULT_ROLLUP_FACTOR	= "10";
+	private static final String 	DEFAULT_ROLLUP_LEVELS	= "0";
+	private static final String 	DEFAULT_SHARDS			= "1";
+	private static final String 	DEFAULT_SHARD_PATHS		= "";
+	private static final String 	DEFAULT_STRIPE			= "id";
+	private static final String 	DEFAULT_LAYOUT			= "packed";
+	private static final String 	DEFAULT_PAGE_SIZE		= "4096";
+	private static final String 	DEFAULT_DURABILITY		= "none";
+	private static final String 	DEFAULT_COMMIT_MILLIS	= "50";
+	private static final String 	DEFAULT_COMMIT_BLOCKS	= "64";
+	private static final String 	DEFAULT_RETENTION		= "0";
+	private static final String 	DEFAULT_SEGMENT_SLOTS	= "1024";
+	private static final String 	DEFAULT_COMPACT_FACTOR	= "0";
+	private static final String 	DEFAULT_MAINTENANCE_RATE	= "200";
+	private static final String 	DEFAULT_SQL_BATCH		= "100";
+	private static final String 	DEFAULT_ROW_INDEX_EVERY	= "16";
+	private static final String 	DEFAULT_DEVICE			= "file";
+	private static final String 	DEFAULT_DEVICE_MODEL	= "none";
+	private static final String 	DEFAULT_SEEK_MICROS		= "8000";
+	private static final String 	DEFAULT_TRANSFER_MBPS	= "150";
+	private static final String 	DEFAULT_PAGE_MICROS		= "100";
+	private static final String 	DEFAULT_QUEUE_DEPTH		= "32";
+	private static final String 	DEFAULT_SWEEP			= "";
+	private static final String 	DEFAULT_PARALLEL		= "0";
+	private static final String 	DEFAULT_DISK_BUDGET		= "1";
+	private static final String 	DEFAULT_TABLE			= "";
+	private static final String 	DEFAULT_BATCH			= "0";
+	private static final String 	DEFAULT_IO_THREADS		= "0";
+	private static final String 	DEFAULT_FORK_MICROS		= "500";
+	private static final String 	DEFAULT_PLACEMENT		= "arrival";
+	private static final String 	DEFAULT_EXTENT_SLOTS	= "64";
+	private static final String 	DEFAULT_REORGANIZE_MILLIS	= "0";
+	private static final String 	DEFAULT_CACHE_BYTES		= "67108864";
+	private static final String 	DEFAULT_QUANTIZE		= "none";
+	private static final String 	DEFAULT_QUANTIZE_BANDS	= "";
+	private static final String 	DEFAULT_QUANTIZE_ERROR	= "0";
+	private static final String 	DEFAULT_CACHE_SNAPSHOT_MILLIS	= "0";
+	private static final String 	DEFAULT_WARM_UP_BLOCKS	= "0";
+	private static final String 	DEFAULT_STREAMS			= "4";
 	private static final Integer 	DEFAULT_p 				= 10;
 	private static final int     	m 						= Float.BYTES;
 
@@ -48,6 +93,50 @@ public class Configurator {
 	private Option P;
 	private Option debug;
 	private Option storagePath;
+	private Option rollupFactor;
+	private Option rollupLevels;
+	private Option shards;
+	private Option shardPaths;
+	private Option stripe;
+	private Option layout;
+	private Option pageSize;
+	private Option durability;
+	private Option commitMillis;
+	private Option commitBlocks;
+	private Option commitWait;
+	private Option wal;
+	private Option retention;
+	private Option segmentSlots;
+	private Option compactFactor;
+	private Option maintenanceRate;
+	private Option sqlBatch;
+	private Option rowIndexEvery;
+	private Option device;
+	private Option deviceModel;
+	private Option seekMicros;
+	private Option transferMBps;
+	private Option pageMicros;
+	private Option queueDepth;
+	private Option virtualTime;
+	private Option sweep;
+	private Option parallel;
+	private Option diskBudget;
+	private Option table;
+	private Option batch;
+	private Option ioThreads;
+	private Option async;
+	private Option forkMicros;
+	private Option placement;
+	private Option extentSlots;
+	private Option reorganizeMillis;
+	private Option cacheBytes;
+	private Option quantize;
+	private Option quantizeBands;
+	private Option quantizeError;
+	private Option jfr;
+	private Option cacheSnapshotMillis;
+	private Option warmUpBlocks;
+	private Option streams;
 	private Options options;
 	private CommandLineParser parser;
 	private int calculated_SIZE;
@@ -56,6 +145,50 @@ public class Configurator {
 	private Integer config_P;
 	private Integer config_L;
 	private String config_storagePath;
+	private int config_rollupFactor;
+	private int config_rollupLevels;
+	private int config_shards;
+	private String config_shardPaths;
+	private String config_stripe;
+	private String config_layout;
+	private int config_pageSize;
+	private String config_durability;
+	private long config_commitMillis;
+	private int config_commitBlocks;
+	private boolean config_commitWait;
+	private boolean config_wal;
+	private long config_retention;
+	private int config_segmentSlots;
+	private int config_compactFactor;
+	private int config_maintenanceRate;
+	private int config_sqlBatch;
+	private int config_rowIndexEvery;
+	private String config_device;
+	private String config_deviceModel;
+	private int config_seekMicros;
+	private int config_transferMBps;
+	private int config_pageMicros;
+	private int config_queueDepth;
+	private boolean config_virtualTime;
+	private String config_sweep;
+	private int config_parallel;
+	private int config_diskBudget;
+	private String config_table;
+	private int config_batch;
+	private int config_ioThreads;
+	private boolean config_async;
+	private int config_forkMicros;
+	private String config_placement;
+	private int config_extentSlots;
+	private long config_reorganizeMillis;
+	private long config_cacheBytes;
+	private String config_quantize;
+	private String config_quantizeBands;
+	private float config_quantizeError;
+	private boolean config_jfr;
+	private long config_cacheSnapshotMillis;
+	private int config_warmUpBlocks;
+	private int config_streams;
 
 
 
@@ -64,13 +197,57 @@ public class Configurator {
 		T      			= new Option("T", true, "write time (msec)");						T.setRequired(true);
 		C     	 		= new Option("C", true, "cache ratio");								C.setRequired(false);
 		V      			= new Option("V", true, "distribution (exp, norm, uni)");			V.setRequired(true);
-		S				= new Option("S", true, "storage type");							S.setRequired(false);
+		S				= new Option("S", true, "storage type (PLok, sql, rowlog, streams)");							S.setRequired(false);
 		O				= new Option("O", "output", true, "output");						O.setRequired(false);
 		phaseBreak		= new Option("break", true, "break between write and read phases"); phaseBreak.setRequired(false);
 		P     	 		= new Option("P", true, "P for block");								P.setRequired(true);
 		L     	 		= new Option("L", true, "L for block");								L.setRequired(true);
 		storagePath		= new Option("storagePath", true, "persister file");
 		debug			= new Option("debug", false, "debug mode flag");
+		rollupFactor	= new Option("rollupFactor", true, "time downsampling factor between rollup tiers");
+		rollupLevels	= new Option("rollupLevels", true, "number of rollup tiers (0 disables rollups)");
+		shards			= new Option("shards", true, "number of persister files blocks are striped across");
+		shardPaths		= new Option("shardPaths", true, "comma separated directories for shard files (storagePath by default)");
+		stripe			= new Option("stripe", true, "striping of blocks across shards (id, band)");
+		layout			= new Option("layout", true, "block layout in files (packed, aligned, paged)");
+		pageSize		= new Option("pageSize", true, "file system page size in bytes");
+		durability		= new Option("durability", true, "forcing of written blocks to the device (none, group, block)");
+		commitMillis	= new Option("commitMillis", true, "group commit interval (msec)");
+		commitBlocks	= new Option("commitBlocks", true, "blocks forcing an early group commit");
+		commitWait		= new Option("commitWait", false, "put waits until its blocks are group committed");
+		wal				= new Option("wal", false, "log incoming vectors ahead of block writes and replay them on start");
+		retention		= new Option("retention", true, "drop data older than this (msec of data time, 0 keeps everything)");
+		segmentSlots	= new Option("segmentSlots", true, "block slots per segment file of a shard");
+		compactFactor	= new Option("compactFactor", true, "special blocks merged into one by the background compactor (0 disables)");
+		maintenanceRate	= new Option("maintenanceRate", true, "block I/O per second allowed to retention and compaction");
+		sqlBatch		= new Option("sqlBatch", true, "vectors inserted per JDBC batch by the sql storage");
+		rowIndexEvery	= new Option("rowIndexEvery", true, "records per sparse timestamp index entry of the rowlog storage");
+		device			= new Option("device", true, "device under the shard segments (file, memory)");
+		deviceModel		= new Option("deviceModel", true, "simulated cost of block I/O (none, hdd, ssd)");
+		seekMicros		= new Option("seekMicros", true, "simulated hdd seek time (usec)");
+		transferMBps	= new Option("transferMBps", true, "simulated hdd transfer rate (MB/sec)");
+		pageMicros		= new Option("pageMicros", true, "simulated ssd page read time (usec)");
+		queueDepth		= new Option("queueDepth", true, "simulated ssd requests served in parallel");
+		virtualTime		= new Option("virtualTime", false, "stamp vectors at p msec steps of a virtual clock instead of sleeping");
+		sweep			= new Option("sweep", true, "parameter sweep, e.g. P=4,8,16;L=5..15:5 (one run per combination)");
+		parallel		= new Option("parallel", true, "sweep points run at once (0 for one per core)");
+		diskBudget		= new Option("diskBudget", true, "sweep points on the file device run at once (0 for no limit)");
+		table			= new Option("table", true, "sweep result table (.csv or .json)");
+		batch			= new Option("batch", true, "queries per serveBatch call (0 serves them one by one)");
+		ioThreads		= new Option("ioThreads", true, "threads of the shared block read pool (0 reads on the shard threads)");
+		async			= new Option("async", false, "serve queries through serveAsync");
+		forkMicros		= new Option("forkMicros", true, "estimated work (usec) above which a query is split into fork-join tasks (0 never splits)");
+		placement		= new Option("placement", true, "block placement inside a shard (arrival, zorder, hilbert)");
+		extentSlots		= new Option("extentSlots", true, "block slots per extent ordered by the placement curve");
+		reorganizeMillis	= new Option("reorganizeMillis", true, "period of the background reorganizer moving blocks read together next to each other (0 disables)");
+		cacheBytes		= new Option("cacheBytes", true, "bytes of the block cache shared by the streams of a multi-stream storage");
+		quantize		= new Option("quantize", true, "lossy encoding of block values on disk (none, half, byte)");
+		quantizeBands	= new Option("quantizeBands", true, "comma separated index bands quantized, the special one being N/L (all by default)");
+		quantizeError	= new Option("quantizeError", true, "largest absolute error of a quantized value, blocks exceeding it are stored more precisely (0 for no bound)");
+		jfr				= new Option("jfr", false, "record a flight recording of the PLok events for each run into the storage directory");
+		cacheSnapshotMillis	= new Option("cacheSnapshotMillis", true, "interval of saving the ids of the hottest cached blocks for a warm restart (msec, 0 disables)");
+		warmUpBlocks	= new Option("warmUpBlocks", true, "most blocks read back into the cache at startup (0 for the cache size)");
+		streams			= new Option("streams", true, "streams the vectors are dealt to with -S streams");
 		options = new Options().
 				addOption(N).
 				addOption(T).
@@ -82,13 +259,57 @@ public class Configurator {
 				addOption(debug).
 				addOption(storagePath).
 				addOption(P).
-				addOption(L);
+				addOption(L).
+				addOption(rollupFactor).
+				addOption(rollupLevels).
+				addOption(shards).
+				addOption(shardPaths).
+				addOption(stripe).
+				addOption(layout).
+				addOption(pageSize).
+				addOption(durability).
+				addOption(commitMillis).
+				addOption(commitBlocks).
+				addOption(commitWait).
+				addOption(wal).
+				addOption(retention).
+				addOption(segmentSlots).
+				addOption(compactFactor).
+				addOption(maintenanceRate).
+				addOption(sqlBatch).
+				addOption(rowIndexEvery).
+				addOption(device).
+				addOption(deviceModel).
+				addOption(seekMicros).
+				addOption(transferMBps).
+				addOption(pageMicros).
+				addOption(queueDepth).
+				addOption(virtualTime).
+				addOption(sweep).
+				addOption(parallel).
+				addOption(diskBudget).
+				addOption(table).
+				addOption(batch).
+				addOption(ioThreads).
+				addOption(async).
+				addOption(forkMicros).
+				addOption(placement).
+				addOption(extentSlots).
+				addOption(reorganizeMillis).
+				addOption(cacheBytes).
+				addOption(quantize).
+				addOption(quantizeBands).
+				addOption(quantizeError).
+				addOption(jfr).
+				addOption(cacheSnapshotMillis).
+				addOption(warmUpBlocks).
+				addOption(streams);
 		parser = new PosixParser();
 		inited = false;
 	}
 
 	public Configurator(String[] args) throws IOException, ParseException {
-		super();
+		this();
 		initConfigs(args);
 	}
 
@@ -110,14 +331,86 @@ public class Configurator {
 			config_O				= line.getOptionValue("O", DEFAULT_REPORT_OUTPUT);
 			config_storagePath		= line.getOptionValue("storagePath", DEFAULT_STORAGE_PATH);
 			config_V 				= line.getOptionValue("V");
+			config_rollupFactor		= Integer.valueOf(line.getOptionValue("rollupFactor", DEFAULT_ROLLUP_FACTOR));
+			config_rollupLevels		= Integer.valueOf(line.getOptionValue("rollupLevels", DEFAULT_ROLLUP_LEVELS));
+			config_shards			= Integer.valueOf(line.getOptionValue("shards", DEFAULT_SHARDS));
+			config_shardPaths		= line.getOptionValue("shardPaths", DEFAULT_SHARD_PATHS);
+			config_stripe			= line.getOptionValue("stripe", DEFAULT_STRIPE);
+			config_layout			= line.getOptionValue("layout", DEFAULT_LAYOUT);
+			config_pageSize			= Integer.valueOf(line.getOptionValue("pageSize", DEFAULT_PAGE_SIZE));
+			config_durability		= line.getOptionValue("durability", DEFAULT_DURABILITY);
+			config_commitMillis		= Long.valueOf(line.getOptionValue("commitMillis", DEFAULT_COMMIT_MILLIS));
+			config_commitBlocks		= Integer.valueOf(line.getOptionValue("commitBlocks", DEFAULT_COMMIT_BLOCKS));
+			config_commitWait		= line.hasOption("commitWait");
+			config_wal				= line.hasOption("wal");
+			config_retention		= Long.valueOf(line.getOptionValue("retention", DEFAULT_RETENTION));
+			config_segmentSlots		= Integer.valueOf(line.getOptionValue("segmentSlots", DEFAULT_SEGMENT_SLOTS));
+			config_compactFactor	= Integer.valueOf(line.getOptionValue("compactFactor", DEFAULT_COMPACT_FACTOR));
+			config_maintenanceRate	= Integer.valueOf(line.getOptionValue("maintenanceRate", DEFAULT_MAINTENANCE_RATE));
+			config_sqlBatch			= Integer.valueOf(line.getOptionValue("sqlBatch", DEFAULT_SQL_BATCH));
+			config_rowIndexEvery	= Integer.valueOf(line.getOptionValue("rowIndexEvery", DEFAULT_ROW_INDEX_EVERY));
+			config_device			= line.getOptionValue("device", DEFAULT_DEVICE);
+			config_deviceModel		= line.getOptionValue("deviceModel", DEFAULT_DEVICE_MODEL);
+			config_seekMicros		= Integer.valueOf(line.getOptionValue("seekMicros", DEFAULT_SEEK_MICROS));
+			config_transferMBps		= Integer.valueOf(line.getOptionValue("transferMBps", DEFAULT_TRANSFER_MBPS));
+			config_pageMicros		= Integer.valueOf(line.getOptionValue("pageMicros", DEFAULT_PAGE_MICROS));
+			config_queueDepth		= Integer.valueOf(line.getOptionValue("queueDepth", DEFAULT_QUEUE_DEPTH));
+			config_virtualTime		= line.hasOption("virtualTime");
+			config_sweep			= line.getOptionValue("sweep", DEFAULT_SWEEP);
+			config_parallel			= Integer.valueOf(line.getOptionValue("parallel", DEFAULT_PARALLEL));
+			config_diskBudget		= Integer.valueOf(line.getOptionValue("diskBudget", DEFAULT_DISK_BUDGET));
+			config_table			= line.getOptionValue("table", DEFAULT_TABLE);
+			config_batch			= Integer.valueOf(line.getOptionValue("batch", DEFAULT_BATCH));
+			config_ioThreads		= Integer.valueOf(line.getOptionValue("ioThreads", DEFAULT_IO_THREADS));
+			config_async			= line.hasOption("async");
+			config_forkMicros		= Integer.valueOf(line.getOptionValue("forkMicros", DEFAULT_FORK_MICROS));
+			config_placement		= line.getOptionValue("placement", DEFAULT_PLACEMENT);
+			config_extentSlots		= Integer.valueOf(line.getOptionValue("extentSlots", DEFAULT_EXTENT_SLOTS));
+			config_reorganizeMillis	= Long.valueOf(line.getOptionValue("reorganizeMillis", DEFAULT_REORGANIZE_MILLIS));
+			config_cacheBytes		= Long.valueOf(line.getOptionValue("cacheBytes", DEFAULT_CACHE_BYTES));
+			config_quantize			= line.getOptionValue("quantize", DEFAULT_QUANTIZE);
+			config_quantizeBands	= line.getOptionValue("quantizeBands", DEFAULT_QUANTIZE_BANDS);
+			config_quantizeError	= Float.valueOf(line.getOptionValue("quantizeError", DEFAULT_QUANTIZE_ERROR));
+			config_jfr				= line.hasOption("jfr");
+			config_cacheSnapshotMillis	= Long.valueOf(line.getOptionValue("cacheSnapshotMillis", DEFAULT_CACHE_SNAPSHOT_MILLIS));
+			config_warmUpBlocks		= Integer.valueOf(line.getOptionValue("warmUpBlocks", DEFAULT_WARM_UP_BLOCKS));
+			config_streams			= Integer.valueOf(line.getOptionValue("streams", DEFAULT_STREAMS));
 			config_p 				= DEFAULT_p;
 			calculated_SIZE 		= calculateSIZE();
 			calculated_cacheSize	= calculateCacheSize();
 			calculated_A 			= calculateA();
+			validate();
 			inited = true;
 		}
 	}
 
+	/**
+	 * Rejects option values the storages cannot work with.
+	 */
+	private void validate() throws ParseException {
+		if (config_queueDepth < 1)
+			throw new ParseException("queueDepth must be at least 1, got " + config_queueDepth);
+		if (config_commitMillis < 1)
+			throw new ParseException("commitMillis must be at least 1, got " + config_commitMillis);
+		if (config_diskBudget < 0)
+			throw new ParseException("diskBudget must not be negative, got " + config_diskBudget);
+		checkOneOf("stripe", config_stripe, FilePersistentStorage.STRIPE_BY_ID, FilePersistentStorage.STRIPE_BY_BAND);
+		checkOneOf("layout", config_layout, FilePersistentStorage.LAYOUT_PACKED, FilePersistentStorage.LAYOUT_ALIGNED, FilePersistentStorage.LAYOUT_PAGED);
+		checkOneOf("durability", config_durability, FilePersistentStorage.DURABILITY_NONE, FilePersistentStorage.DURABILITY_GROUP, FilePersistentStorage.DURABILITY_BLOCK);
+		checkOneOf("device", config_device, FilePersistentStorage.DEVICE_FILE, FilePersistentStorage.DEVICE_MEMORY);
+		checkOneOf("deviceModel", config_deviceModel, "none", "hdd", "ssd");
+		checkOneOf("placement", config_placement, FilePersistentStorage.PLACEMENT_ARRIVAL, FilePersistentStorage.PLACEMENT_ZORDER, FilePersistentStorage.PLACEMENT_HILBERT);
+		checkOneOf("quantize", config_quantize, FilePersistentStorage.QUANTIZE_NONE, FilePersistentStorage.QUANTIZE_HALF, FilePersistentStorage.QUANTIZE_BYTE);
+	}
+
+	private static void checkOneOf(String option, String value, String... allowed) throws ParseException {
+		for (String candidate : allowed) {
+			if (candidate.equalsIgnoreCase(value))
+				return;
+		}
+		throw new ParseException(option + " must be one of " + Arrays.toString(allowed) + ", got " + value);
+	}
+
 	private int calculateCacheSize() {
 		return (int) (calculated_SIZE * config_C);
 	}
@@ -130,21 +423,75 @@ public class Configurator {
 		return 1000 * calculated_SIZE / m;
 	}
 
+	/**
+	 * Options of the run by name, in the order they are printed.
+	 */
+	public LinkedHashMap<String, Object> asMap() {
+		LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+		map.put("storage", config_S);
+		map.put("N", config_N);
+		map.put("V", config_V);
+		map.put("T", config_T);
+		map.put("p", config_p);
+		map.put("A", calculated_A);
+		map.put("C", config_C);
+		map.put("O", config_O);
+		map.put("phaseBreak", config_phaseBreak);
+		map.put("rollupFactor", config_rollupFactor);
+		map.put("rollupLevels", config_rollupLevels);
+		map.put("shards", config_shards);
+		map.put("stripe", config_stripe);
+		map.put("layout", config_layout);
+		map.put("pageSize", config_pageSize);
+		map.put("durability", config_durability);
+		map.put("commitMillis", config_commitMillis);
+		map.put("commitBlocks", config_commitBlocks);
+		map.put("commitWait", config_commitWait);
+		map.put("wal", config_wal);
+		map.put("retention", config_retention);
+		map.put("segmentSlots", config_segmentSlots);
+		map.put("compactFactor", config_compactFactor);
+		map.put("maintenanceRate", config_maintenanceRate);
+		map.put("sqlBatch", config_sqlBatch);
+		map.put("rowIndexEvery", config_rowIndexEvery);
+		map.put("device", config_device);
+		map.put("deviceModel", config_deviceModel);
+		map.put("seekMicros", config_seekMicros);
+		map.put("transferMBps", config_transferMBps);
+		map.put("pageMicros", config_pageMicros);
+		map.put("queueDepth", config_queueDepth);
+		map.put("virtualTime", config_virtualTime);
+		map.put("sweep", config_sweep);
+		map.put("parallel", config_parallel);
+		map.put("diskBudget", config_diskBudget);
+		map.put("table", config_table);
+		map.put("batch", config_batch);
+		map.put("ioThreads", config_ioThreads);
+		map.put("async", config_async);
+		map.put("forkMicros", config_forkMicros);
+		map.put("placement", config_placement);
+		map.put("extentSlots", config_extentSlots);
+		map.put("reorganizeMillis", config_reorganizeMillis);
+		map.put("cacheBytes", config_cacheBytes);
+		map.put("quantize", config_quantize);
+		map.put("quantizeBands", config_quantizeBands);
+		map.put("quantizeError", config_quantizeError);
+		map.put("jfr", config_jfr);
+		map.put("cacheSnapshotMillis", config_cacheSnapshotMillis);
+		map.put("warmUpBlocks", config_warmUpBlocks);
+		map.put("streams", config_streams);
+		map.put("debug", config_debug);
+		map.values().removeAll(Collections.singleton(null));
+		return map;
+	}
+
 	@Override
 	public String toString() {
-		return MoreObjects.toStringHelper(this)
-				.omitNullValues()
-				.add("storage", config_S)
-				.add("N", config_N )
-				.add("V", config_V )
-				.add("T", config_T )
-				.add("p", config_p )
-				.add("A", calculated_A )
-				.add("C", config_C )
-				.add("O", config_O )
-				.add("phaseBreak", config_phaseBreak)
-				.add("debug", config_debug)
-				.toString();
+		ToStringHelper helper = MoreObjects.toStringHelper(this);
+		for (Map.Entry<String, Object> option : asMap().entrySet()){
+			helper.add(option.getKey(), option.getValue());
+		}
+		return helper.toString();
 	}
 
 	public int getPhaseBreak() {
@@ -159,6 +506,10 @@ public class Configurator {
 		return config_O;
 	}
 	
+	Options getOptions() {
+		return options;
+	}
+	
 	public String getStorage(){
 		return config_S;
 	}
@@ -206,4 +557,180 @@ public class Configurator {
 	public String getStoragePath() {
 		return config_storagePath;
 	}
+
+	public int getRollupFactor() {
+		return config_rollupFactor;
+	}
+
+	public int getRollupLevels() {
+		return config_rollupLevels;
+	}
+
+	public int getShards() {
+		return config_shards;
+	}
+
+	public String getShardPaths() {
+		return config_shardPaths;
+	}
+
+	public String getStripe() {
+		return config_stripe;
+	}
+
+	public String getLayout() {
+		return config_layout;
+	}
+
+	public int getPageSize() {
+		return config_pageSize;
+	}
+
+	public String getDurability() {
+		return config_durability;
+	}
+
+	public long getCommitMillis() {
+		return config_commitMillis;
+	}
+
+	public int getCommitBlocks() {
+		return config_commitBlocks;
+	}
+
+	public boolean isCommitWait() {
+		return config_commitWait;
+	}
+
+	public boolean isWal() {
+		return config_wal;
+	}
+
+	public long getRetention() {
+		return config_retention;
+	}
+
+	public int getSegmentSlots() {
+		return config_segmentSlots;
+	}
+
+	public int getCompactFactor() {
+		return config_compactFactor;
+	}
+
+	public int getMaintenanceRate() {
+		return config_maintenanceRate;
+	}
+
+	public int getSqlBatch() {
+		return config_sqlBatch;
+	}
+
+	public int getRowIndexEvery() {
+		return config_rowIndexEvery;
+	}
+
+	public String getDevice() {
+		return config_device;
+	}
+
+	public String getDeviceModel() {
+		return config_deviceModel;
+	}
+
+	public int getSeekMicros() {
+		return config_seekMicros;
+	}
+
+	public int getTransferMBps() {
+		return config_transferMBps;
+	}
+
+	public int getPageMicros() {
+		return config_pageMicros;
+	}
+
+	public int getQueueDepth() {
+		return config_queueDepth;
+	}
+
+	public boolean isVirtualTime() {
+		return config_virtualTime;
+	}
+
+	public String getSweep() {
+		return config_sweep;
+	}
+
+	public int getParallel() {
+		return config_parallel;
+	}
+
+	public int getDiskBudget() {
+		return config_diskBudget;
+	}
+
+	public String getTable() {
+		return config_table;
+	}
+
+	public int getBatch() {
+		return config_batch;
+	}
+
+	public int getIoThreads() {
+		return config_ioThreads;
+	}
+
+	public boolean isAsync() {
+		return config_async;
+	}
+
+	public int getForkMicros() {
+		return config_forkMicros;
+	}
+
+	public String getPlacement() {
+		return config_placement;
+	}
+
+	public int getExtentSlots() {
+		return config_extentSlots;
+	}
+
+	public long getReorganizeMillis() {
+		return config_reorganizeMillis;
+	}
+
+	public long getCacheBytes() {
+		return config_cacheBytes;
+	}
+
+	public String getQuantize() {
+		return config_quantize;
+	}
+
+	public String getQuantizeBands() {
+		return config_quantizeBands;
+	}
+
+	public float getQuantizeError() {
+		return config_quantizeError;
+	}
+
+	public boolean isJfr() {
+		return config_jfr;
+	}
+
+	public long getCacheSnapshotMillis() {
+		return config_cacheSnapshotMillis;
+	}
+
+	public int getWarmUpBlocks() {
+		return config_warmUpBlocks;
+	}
+
+	public int getStreams() {
+		return config_streams;
+	}
 }
@@ -4,26 +4,105 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import com.google.common.base.Joiner;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
 
+/**
+ * Writes the report of a run. By the extension of the output file it is JSON
+ * ({@code configuration}, {@code environment} and {@code results} sections), CSV
+ * ({@code section,key,value} rows without the raw samples) or the plain key=value text.
+ */
 public class ReportPrinter {
 
+	public static final String CONFIGURATION = "configuration";
+	public static final String ENVIRONMENT = "environment";
+	public static final String RESULTS = "results";
 	private static Joiner.MapJoiner mapJoiner = Joiner.on("\n").withKeyValueSeparator("=");
+	private static final Gson gson = new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create();
 
 
 	public static void print(Configurator configurator, HashMap<String, Object> queryReport) throws IOException{
-		BufferedWriter outputWriter  = null;
 		File report = new File(configurator.getOutput());
-		if (!report.exists()){
-			report.createNewFile();
+		if (queryReport == null){
+			queryReport = new HashMap<>();
 		}
-		outputWriter = new BufferedWriter(new FileWriter(report));
-		outputWriter.write("#Configurator:\n" + configurator.toString() + "\n");
-		outputWriter.write("#Results:\n" + mapJoiner.join((Map<?, ?>) queryReport) + "\n");
-		outputWriter.flush();
-		outputWriter.close();
+		Map<String, Map<String, Object>> sections = new LinkedHashMap<>();
+		sections.put(CONFIGURATION, configurator.asMap());
+		sections.put(ENVIRONMENT, environment());
+		sections.put(RESULTS, new TreeMap<>(queryReport));
+		try (BufferedWriter outputWriter = new BufferedWriter(new FileWriter(report))) {
+			if (report.getName().endsWith(".json")){
+				gson.toJson(sections, outputWriter);
+			}else if (report.getName().endsWith(".csv")){
+				outputWriter.write("section,key,value\n");
+				for (Map.Entry<String, Map<String, Object>> section : sections.entrySet()){
+					for (Map.Entry<String, Object> entry : section.getValue().entrySet()){
+						if (!(entry.getValue() instanceof Collection)){
+							outputWriter.write(section.getKey() + "," + entry.getKey() + "," + csv(entry.getValue()) + "\n");
+						}
+					}
+				}
+			}else{
+				outputWriter.write("#Configurator:\n" + configurator.toString() + "\n");
+				outputWriter.write("#Environment:\n" + mapJoiner.join(sections.get(ENVIRONMENT)) + "\n");
+				outputWriter.write("#Results:\n" + mapJoiner.join(scalars(sections.get(RESULTS))) + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Sections of a JSON report written by {@link #print}.
+	 */
+	public static Map<String, Map<String, Object>> read(File report) throws IOException {
+		Type type = new TypeToken<LinkedHashMap<String, LinkedHashMap<String, Object>>>(){}.getType();
+		try (Reader reader = Files.newBufferedReader(report.toPath())) {
+			return gson.fromJson(reader, type);
+		}
+	}
+
+	static Map<String, Object> environment() {
+		Runtime runtime = Runtime.getRuntime();
+		Map<String, Object> environment = new LinkedHashMap<>();
+		environment.put("javaVersion", System.getProperty("java.version"));
+		environment.put("javaVendor", System.getProperty("java.vendor"));
+		environment.put("vm", System.getProperty("java.vm.name"));
+		environment.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"));
+		environment.put("arch", System.getProperty("os.arch"));
+		environment.put("cores", runtime.availableProcessors());
+		environment.put("maxMemory", runtime.maxMemory());
+		environment.put("timestamp", System.currentTimeMillis());
+		return environment;
+	}
+
+	static Map<String, Object> scalars(Map<String, Object> report) {
+		Map<String, Object> scalars = new LinkedHashMap<>();
+		for (Map.Entry<String, Object> entry : report.entrySet()){
+			if (!(entry.getValue() instanceof Collection)){
+				scalars.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return scalars;
+	}
+
+	static String csv(Object value) {
+		if (value == null) {
+			return "";
+		}
+		String text = String.valueOf(value);
+		if (text.contains(",") || text.contains("\"") || text.contains("\n")) {
+			return "\"" + text.replace("\"", "\"\"") + "\"";
+		}
+		return text;
 	}
 }
@@ -0,0 +1,86 @@
+package ru.spbu.math.plok.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Growing array of measurements (latencies in usec, rates per sec) with the percentiles
+ * the reports print. Not thread safe, every phase records into its own instance.
+ */
+public class Samples {
+
+	/**
+	 * At most that many raw values go to a report, evenly strided over the run.
+	 */
+	public static final int REPORTED_SAMPLES = 4096;
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+	private static final String[] PERCENTILE_NAMES = {"P50", "P90", "P99", "P999"};
+	private double[] values;
+	private int size;
+
+	public Samples(int expected) {
+		this.values = new double[Math.max(expected, 16)];
+	}
+
+	public void add(double value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double mean() {
+		double sum = 0;
+		for (int i = 0; i < size; i++) {
+			sum += values[i];
+		}
+		return size == 0 ? 0.0 : sum / size;
+	}
+
+	/**
+	 * Nearest-rank percentile over a sorted copy.
+	 */
+	public double percentile(double p) {
+		if (size == 0) {
+			return 0.0;
+		}
+		double[] sorted = Arrays.copyOf(values, size);
+		Arrays.sort(sorted);
+		return sorted[rank(p)];
+	}
+
+	private int rank(double p) {
+		return Math.min(size - 1, Math.max(0, (int) Math.ceil(p / 100 * size) - 1));
+	}
+
+	public List<Double> subsample(int limit) {
+		List<Double> result = new ArrayList<>(Math.min(size, limit));
+		double stride = Math.max(1.0, (double) size / limit);
+		for (double i = 0; i < size && result.size() < limit; i += stride) {
+			result.add(values[(int) i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Puts mean, percentiles and max under {@code <prefix>Mean<unit>}, {@code <prefix>P99<unit>}, ...
+	 * and the raw values under {@code <prefix><unit>}.
+	 */
+	public void report(String prefix, String unit, Map<String, Object> report) {
+		double[] sorted = Arrays.copyOf(values, size);
+		Arrays.sort(sorted);
+		report.put(prefix + "Mean" + unit, mean());
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			report.put(prefix + PERCENTILE_NAMES[i] + unit, size == 0 ? 0.0 : sorted[rank(PERCENTILES[i])]);
+		}
+		report.put(prefix + "Max" + unit, size == 0 ? 0.0 : sorted[size - 1]);
+		report.put(prefix + unit, subsample(REPORTED_SAMPLES));
+	}
+
+}
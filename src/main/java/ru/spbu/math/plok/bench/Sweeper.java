@@ -0,0 +1,207 @@
+package ru.spbu.math.plok.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.gson.GsonBuilder;
+
+import ru.spbu.math.plok.model.storagesystem.FilePersistentStorage;
+
+/**
+ * Runs the whole cartesian product of a parameter grid in one JVM.
+ * The grid is given as {@code -sweep "P=4,8,16;L=5..20:5;S=PLok,rowlog"}: a list of values
+ * or an integer range {@code from..to[:step]} per option. Every point gets a fresh injector and
+ * its own storage directory, runs in virtual time without a break, and lands as a row of a
+ * CSV or JSON table (chosen by the extension of {@code -table}). Points run on {@code -parallel}
+ * threads, but at most {@code -diskBudget} of those on the file device at once, so that points
+ * sharing a disk do not skew each other's timings.
+ */
+public class Sweeper {
+
+	private static final Logger log = LoggerFactory.getLogger(Sweeper.class);
+	private static final Set<String> SWEEP_OPTIONS = new HashSet<>(Arrays.asList("sweep", "parallel", "diskBudget", "table", "O"));
+	private static final String POINT_DIRECTORY = "sweep_";
+
+	public static void sweep(Configurator configurator, String[] args) throws IOException, InterruptedException, ExecutionException {
+		Map<String, List<String>> grid = parse(configurator.getSweep());
+		List<Map<String, String>> points = product(grid);
+		int cores = Runtime.getRuntime().availableProcessors();
+		int threads = configurator.getParallel() > 0 ? Math.min(configurator.getParallel(), cores) : cores;
+		log.info("Sweeping {} points over {} with {} threads, disk budget {}", points.size(), grid.keySet(), threads, configurator.getDiskBudget());
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Semaphore disk = new Semaphore(configurator.getDiskBudget() > 0 ? configurator.getDiskBudget() : threads);
+		List<Future<Map<String, Object>>> results = new ArrayList<>();
+		try {
+			for (int k = 0; k < points.size(); k++) {
+				final int point = k;
+				final String[] pointArgs = override(configurator, args, points.get(k), k);
+				results.add(pool.submit(() -> runPoint(point, points.get(point), pointArgs, disk)));
+			}
+			List<Map<String, Object>> rows = new ArrayList<>();
+			for (Future<Map<String, Object>> result : results) {
+				rows.add(result.get());
+			}
+			String table = configurator.getTable().isEmpty() ? "sweep_" + System.currentTimeMillis() + ".csv" : configurator.getTable();
+			write(new File(table), rows);
+			log.info("Sweep table written to {}", table);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static Map<String, Object> runPoint(int point, Map<String, String> values, String[] args, Semaphore disk) {
+		Map<String, Object> row = new LinkedHashMap<>();
+		row.put("point", point);
+		row.putAll(values);
+		try {
+			Configurator configurator = new Configurator(args);
+			boolean onDisk = FilePersistentStorage.DEVICE_FILE.equalsIgnoreCase(configurator.getDevice());
+			if (onDisk)
+				disk.acquire();
+			try {
+				row.putAll(new TreeMap<>(Tester.run(configurator)));
+			} finally {
+				if (onDisk)
+					disk.release();
+			}
+			log.info("Point {} {} done", point, values);
+		} catch (Exception e) {
+			log.error("Point {} {} failed", point, values, e);
+			row.put("error", String.valueOf(e));
+		}
+		return row;
+	}
+
+	static Map<String, List<String>> parse(String spec) {
+		Map<String, List<String>> grid = new LinkedHashMap<>();
+		for (String axis : Splitter.on(';').trimResults().omitEmptyStrings().split(spec)) {
+			int eq = axis.indexOf('=');
+			if (eq <= 0) {
+				throw new IllegalArgumentException("Sweep axis '" + axis + "' is not name=values");
+			}
+			String name = axis.substring(0, eq).trim();
+			String values = axis.substring(eq + 1).trim();
+			List<String> list = new ArrayList<>();
+			if (values.contains("..")) {
+				String[] bounds = values.split("\\.\\.|:");
+				long from = Long.parseLong(bounds[0].trim());
+				long to = Long.parseLong(bounds[1].trim());
+				long step = bounds.length > 2 ? Long.parseLong(bounds[2].trim()) : 1;
+				if (step <= 0) {
+					throw new IllegalArgumentException("Sweep axis '" + axis + "' has a non-positive step");
+				}
+				for (long v = from; v <= to; v += step) {
+					list.add(String.valueOf(v));
+				}
+			} else {
+				list.addAll(Splitter.on(',').trimResults().omitEmptyStrings().splitToList(values));
+			}
+			if (list.isEmpty()) {
+				throw new IllegalArgumentException("Sweep axis '" + axis + "' has no values");
+			}
+			grid.put(name, list);
+		}
+		return grid;
+	}
+
+	static List<Map<String, String>> product(Map<String, List<String>> grid) {
+		List<Map<String, String>> points = new ArrayList<>();
+		points.add(new LinkedHashMap<String, String>());
+		for (Map.Entry<String, List<String>> axis : grid.entrySet()) {
+			List<Map<String, String>> next = new ArrayList<>();
+			for (Map<String, String> point : points) {
+				for (String value : axis.getValue()) {
+					Map<String, String> extended = new LinkedHashMap<>(point);
+					extended.put(axis.getKey(), value);
+					next.add(extended);
+				}
+			}
+			points = next;
+		}
+		return points;
+	}
+
+	/**
+	 * Command line of one point: the original one without the sweep options and the swept ones,
+	 * followed by the point values, a storage directory of its own, virtual time and no break.
+	 */
+	static String[] override(Configurator configurator, String[] args, Map<String, String> values, int point) {
+		Options options = configurator.getOptions();
+		for (String name : values.keySet()) {
+			if (!options.hasOption(name)) {
+				throw new IllegalArgumentException("Unknown sweep option " + name);
+			}
+		}
+		Set<String> replaced = new HashSet<>(SWEEP_OPTIONS);
+		replaced.addAll(values.keySet());
+		replaced.addAll(Arrays.asList("storagePath", "shardPaths", "virtualTime", "break"));
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			String name = args[i].replaceFirst("^-+", "");
+			Option option = args[i].startsWith("-") ? options.getOption(name) : null;
+			if (option != null && replaced.contains(option.getOpt())) {
+				if (option.hasArg()) {
+					i++;
+				}
+			} else {
+				result.add(args[i]);
+			}
+		}
+		for (Map.Entry<String, String> value : values.entrySet()) {
+			result.add("-" + value.getKey());
+			if (options.getOption(value.getKey()).hasArg()) {
+				result.add(value.getValue());
+			}
+		}
+		result.addAll(Arrays.asList("-storagePath", new File(configurator.getStoragePath(), POINT_DIRECTORY + point).getPath(),
+				"-virtualTime", "-break", "0"));
+		return result.toArray(new String[result.size()]);
+	}
+
+	private static void write(File table, List<Map<String, Object>> rows) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(table))) {
+			if (table.getName().endsWith(".json")) {
+				new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create().toJson(rows, writer);
+				return;
+			}
+			Set<String> columns = new LinkedHashSet<>();
+			for (Map<String, Object> row : rows) {
+				columns.addAll(ReportPrinter.scalars(row).keySet());
+			}
+			writer.write(Joiner.on(',').join(columns));
+			writer.newLine();
+			for (Map<String, Object> row : rows) {
+				List<String> cells = new ArrayList<>();
+				for (String column : columns) {
+					cells.add(ReportPrinter.csv(row.get(column)));
+				}
+				writer.write(Joiner.on(',').join(cells));
+				writer.newLine();
+			}
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package ru.spbu.math.plok.bench;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.concurrent.ExecutionException;
@@ -12,6 +13,9 @@ import org.slf4j.LoggerFactory;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
 import ru.spbu.math.plok.model.client.Client;
 import ru.spbu.math.plok.model.generator.Generator;
 import ru.spbu.math.plok.model.storagesystem.StorageSystem;
@@ -19,6 +23,7 @@ import ru.spbu.math.plok.model.storagesystem.StorageSystem;
 public class Tester {
 
 	private static Logger log = LoggerFactory.getLogger(Tester.class);
+	private static final String RECORDING_PREFIX = "run_";
 
 
 	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException, ParseException {
@@ -27,23 +32,76 @@ public class Tester {
 		Configurator configurator = new Configurator();
 		configurator.initFromArgs(args);
 		System.out.println(configurator);
-		if (!configurator.isDebugging()){
-			Injector injector = Guice.createInjector(new BuildModule(configurator));
-			StorageSystem store = injector.getInstance(StorageSystem.class);
+		if (!configurator.getSweep().isEmpty()){
+			Sweeper.sweep(configurator, args);
+		}else if (!configurator.isDebugging()){
+			HashMap<String, Object> queryReport = run(configurator);
+			log.info("Writing reports to output.");
+			ReportPrinter.print(configurator, queryReport);
+		}
+		log.info("All done!");
+	}
+
+	/**
+	 * One write phase followed by one read phase on a freshly built storage, which is closed afterwards.
+	 * Returns the client report merged with the generator one. With {@code -jfr} the run is recorded
+	 * into a flight recording file in the storage directory, named in the report.
+	 */
+	public static HashMap<String, Object> run(Configurator configurator) throws IOException, InterruptedException, ExecutionException {
+		if (!configurator.isJfr()){
+			return attack(configurator);
+		}
+		File file = new File(configurator.getStoragePath(), RECORDING_PREFIX + System.currentTimeMillis() + ".jfr");
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		try (Recording recording = newRecording()) {
+			recording.start();
+			HashMap<String, Object> report;
+			try {
+				report = attack(configurator);
+			} finally {
+				recording.stop();
+				recording.dump(file.toPath());
+			}
+			log.info("Flight recording written to {}", file);
+			report.put("jfrFile", file.getPath());
+			return report;
+		}
+	}
+
+	/**
+	 * The JVM events of the default profile and the storage events, stack traces only where the profile asks for them.
+	 */
+	private static Recording newRecording() throws IOException {
+		try {
+			Recording recording = new Recording(Configuration.getConfiguration("default"));
+			recording.setName("plok");
+			return recording;
+		} catch (java.text.ParseException e) {
+			throw new IOException("Broken default flight recorder configuration", e);
+		}
+	}
+
+	private static HashMap<String, Object> attack(Configurator configurator) throws IOException, InterruptedException, ExecutionException {
+		Injector injector = Guice.createInjector(new BuildModule(configurator));
+		StorageSystem store = injector.getInstance(StorageSystem.class);
+		try {
 			Generator generator = injector.getInstance(Generator.class);
 			Client client 		= injector.getInstance(Client.class);
 			log.info("Letting the generator to attack for {} msec", configurator.getT());
 			HashMap<String, Object> generatorReport = generator.attack(store);
-			log.info("Let's have a break for {} msec", configurator.getPhaseBreak());
-			TimeUnit.MILLISECONDS.sleep(configurator.getPhaseBreak());
+			if (!configurator.isVirtualTime()){
+				log.info("Let's have a break for {} msec", configurator.getPhaseBreak());
+				TimeUnit.MILLISECONDS.sleep(configurator.getPhaseBreak());
+			}
 			log.info("Break is over. Starting client...");
 			client.setQueryTimeBounds((Long)generatorReport.get("attackStart"), (Long)generatorReport.get("attackEnd"));
 			HashMap<String, Object> queryReport = client.attack(store);
 			log.info("Client has finished!");
-			log.info("Writing reports to output.");
-			ReportPrinter.print(configurator, queryReport);
+			queryReport.putAll(generatorReport);
+			return queryReport;
+		} finally {
+			store.close();
 		}
-		log.info("All done!");
 	}
 
 
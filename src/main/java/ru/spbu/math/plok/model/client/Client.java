@@ -1,7 +1,9 @@
 package ru.spbu.math.plok.model.client;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,12 +13,15 @@ import com.google.inject.Provider;
 import com.google.inject.name.Named;
 
 import ru.spbu.math.plok.bench.QueryGenerator;
+import ru.spbu.math.plok.bench.Samples;
 import ru.spbu.math.plok.model.storagesystem.StorageSystem;
 
 public class Client{
 	private static Logger log = LoggerFactory.getLogger(Client.class);
 
 	private final long queriesCount;			// A
+	private final int batch;
+	private final boolean async;
 	private long madeQueries;
 	private LinkedHashMap<String, Double> result;
 	private QueryGenerator queryGenerator;
@@ -28,8 +33,11 @@ public class Client{
 	}
 
 	@Inject
-	public Client(@Named("A")int queriesCount, Provider<QueryGenerator> provider){
+	public Client(@Named("A")int queriesCount, @Named("batch") int batch, @Named("async") boolean async,
+			Provider<QueryGenerator> provider){
 		this.queriesCount = queriesCount;
+		this.batch = batch;
+		this.async = async;
 		this.madeQueries = 0;
 		this.queryGenerator = provider.get();
 		this.result = new LinkedHashMap<String, Double>();
@@ -37,17 +45,44 @@ public class Client{
 
 	public HashMap<String, Object> attack(StorageSystem store){
 		log.debug("Stating quering {} queries from client", queriesCount);
+		Samples latencies = new Samples((int) Math.min(queriesCount + 1, Integer.MAX_VALUE / 2));
+		long serveNanos = 0;
 		try{
 			while (madeQueries <= queriesCount){
+				if (batch > 0){
+					List<Query> queries = new ArrayList<>(batch);
+					while (queries.size() < batch && madeQueries + queries.size() <= queriesCount){
+						queries.add(queryGenerator.nextQuery());
+					}
+					long start = System.nanoTime();
+					store.serveBatch(queries);
+					long elapsed = System.nanoTime() - start;
+					serveNanos += elapsed;
+					latencies.add(elapsed / 1000.0 / queries.size());
+					madeQueries += queries.size();
+					continue;
+				}
 				Query q = queryGenerator.nextQuery();
-				store.serve(q);
+				long start = System.nanoTime();
+				if (async){
+					store.serveAsync(q).get();
+				}else{
+					store.serve(q);
+				}
+				long elapsed = System.nanoTime() - start;
+				serveNanos += elapsed;
+				latencies.add(elapsed / 1000.0);
 				madeQueries++;
 			}
 			log.debug("Client {} is over");
 		}catch(Exception er){
 			log.error("Client unexpectedly finished!", er);
 		}
-		return store.getStatistics();
+		HashMap<String, Object> statistics = store.getStatistics();
+		statistics.put("queryCount", madeQueries);
+		statistics.put("queriesPerSecond", serveNanos == 0 ? 0.0 : madeQueries * 1e9 / serveNanos);
+		latencies.report("serveLatency", "Micros", statistics);
+		return statistics;
 	}
 
 	public void setQueryTimeBounds(long start, long end) {
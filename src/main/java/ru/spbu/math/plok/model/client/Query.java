@@ -6,6 +6,8 @@ public class Query {
 	int indexEnd;
 	long timeStart;
 	long timeEnd;
+	ValuePredicate predicate;
+	long resolution;
 	
 	public Query(int indexStart, int indexEnd, long timeStart, long timeEnd) {
 		super();
@@ -15,6 +17,11 @@ public class Query {
 		this.timeEnd = timeEnd;
 	}
 
+	public Query(int indexStart, int indexEnd, long timeStart, long timeEnd, ValuePredicate predicate) {
+		this(indexStart, indexEnd, timeStart, timeEnd);
+		this.predicate = predicate;
+	}
+
 	public int getIndexStart() {
 		return indexStart;
 	}
@@ -46,6 +53,25 @@ public class Query {
 	public void setTimeStart(long timeStart) {
 		this.timeStart = timeStart;
 	}
+
+	public ValuePredicate getPredicate() {
+		return predicate;
+	}
+
+	public void setPredicate(ValuePredicate predicate) {
+		this.predicate = predicate;
+	}
+
+	/**
+	 * Coarsest acceptable distance between rows in msec, 0 for raw data.
+	 */
+	public long getResolution() {
+		return resolution;
+	}
+
+	public void setResolution(long resolution) {
+		this.resolution = resolution;
+	}
 	
 
 }
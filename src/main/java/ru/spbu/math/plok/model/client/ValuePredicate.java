@@ -0,0 +1,66 @@
+package ru.spbu.math.plok.model.client;
+
+/**
+ * Selects rows whose value at the given vector index lies in [low, high].
+ */
+public class ValuePredicate {
+
+	private final int index;
+	private final float low;
+	private final float high;
+
+	public ValuePredicate(int index, float low, float high) {
+		super();
+		this.index = index;
+		this.low = low;
+		this.high = high;
+	}
+
+	public static ValuePredicate greaterThan(int index, float value) {
+		return new ValuePredicate(index, Math.nextUp(value), Float.POSITIVE_INFINITY);
+	}
+
+	public static ValuePredicate lessThan(int index, float value) {
+		return new ValuePredicate(index, Float.NEGATIVE_INFINITY, Math.nextDown(value));
+	}
+
+	public static ValuePredicate between(int index, float low, float high) {
+		return new ValuePredicate(index, low, high);
+	}
+
+	public boolean test(float value) {
+		return value >= low && value <= high;
+	}
+
+	/**
+	 * Whether some value in [min, max] can satisfy the predicate.
+	 */
+	public boolean mayMatch(float min, float max) {
+		return max >= low && min <= high;
+	}
+
+	/**
+	 * Whether every value in [min, max] satisfies the predicate.
+	 */
+	public boolean allMatch(float min, float max) {
+		return min >= low && max <= high;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public float getLow() {
+		return low;
+	}
+
+	public float getHigh() {
+		return high;
+	}
+
+	@Override
+	public String toString() {
+		return "ValuePredicate [index=" + index + ", low=" + low + ", high=" + high + "]";
+	}
+
+}
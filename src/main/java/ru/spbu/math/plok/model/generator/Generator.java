@@ -12,11 +12,16 @@ import org.slf4j.LoggerFactory;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import ru.spbu.math.plok.bench.Samples;
 import ru.spbu.math.plok.model.storagesystem.StorageSystem;
 
 public class Generator{
 	
 	private static Logger log = LoggerFactory.getLogger(Generator.class);
+	/**
+	 * Puts per throughput sample.
+	 */
+	private static final int PUT_WINDOW = 128;
 
 	private int delay;
 	private ArrayList<Vector> vectors;
@@ -24,6 +29,7 @@ public class Generator{
 	private final int vectorSize;
 	private Random rand;
 	private volatile boolean attacking;
+	private final boolean virtualTime;
 	
 	@Override
 	public String toString() {
@@ -31,8 +37,10 @@ public class Generator{
 	}
 
 	@Inject
-	public Generator(@Named("N")int vectorSize, @Named("p")int period, @Named("T")int writeTime) throws FileNotFoundException {
+	public Generator(@Named("N")int vectorSize, @Named("p")int period, @Named("T")int writeTime,
+			@Named("virtualTime") boolean virtualTime) throws FileNotFoundException {
 		super();
+		this.virtualTime = virtualTime;
 		this.delay = period;
 		this.writeTime = writeTime;
 		this.vectorSize = vectorSize;
@@ -63,14 +71,38 @@ public class Generator{
 		try {
 			attacking = true;
 			long callStart = System.currentTimeMillis();
-			for (int j = 0; j < vectors.size() && attacking; j++){
-				store.put(vectors.get(j));
-				TimeUnit.MILLISECONDS.sleep(delay);
+			long wallStart = System.nanoTime();
+			Samples latencies = new Samples(vectors.size());
+			Samples rates = new Samples(vectors.size() / PUT_WINDOW + 1);
+			long putNanos = 0;
+			long windowNanos = 0;
+			int j = 0;
+			for (; j < vectors.size() && attacking; j++){
+				long stamp = virtualTime ? callStart + (long) j * delay : System.currentTimeMillis();
+				long start = System.nanoTime();
+				store.put(new Vector(stamp, vectors.get(j).getVector()));
+				long elapsed = System.nanoTime() - start;
+				putNanos += elapsed;
+				windowNanos += elapsed;
+				latencies.add(elapsed / 1000.0);
+				if ((j + 1) % PUT_WINDOW == 0){
+					rates.add(PUT_WINDOW * 1e9 / Math.max(windowNanos, 1));
+					windowNanos = 0;
+				}
+				if (!virtualTime){
+					TimeUnit.MILLISECONDS.sleep(delay);
+				}
 			}
-			long callFinish = System.currentTimeMillis();
+			long callFinish = virtualTime ? callStart + (long) j * delay : System.currentTimeMillis();
+			long putMillis = (System.nanoTime() - wallStart) / 1000000;
 			log.debug("T is actually: {}", callFinish - callStart);
 			report.put("attackStart", callStart);
 			report.put("attackEnd", callFinish);
+			report.put("putCount", j);
+			report.put("putMillis", putMillis);
+			report.put("putsPerSecond", putNanos == 0 ? 0.0 : j * 1e9 / putNanos);
+			latencies.report("putLatency", "Micros", report);
+			report.put("putRateSamples", rates.subsample(Samples.REPORTED_SAMPLES));
 		} catch (Exception e) {
 			log.error("Problem {}!", e.getMessage());
 			report.put("error", e.getMessage());
@@ -0,0 +1,46 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads of persisted blocks counted per block. Every ranking halves the counts, so the ranking
+ * follows the recent load, and forgets the blocks no longer cached.
+ */
+class AccessCounts {
+
+	private final Map<Long, Integer> counts = new HashMap<>();
+
+	synchronized void record(Collection<Long> ids) {
+		for (Long id : ids){
+			counts.merge(id, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Up to {@code limit} of the cached blocks, the most read first.
+	 */
+	synchronized List<Long> hottest(Set<Long> cached, int limit) {
+		counts.keySet().retainAll(cached);
+		List<Map.Entry<Long, Integer>> ranked = new ArrayList<>(counts.entrySet());
+		ranked.sort((a, b) -> b.getValue().equals(a.getValue()) ? Long.compare(a.getKey(), b.getKey()) : Integer.compare(b.getValue(), a.getValue()));
+		List<Long> result = new ArrayList<>(Math.min(limit, ranked.size()));
+		for (Map.Entry<Long, Integer> entry : ranked){
+			if (result.size() == limit)
+				break;
+			result.add(entry.getKey());
+		}
+		counts.replaceAll((id, count) -> count / 2);
+		counts.values().removeIf(count -> count == 0);
+		return result;
+	}
+
+	synchronized int size() {
+		return counts.size();
+	}
+
+}
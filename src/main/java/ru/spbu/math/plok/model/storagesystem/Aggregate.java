@@ -0,0 +1,111 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.Set;
+
+import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Min/max/sum/mean of all values inside a query rectangle.
+ */
+public class Aggregate {
+
+	private float min;
+	private float max;
+	private double sum;
+	private long count;
+
+	public Aggregate() {
+		super();
+		this.min = Float.POSITIVE_INFINITY;
+		this.max = Float.NEGATIVE_INFINITY;
+		this.sum = 0;
+		this.count = 0;
+	}
+
+	Aggregate(float min, float max, double sum, long count) {
+		this.min = min;
+		this.max = max;
+		this.sum = sum;
+		this.count = count;
+	}
+
+	public void add(float value) {
+		if (value < min)
+			min = value;
+		if (value > max)
+			max = value;
+		sum += value;
+		count++;
+	}
+
+	public void merge(BlockSummary summary, int fromColumn, int toColumn) {
+		for (int j = fromColumn; j <= toColumn; j++) {
+			if (summary.getMin(j) < min)
+				min = summary.getMin(j);
+			if (summary.getMax(j) > max)
+				max = summary.getMax(j);
+			sum += summary.getSum(j);
+		}
+		count += (long) summary.getCount() * (toColumn - fromColumn + 1);
+	}
+
+	public void merge(Aggregate other) {
+		if (other.min < min)
+			min = other.min;
+		if (other.max > max)
+			max = other.max;
+		sum += other.sum;
+		count += other.count;
+	}
+
+	public void scan(Block block, Query q) {
+		scan(block, q, null);
+	}
+
+	/**
+	 * Scans the part of the block inside the query rectangle, taking only the rows
+	 * with the given timestamps unless they are null.
+	 */
+	public void scan(Block block, Query q, Set<Long> rows) {
+		BlockHeader header = block.getHeader();
+		int from = (int) (Math.max(q.getIndexStart(), header.getiBeg()) - header.getiBeg());
+		int to   = (int) (Math.min(q.getIndexEnd(), header.getiEnd()) - header.getiBeg());
+		for (Vector row : block.getData()) {
+			if (row.getTimestamp() < q.getTimeStart() || row.getTimestamp() > q.getTimeEnd())
+				continue;
+			if (rows != null && !rows.contains(row.getTimestamp()))
+				continue;
+			float[] values = row.getVector();
+			for (int j = from; j <= to; j++) {
+				add(values[j]);
+			}
+		}
+	}
+
+	public float getMin() {
+		return min;
+	}
+
+	public float getMax() {
+		return max;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	@Override
+	public String toString() {
+		return "Aggregate [min=" + min + ", max=" + max + ", sum=" + sum + ", count=" + count + ", mean=" + getMean() + "]";
+	}
+
+}
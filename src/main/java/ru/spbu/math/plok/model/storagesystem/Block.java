@@ -17,6 +17,13 @@ public class Block {
 		this.P = P;
 		data = new ArrayList<Vector>(P);
 	}
+
+	Block(BlockHeader header, int P, int L, ArrayList<Vector> data) {
+		this.header = header;
+		this.P = P;
+		this.L = L;
+		this.data = data;
+	}
 	
 	public boolean tryAdd(Vector vector){
 		if (vector.getLength() != L){
@@ -33,7 +40,17 @@ public class Block {
 	}
 	
 	public void pack(long id, long iBeg){
+		StorageEvents.BlockPack event = new StorageEvents.BlockPack();
+		event.begin();
 		this.header = new BlockHeader(id, data.get(0).getTimestamp(), data.get(data.size() - 1).getTimestamp(), iBeg, iBeg + L - 1);
+		this.header.setSummary(BlockSummary.of(data, L));
+		if (event.shouldCommit()){
+			event.blockId = id;
+			event.rows = data.size();
+			event.width = L;
+			event.iBeg = iBeg;
+			event.commit();
+		}
 	}
 
 	public BlockHeader getHeader() {
@@ -49,4 +66,12 @@ public class Block {
 		return data;
 	}
 
+	public int getP() {
+		return P;
+	}
+
+	public int getL() {
+		return L;
+	}
+
 }
@@ -0,0 +1,43 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Blocks of a query handed out one by one, so that a storage may load them as the
+ * consumer advances. Closing it releases whatever is still buffered.
+ */
+public interface BlockCursor extends Iterator<Block>, AutoCloseable {
+
+	@Override
+	public default void close() {
+	}
+
+	public default Stream<Block> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(this::close);
+	}
+
+	/**
+	 * Cursor over an answer that is already in memory.
+	 */
+	public static BlockCursor of(List<Block> blocks) {
+		Iterator<Block> iterator = blocks.iterator();
+		return new BlockCursor() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Block next() {
+				return iterator.next();
+			}
+		};
+	}
+
+}
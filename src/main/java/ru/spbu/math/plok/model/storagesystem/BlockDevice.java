@@ -0,0 +1,28 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Byte addressable storage behind one segment of a shard.
+ */
+interface BlockDevice extends Closeable {
+
+	/**
+	 * @return bytes read, -1 if the position is past the end
+	 */
+	int read(ByteBuffer dst, long position) throws IOException;
+
+	int write(ByteBuffer src, long position) throws IOException;
+
+	long size() throws IOException;
+
+	void force() throws IOException;
+
+	/**
+	 * Releases the device and everything stored on it.
+	 */
+	void delete() throws IOException;
+
+}
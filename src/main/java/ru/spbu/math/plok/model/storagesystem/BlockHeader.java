@@ -6,6 +6,7 @@ public class BlockHeader {
 	private long tEnd;
 	private long iBeg;
 	private long iEnd;
+	private BlockSummary summary;
 	
 	public BlockHeader(long id) {
 		super();
@@ -105,6 +106,14 @@ public class BlockHeader {
 		this.iEnd = iEnd;
 	}
 
+	public BlockSummary getSummary() {
+		return summary;
+	}
+
+	public void setSummary(BlockSummary summary) {
+		this.summary = summary;
+	}
+
 	
 
 	
@@ -0,0 +1,277 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file of the blocks of a persister: the location, span, header and summary of every
+ * block written or moved, and the ids of the blocks forgotten. It is read on open instead of the
+ * segments, so opening reads a few dozen bytes per live block and no block at all. Every record
+ * carries a CRC32; reading stops at the first torn or corrupt one and the file is cut there. Once
+ * most of the records are outdated the file is rewritten with the live blocks only.
+ */
+class BlockManifest implements Closeable, Flushable {
+
+	private static final Logger log = LoggerFactory.getLogger(BlockManifest.class);
+	private static final byte PUT = 0;
+	private static final byte FORGET = 1;
+	private static final byte NEXT_ID = 2;			// ids up to this one were handed out, first record of a rewrite
+	private static final int LOCATION_OFFSET = 1 + Long.BYTES;	// of a put record, after the kind and the id
+	private static final int MAX_RECORD_SIZE = 1 << 24;
+	private static final int REWRITE_MIN_RECORDS = 4096;
+
+	private final Path file;
+	private final long idBase;
+	private final Map<Long, byte[]> live = new LinkedHashMap<>();	// latest put record of every block
+	private FileChannel channel;
+	private long records;
+	private long maxId;
+	private boolean dirty;
+
+	BlockManifest(Path file, long idBase) {
+		this.file = file;
+		this.idBase = idBase;
+		this.maxId = idBase - 1;
+	}
+
+	/**
+	 * Block as the manifest last recorded it.
+	 */
+	static class Entry {
+
+		private final long location;
+		private final int span;
+		private final BlockHeader header;
+
+		Entry(long location, int span, BlockHeader header) {
+			this.location = location;
+			this.span = span;
+			this.header = header;
+		}
+
+		long getLocation() {
+			return location;
+		}
+
+		int getSpan() {
+			return span;
+		}
+
+		BlockHeader getHeader() {
+			return header;
+		}
+	}
+
+	/**
+	 * Reads the records written so far. Must be called once before recording.
+	 * @return the latest entry of every block not forgotten, in the order they were recorded
+	 */
+	synchronized Map<Long, Entry> recover() throws IOException {
+		Files.createDirectories(file.getParent());
+		long intact = 0;
+		if (Files.exists(file)) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+				byte[] payload;
+				while ((payload = readRecord(in)) != null) {
+					apply(payload);
+					intact += Integer.BYTES + payload.length + Integer.BYTES;
+					records++;
+				}
+			}
+		}
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (channel.size() > intact) {
+			log.warn("Torn manifest record at {} of {}, cutting {} bytes", intact, file, channel.size() - intact);
+			channel.truncate(intact);
+		}
+		channel.position(intact);
+		Map<Long, Entry> entries = new LinkedHashMap<>();
+		for (byte[] payload : live.values()) {
+			Entry entry = decode(payload);
+			entries.put(entry.getHeader().getId(), entry);
+		}
+		rewriteIfOutdated();
+		return entries;
+	}
+
+	private static byte[] readRecord(DataInputStream in) throws IOException {
+		try {
+			int length = in.readInt();
+			if (length < 1 || length > MAX_RECORD_SIZE)
+				return null;
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			return (int) crc.getValue() == in.readInt() ? payload : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	private void apply(byte[] payload) {
+		long id = idBase + ByteBuffer.wrap(payload).getLong(1);
+		if (payload[0] == PUT) {
+			live.put(id, payload);
+			maxId = Math.max(maxId, id);
+		} else if (payload[0] == FORGET) {
+			live.remove(id);
+		} else if (payload[0] == NEXT_ID) {
+			maxId = Math.max(maxId, id);
+		}
+	}
+
+	/**
+	 * Records a block just written at the location.
+	 */
+	synchronized void put(BlockHeader header, long location, int span) throws IOException {
+		BlockSummary summary = header.getSummary();
+		int width = summary.getWidth();
+		ByteBuffer buffer = ByteBuffer.allocate(1 + Long.BYTES * 2 + Integer.BYTES + Long.BYTES * 4 + Integer.BYTES * 2
+				+ width * (Float.BYTES * 2 + Double.BYTES));
+		buffer.put(PUT);
+		buffer.putLong(header.getId() - idBase);
+		buffer.putLong(location);
+		buffer.putInt(span);
+		buffer.putLong(header.gettBeg());
+		buffer.putLong(header.gettEnd());
+		buffer.putLong(header.getiBeg());
+		buffer.putLong(header.getiEnd());
+		buffer.putInt(summary.getCount());
+		buffer.putInt(width);
+		for (int j = 0; j < width; j++) {
+			buffer.putFloat(summary.getMin(j));
+			buffer.putFloat(summary.getMax(j));
+			buffer.putDouble(summary.getSum(j));
+		}
+		append(channel, buffer.array());
+		live.put(header.getId(), buffer.array());
+		maxId = Math.max(maxId, header.getId());
+	}
+
+	/**
+	 * Records that a block was copied to another location.
+	 */
+	synchronized void move(long id, long location) throws IOException {
+		byte[] payload = live.get(id);
+		if (payload == null)
+			return;
+		payload = payload.clone();
+		ByteBuffer.wrap(payload).putLong(LOCATION_OFFSET, location);
+		append(channel, payload);
+		live.put(id, payload);
+	}
+
+	synchronized void forget(Collection<Long> ids) throws IOException {
+		for (Long id : ids) {
+			if (live.remove(id) != null)
+				append(channel, ByteBuffer.allocate(1 + Long.BYTES).put(FORGET).putLong(id - idBase).array());
+		}
+		rewriteIfOutdated();
+	}
+
+	/**
+	 * Highest block id ever recorded, forgotten blocks included.
+	 */
+	synchronized long getMaxId() {
+		return maxId;
+	}
+
+	private void append(FileChannel to, byte[] payload) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + payload.length + Integer.BYTES);
+		buffer.putInt(payload.length);
+		buffer.put(payload);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		buffer.putInt((int) crc.getValue());
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			to.write(buffer);
+		}
+		records++;
+		dirty = true;
+	}
+
+	/**
+	 * Replaces the file by one holding the live blocks only, atomically, once at least half of
+	 * its records are outdated.
+	 */
+	private void rewriteIfOutdated() throws IOException {
+		if (records < REWRITE_MIN_RECORDS || records < 2L * live.size()) {
+			return;
+		}
+		long before = records;
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		records = 0;
+		try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			append(out, ByteBuffer.allocate(1 + Long.BYTES).put(NEXT_ID).putLong(maxId - idBase).array());
+			for (byte[] payload : live.values()) {
+				append(out, payload);
+			}
+			out.force(false);
+		}
+		channel.close();
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		channel.position(channel.size());
+		dirty = false;
+		log.debug("Rewrote manifest {} with {} of {} records", file, records, before);
+	}
+
+	private Entry decode(byte[] payload) {
+		ByteBuffer buffer = ByteBuffer.wrap(payload, 1, payload.length - 1);
+		long id = idBase + buffer.getLong();
+		long location = buffer.getLong();
+		int span = buffer.getInt();
+		BlockHeader header = new BlockHeader(id, buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+		int count = buffer.getInt();
+		int width = buffer.getInt();
+		float[] min = new float[width];
+		float[] max = new float[width];
+		double[] sum = new double[width];
+		for (int j = 0; j < width; j++) {
+			min[j] = buffer.getFloat();
+			max[j] = buffer.getFloat();
+			sum[j] = buffer.getDouble();
+		}
+		header.setSummary(new BlockSummary(min, max, sum, count));
+		return new Entry(location, span, header);
+	}
+
+	/**
+	 * Forces the records appended since the last flush.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		if (dirty && channel != null && channel.isOpen()) {
+			channel.force(false);
+		}
+		dirty = false;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.force(false);
+			channel.close();
+		}
+	}
+
+}
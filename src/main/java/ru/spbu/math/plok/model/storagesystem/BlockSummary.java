@@ -0,0 +1,72 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Per-column min/max/sum of a packed block. Column {@code j} of the summary
+ * describes vector index {@code iBeg + j} of the block.
+ */
+public class BlockSummary {
+
+	private final float[] min;
+	private final float[] max;
+	private final double[] sum;
+	private final int count;
+
+	public BlockSummary(float[] min, float[] max, double[] sum, int count) {
+		super();
+		this.min = min;
+		this.max = max;
+		this.sum = sum;
+		this.count = count;
+	}
+
+	public static BlockSummary of(List<Vector> rows, int L) {
+		float[] min = new float[L];
+		float[] max = new float[L];
+		double[] sum = new double[L];
+		Arrays.fill(min, Float.POSITIVE_INFINITY);
+		Arrays.fill(max, Float.NEGATIVE_INFINITY);
+		for (Vector row : rows) {
+			float[] values = row.getVector();
+			for (int j = 0; j < L; j++) {
+				float value = values[j];
+				if (value < min[j])
+					min[j] = value;
+				if (value > max[j])
+					max[j] = value;
+				sum[j] += value;
+			}
+		}
+		return new BlockSummary(min, max, sum, rows.size());
+	}
+
+	public float getMin(int column) {
+		return min[column];
+	}
+
+	public float getMax(int column) {
+		return max[column];
+	}
+
+	public double getSum(int column) {
+		return sum[column];
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getWidth() {
+		return min.length;
+	}
+
+	@Override
+	public String toString() {
+		return "BlockSummary [width=" + min.length + ", count=" + count + "]";
+	}
+
+}
@@ -0,0 +1,78 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File of the ids of the hottest cached blocks, the hottest first, read back at startup to
+ * warm the cache. It is only a hint: a missing or corrupt file means a cold start.
+ */
+class CacheSnapshot {
+
+	private static final Logger log = LoggerFactory.getLogger(CacheSnapshot.class);
+	private final Path file;
+
+	CacheSnapshot(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Replaces the file atomically, a crash leaves the previous snapshot.
+	 */
+	void save(List<Long> ids) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + ids.size() * Long.BYTES + Integer.BYTES);
+		buffer.putInt(ids.size());
+		for (Long id : ids) {
+			buffer.putLong(id);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+		Files.createDirectories(file.getParent());
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	List<Long> load() throws IOException {
+		if (!Files.exists(file)) {
+			return Collections.emptyList();
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		int count = buffer.limit() < Integer.BYTES ? -1 : buffer.getInt(0);
+		if (count < 0 || buffer.limit() != Integer.BYTES + count * (long) Long.BYTES + Integer.BYTES) {
+			log.warn("Cache snapshot {} is truncated, starting cold", file);
+			return Collections.emptyList();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.limit() - Integer.BYTES);
+		if ((int) crc.getValue() != buffer.getInt(buffer.limit() - Integer.BYTES)) {
+			log.warn("Cache snapshot {} is corrupt, starting cold", file);
+			return Collections.emptyList();
+		}
+		List<Long> ids = new ArrayList<>(count);
+		buffer.position(Integer.BYTES);
+		for (int k = 0; k < count; k++) {
+			ids.add(buffer.getLong());
+		}
+		return ids;
+	}
+
+}
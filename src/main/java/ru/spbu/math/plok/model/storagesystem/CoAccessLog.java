@@ -0,0 +1,77 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persisted blocks read together by the recent queries, each set with the number of times it
+ * was read. Bounded, the set seen least recently is forgotten first.
+ */
+class CoAccessLog {
+
+	private final int capacity;
+	private final int maxBlocks;
+	private final LinkedHashMap<List<Long>, Integer> patterns;
+
+	CoAccessLog(int capacity, int maxBlocks) {
+		this.capacity = capacity;
+		this.maxBlocks = maxBlocks;
+		this.patterns = new LinkedHashMap<List<Long>, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Long>, Integer> eldest) {
+				return size() > CoAccessLog.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Counts one read of the blocks; single blocks and scans above {@code maxBlocks} are ignored.
+	 */
+	synchronized void record(List<Long> ids) {
+		if (ids.size() < 2 || ids.size() > maxBlocks)
+			return;
+		patterns.merge(ids, 1, Integer::sum);
+	}
+
+	/**
+	 * Sets read at least {@code minCount} times, the most frequent first.
+	 */
+	synchronized List<Map.Entry<List<Long>, Integer>> recurring(int minCount) {
+		List<Map.Entry<List<Long>, Integer>> result = new ArrayList<>();
+		for (Map.Entry<List<Long>, Integer> pattern : patterns.entrySet()){
+			if (pattern.getValue() >= minCount)
+				result.add(new AbstractMap.SimpleImmutableEntry<>(pattern));
+		}
+		result.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+		return result;
+	}
+
+	/**
+	 * Drops the sets holding any of the blocks.
+	 */
+	synchronized void forget(Collection<Long> ids) {
+		if (ids.isEmpty())
+			return;
+		Set<Long> gone = new HashSet<>(ids);
+		patterns.keySet().removeIf(pattern -> {
+			for (Long id : pattern){
+				if (gone.contains(id))
+					return true;
+			}
+			return false;
+		});
+	}
+
+	synchronized int size() {
+		return patterns.size();
+	}
+
+}
@@ -0,0 +1,115 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+/**
+ * What the metadata tells about a time x index rectangle without reading any block:
+ * how many blocks cross it and how many rows (vectors) fall into its time range. Rows of
+ * the blocks lying inside the range are known exactly, rows of the border blocks are bounded
+ * and estimated as if they were evenly spread between the first and the last timestamp.
+ */
+public class Coverage {
+
+	private final int width;
+	private long blockCount;
+	private long innerBlockCount;
+	private long minRows;
+	private long maxRows;
+	private double estimatedRows;
+
+	public Coverage(int width) {
+		this.width = Math.max(width, 0);
+	}
+
+	/**
+	 * Accounts a block holding the probed index: its time span, its row count and the query time range.
+	 */
+	void addRows(long tBeg, long tEnd, int rows, long startTime, long endTime) {
+		if (tBeg >= startTime && tEnd <= endTime) {
+			minRows += rows;
+			maxRows += rows;
+			estimatedRows += rows;
+			return;
+		}
+		long from = Math.max(tBeg, startTime);
+		long to = Math.min(tEnd, endTime);
+		if (from > to) {
+			return;
+		}
+		// a border block has a row outside at one of its ends, a straddling one at both
+		boolean endpointInside = (tBeg >= startTime && tBeg <= endTime) || (tEnd >= startTime && tEnd <= endTime);
+		long low = endpointInside ? 1 : 0;
+		long high = rows - (endpointInside ? 1 : 2);
+		double share = (double) (to - from) / (tEnd - tBeg);
+		minRows += low;
+		maxRows += high;
+		estimatedRows += Math.min(Math.max(rows * share, low), high);
+	}
+
+	/**
+	 * Accounts rows whose timestamps are known, as the ones still in memory.
+	 */
+	void addExactRows(long rows) {
+		minRows += rows;
+		maxRows += rows;
+		estimatedRows += rows;
+	}
+
+	void addBlocks(long blocks, long inner) {
+		blockCount += blocks;
+		innerBlockCount += inner;
+	}
+
+	public long getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Blocks lying inside the time range entirely.
+	 */
+	public long getInnerBlockCount() {
+		return innerBlockCount;
+	}
+
+	public long getMinRows() {
+		return minRows;
+	}
+
+	public long getMaxRows() {
+		return maxRows;
+	}
+
+	public double getEstimatedRows() {
+		return estimatedRows;
+	}
+
+	/**
+	 * Indices of the rectangle that exist in the vectors.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	public double getEstimatedValues() {
+		return estimatedRows * width;
+	}
+
+	/**
+	 * Whether at least one row surely lies in the rectangle.
+	 */
+	public boolean exists() {
+		return width > 0 && minRows > 0;
+	}
+
+	/**
+	 * Whether a row may lie in the rectangle.
+	 */
+	public boolean mayExist() {
+		return width > 0 && maxRows > 0;
+	}
+
+	@Override
+	public String toString() {
+		return "Coverage [blocks=" + blockCount + ", innerBlocks=" + innerBlockCount + ", rows=" + minRows + ".." + maxRows
+				+ " (~" + Math.round(estimatedRows) + "), width=" + width + "]";
+	}
+
+}
@@ -0,0 +1,63 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+/**
+ * Cost model of the device behind one shard. Every batch of requests issued together
+ * is charged simulated time, so block shapes can be compared independently of the host.
+ */
+public abstract class DeviceModel {
+
+	private long readMicros;
+	private long writeMicros;
+	private long readSeeks;
+	private long writeSeeks;
+	private long seeks;
+
+	/**
+	 * Simulated time of serving the requests, given in issue order, together.
+	 */
+	protected abstract double serve(long[] addresses, int[] lengths);
+
+	protected void seek() {
+		seeks++;
+	}
+
+	synchronized void charge(long[] addresses, int[] lengths, boolean write) {
+		seeks = 0;
+		long micros = Math.round(serve(addresses, lengths));
+		if (write) {
+			writeMicros += micros;
+			writeSeeks += seeks;
+		} else {
+			readMicros += micros;
+			readSeeks += seeks;
+		}
+	}
+
+	public synchronized long getReadMicros() {
+		return readMicros;
+	}
+
+	public synchronized long getWriteMicros() {
+		return writeMicros;
+	}
+
+	public synchronized long getReadSeeks() {
+		return readSeeks;
+	}
+
+	public synchronized long getWriteSeeks() {
+		return writeSeeks;
+	}
+
+	/**
+	 * No simulated cost at all.
+	 */
+	public static class Ideal extends DeviceModel {
+
+		@Override
+		protected double serve(long[] addresses, int[] lengths) {
+			return 0;
+		}
+	}
+
+}
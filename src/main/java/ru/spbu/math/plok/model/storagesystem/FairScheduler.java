@@ -0,0 +1,105 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The single I/O thread of a shard shared by several streams. Every stream submits through a lane
+ * of its own and the thread takes one task from each lane with queued work in turn, so a stream
+ * flushing or scanning a lot delays the others by one block request per round at most.
+ */
+class FairScheduler {
+
+	private static final Logger log = LoggerFactory.getLogger(FairScheduler.class);
+	private final Map<Object, ArrayDeque<Runnable>> queues = new HashMap<>();
+	private final ArrayDeque<Object> turns = new ArrayDeque<>();	// lanes with queued tasks, next one first
+	private final Thread worker;
+	private boolean shutdown;
+	private long executed;
+	private int maxLanes;
+
+	FairScheduler(String name) {
+		worker = new Thread(this::work, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Executor queueing the tasks of one stream, in submission order.
+	 */
+	Executor lane(Object stream) {
+		return task -> submit(stream, task);
+	}
+
+	private synchronized void submit(Object stream, Runnable task) {
+		if (shutdown)
+			throw new RejectedExecutionException("I/O thread " + worker.getName() + " is shut down");
+		ArrayDeque<Runnable> queue = queues.get(stream);
+		if (queue == null) {
+			queue = new ArrayDeque<>();
+			queues.put(stream, queue);
+			turns.addLast(stream);
+			maxLanes = Math.max(maxLanes, turns.size());
+		}
+		queue.addLast(task);
+		notifyAll();
+	}
+
+	private synchronized Runnable next() throws InterruptedException {
+		while (turns.isEmpty()) {
+			if (shutdown)
+				return null;
+			wait();
+		}
+		Object stream = turns.pollFirst();
+		ArrayDeque<Runnable> queue = queues.get(stream);
+		Runnable task = queue.pollFirst();
+		if (queue.isEmpty()) {
+			queues.remove(stream);
+		} else {
+			turns.addLast(stream);
+		}
+		executed++;
+		return task;
+	}
+
+	private void work() {
+		try {
+			for (Runnable task = next(); task != null; task = next()) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					log.error("I/O task failed", e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the queued tasks, then stops the thread.
+	 */
+	synchronized void shutdown() {
+		shutdown = true;
+		notifyAll();
+	}
+
+	synchronized long getExecuted() {
+		return executed;
+	}
+
+	/**
+	 * Most lanes that had work queued at the same time.
+	 */
+	synchronized int getMaxLanes() {
+		return maxLanes;
+	}
+
+}
@@ -0,0 +1,57 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+/**
+ * Device backed by a file, reads may be served by the OS page cache.
+ */
+class FileDevice implements BlockDevice {
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	FileDevice(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position) throws IOException {
+		return channel.read(dst, position);
+	}
+
+	@Override
+	public int write(ByteBuffer src, long position) throws IOException {
+		return channel.write(src, position);
+	}
+
+	@Override
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	@Override
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public void delete() throws IOException {
+		raf.close();
+		Files.deleteIfExists(file.toPath());
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.force(false);
+		raf.close();
+	}
+
+}
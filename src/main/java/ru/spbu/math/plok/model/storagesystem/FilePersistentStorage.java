@@ -1,129 +1,1401 @@
 package ru.spbu.math.plok.model.storagesystem;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.name.Named;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Closeable;
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import ru.spbu.math.plok.model.generator.Vector;
 
 /**
- * Persists data to file system.
+ * Persists data to file system. Blocks are striped across several shards, every shard
+ * is served by its own I/O thread and keeps its slots in segment files of fixed slot count,
+ * so expired data is dropped by deleting whole files. A block may span several
+ * consecutive slots of one segment. With the zorder or hilbert placement a shard is cut into
+ * extents, each holding a tile of (column, common band) cells in curve order, so the blocks of a
+ * rectangle lie in a few contiguous runs instead of one slot out of every column.
+ * Persisters of several streams share the I/O threads, device models and group commit of one
+ * root persister, see {@link #stream}. Values of the quantized bands are stored as half precision
+ * floats or as bytes scaled per block column, slots are sized for that, and a block that would
+ * exceed the error bound takes the more slots of a finer encoding. The location, header and summary
+ * of every block go to a {@link BlockManifest}, so an existing storage is opened without reading its blocks.
  */
 public class FilePersistentStorage {
 
 	private static final Logger log = LoggerFactory.getLogger(FilePersistentStorage.class);
 	private static final String PERSISTER_MAIN_FILE_NAME_FORMAT = "persister_%d";
+	private static final String SEGMENT_SUFFIX_FORMAT = ".%d";
+	private static final String STREAM_DIRECTORY = "streams";
+	private static final String MANIFEST_FILE_NAME = "manifest";
+	public static final String STRIPE_BY_ID = "id";
+	public static final String STRIPE_BY_BAND = "band";
+	public static final String LAYOUT_PACKED = "packed";
+	public static final String LAYOUT_ALIGNED = "aligned";
+	public static final String LAYOUT_PAGED = "paged";
+	public static final String DURABILITY_NONE = "none";
+	public static final String DURABILITY_GROUP = "group";
+	public static final String DURABILITY_BLOCK = "block";
+	public static final String DEVICE_FILE = "file";
+	public static final String DEVICE_MEMORY = "memory";
+	public static final String PLACEMENT_ARRIVAL = "arrival";
+	public static final String PLACEMENT_ZORDER = "zorder";
+	public static final String PLACEMENT_HILBERT = "hilbert";
+	public static final String QUANTIZE_NONE = "none";
+	public static final String QUANTIZE_HALF = "half";
+	public static final String QUANTIZE_BYTE = "byte";
 	private final int blockSize;
-	private final String storagePath;
-	private int id;
+	private final int slotSize;			// bytes between consecutive slots
+	private final int blocksPerPage;	// > 0 if several blocks share a page and none straddles one
+	private final int pageSize;
+	private final String layout;
+	private final String durability;
+	private final long commitMillis;
+	private final int commitBlocks;
+	private final boolean commitWait;
+	private GroupCommitter committer;
+	private final String rootPath;
+	private final String[] shardRoots;
+	private final String stripe;
+	private final int segmentSlots;
+	private final String device;
+	private final Provider<DeviceModel> models;
+	private final int ioThreads;
+	private final ExecutorService readers;	// reads of all shards when set, so a shard has more than one outstanding read
+	private final FilePersistentStorage root;	// owner of the threads when this is the persister of a stream
+	private final long idBase;				// ids of this persister start here, locations do not
+	private final List<FilePersistentStorage> streams = new CopyOnWriteArrayList<>();
+	private final List<Flushable> logs = new CopyOnWriteArrayList<>();	// forced with every group commit
+	private final String placement;
+	private final int extentSlots;
+	private final String quantize;
+	private final String quantizeBands;
+	private final float quantizeError;
+	private final int encoding;			// Quantizer encoding of the quantized bands
+	private final Set<Integer> quantized;	// bands quantized, null for all
+	private final AtomicLong[] encodedBlocks = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+	private final AtomicLong refinedBlocks = new AtomicLong();	// stored finer than configured to respect the bound
+	private int bands;					// common bands laid out by the curve
+	private int bandBits;				// a tile is 2^columnBits columns by 2^bandBits bands
+	private int columnBits;
+	private long[] columns;				// blocks placed so far per band
+	private Map<Long, Tile> tiles;		// tiles being filled, by column group and band group
+	private int N;
 	private int P;
 	private int L;
+	private int P_S;
+	private int L_S;
 	private long blockID;
-	private ByteBuffer writeBuffer;
-	private FileHandler mainFile;
+	private Shard[] shards;
+	private Map<Long, Long> locations;		// block id -> slot * shards + shard, used when striping by band
+	private Map<Long, Integer> spans;		// slot count of the blocks taking more than one slot
+	private Map<Long, Long> relocated;		// block id -> location of the blocks moved, used when striping by id
+	private final BlockManifest manifest;	// null for the memory device
+	private List<BlockHeader> recovered;	// blocks found in the manifest on open, until taken
+	private AtomicLong relocatedBlocks;
+	private AtomicLong chargedBlocks;
+	private AtomicLong readRuns;
+	private AtomicLong blocksRead;
+	private AtomicLong bytesRead;
+	private AtomicLong blocksWritten;
+	private AtomicLong pagesRead;
+	private AtomicLong corruptBlocks;
+	private AtomicLong droppedSegments;
+	private long fsyncCount;
+	private long fsyncNanos;
+	private long fsyncMaxNanos;
+	private long fsyncBlocks;
+	private long fsyncMaxBatch;
 
 	@Inject
-	public FilePersistentStorage(@Named("storagePath") String storagePath, @Named("N") int N, @Named("P") int P, @Named("L") int L) throws IOException {
+	public FilePersistentStorage(@Named("storagePath") String storagePath, @Named("shardPaths") String shardPaths,
+			@Named("shards") int shards, @Named("stripe") String stripe,
+			@Named("layout") String layout, @Named("pageSize") int pageSize,
+			@Named("durability") String durability, @Named("commitMillis") long commitMillis,
+			@Named("commitBlocks") int commitBlocks, @Named("commitWait") boolean commitWait,
+			@Named("segmentSlots") int segmentSlots, @Named("device") String device, Provider<DeviceModel> models,
+			@Named("ioThreads") int ioThreads, @Named("placement") String placement, @Named("extentSlots") int extentSlots,
+			@Named("quantize") String quantize, @Named("quantizeBands") String quantizeBands, @Named("quantizeError") float quantizeError,
+			@Named("N") int N, @Named("P") int P, @Named("L") int L) throws IOException {
+		this(storagePath, shardPaths, shards, stripe, layout, pageSize, durability, commitMillis, commitBlocks, commitWait,
+				segmentSlots, device, models, ioThreads, placement, extentSlots, quantize, quantizeBands, quantizeError, N, P, L, null, 0);
+	}
+
+	private FilePersistentStorage(String storagePath, String shardPaths, int shards, String stripe, String layout, int pageSize,
+			String durability, long commitMillis, int commitBlocks, boolean commitWait, int segmentSlots, String device,
+			Provider<DeviceModel> models, int ioThreads, String placement, int extentSlots,
+			String quantize, String quantizeBands, float quantizeError, int N, int P, int L,
+			FilePersistentStorage root, long idBase) throws IOException {
 		super();
-		this.storagePath = Paths.get(storagePath, "files").toAbsolutePath().toString();
+		this.device = device;
+		this.models = models;
+		this.ioThreads = ioThreads;
+		this.root = root;
+		this.idBase = idBase;
+		this.readers = root != null ? root.readers : ioThreads <= 0 ? null : Executors.newFixedThreadPool(ioThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("reader-" + new File(storagePath).getName() + "-%d").build());
+		this.rootPath = storagePath;
+		this.shardRoots = shardPaths.isEmpty() ? new String[]{storagePath} : shardPaths.split(",");
+		this.stripe = stripe;
+		this.N = N;
 		this.P = P;
 		this.L = L;
-		int P_S = N % P;
-		int L_S = N % L;
-		this.blockSize = 1 + Math.max(P * L * Float.BYTES, P_S * L_S *Float.BYTES); //additional byte to store whether block is special
-		writeBuffer = ByteBuffer.allocateDirect(P);
-		blockID = -1;
-		File file = getFile(PERSISTER_MAIN_FILE_NAME_FORMAT);
-		if (file.exists()) {
-			blockID = (file.length() / P) - 1;
-		}
-		log.info("Initialized persister. Initial data : {}.", blockID + 1);
-		if (mainFile == null) {
-				if (mainFile == null) {
-					mainFile = initializeStorage(PERSISTER_MAIN_FILE_NAME_FORMAT);
-					mainFile.channel.position(mainFile.channel.size());
-				}
+		this.L_S = N % L;
+		this.P_S = L_S == 0 ? 0 : P * L / L_S;
+		//flag byte whether block is special, id, iBeg, row count, then every row as timestamp and values, CRC32 of all that in the end
+		this.quantize = quantize;
+		this.quantizeBands = quantizeBands;
+		this.quantizeError = quantizeError;
+		this.encoding = QUANTIZE_BYTE.equalsIgnoreCase(quantize) ? Quantizer.BYTE : QUANTIZE_HALF.equalsIgnoreCase(quantize) ? Quantizer.HALF : Quantizer.FLOAT;
+		if (quantizeBands.trim().isEmpty()) {
+			this.quantized = null;
+		} else {
+			this.quantized = new HashSet<>();
+			for (String band : quantizeBands.split(",")) {
+				this.quantized.add(Integer.valueOf(band.trim()));
+			}
+		}
+		this.blockSize = encodedSize(Math.max(Quantizer.rowsSize(P, L, encoding), Quantizer.rowsSize(P_S, L_S, encoding)));
+		this.layout = layout;
+		this.pageSize = pageSize;
+		if (LAYOUT_PAGED.equalsIgnoreCase(layout) && blockSize <= pageSize) {
+			this.blocksPerPage = pageSize / blockSize;
+			this.slotSize = blockSize;
+		} else if (LAYOUT_PAGED.equalsIgnoreCase(layout) || LAYOUT_ALIGNED.equalsIgnoreCase(layout)) {
+			this.blocksPerPage = 0;
+			this.slotSize = (blockSize + pageSize - 1) / pageSize * pageSize;
+		} else {
+			this.blocksPerPage = 0;
+			this.slotSize = blockSize;
+		}
+		this.placement = placement;
+		this.extentSlots = Integer.highestOneBit(Math.max(extentSlots, 1));
+		boolean curve = PLACEMENT_ZORDER.equalsIgnoreCase(placement) || PLACEMENT_HILBERT.equalsIgnoreCase(placement);
+		if (!curve && !PLACEMENT_ARRIVAL.equalsIgnoreCase(placement))
+			throw new IllegalArgumentException("Unknown placement " + placement + ", expected arrival, zorder or hilbert");
+		if (curve) {
+			this.bands = Math.max(N / L, 1);
+			int extentBits = Integer.numberOfTrailingZeros(this.extentSlots);
+			this.bandBits = Math.min(32 - Integer.numberOfLeadingZeros(bands - 1), extentBits / 2);
+			this.columnBits = extentBits - bandBits;
+			this.columns = new long[bands];
+			this.tiles = new ConcurrentHashMap<>();
+		}
+		// segments start on a page boundary and hold whole extents
+		int unit = blocksPerPage > 0 ? blocksPerPage : 1;
+		if (curve) {
+			unit = unit / gcd(unit, this.extentSlots) * this.extentSlots;
+		}
+		this.segmentSlots = (segmentSlots + unit - 1) / unit * unit;
+		this.locations = STRIPE_BY_BAND.equalsIgnoreCase(stripe) || curve ? new ConcurrentHashMap<Long, Long>() : null;
+		this.spans = new ConcurrentHashMap<>();
+		this.readRuns = new AtomicLong();
+		this.relocated = new ConcurrentHashMap<>();
+		this.relocatedBlocks = new AtomicLong();
+		this.chargedBlocks = new AtomicLong();
+		this.blocksRead = new AtomicLong();
+		this.bytesRead = new AtomicLong();
+		this.blocksWritten = new AtomicLong();
+		this.pagesRead = new AtomicLong();
+		this.corruptBlocks = new AtomicLong();
+		this.droppedSegments = new AtomicLong();
+		this.durability = durability;
+		this.commitMillis = commitMillis;
+		this.commitBlocks = commitBlocks;
+		this.commitWait = commitWait;
+		if (root != null) {
+			this.committer = root.committer;
+		} else if (DURABILITY_GROUP.equalsIgnoreCase(durability)) {
+			this.committer = new GroupCommitter(this::forceAll, commitMillis, commitBlocks);
+		}
+		this.shards = new Shard[shards];
+		long maxSlots = 0;
+		for (int k = 0; k < shards; k++) {
+			this.shards[k] = initializeStorage(k, PERSISTER_MAIN_FILE_NAME_FORMAT);
+			maxSlots = Math.max(maxSlots, this.shards[k].slots);
+		}
+		blockID = idBase + maxSlots * shards - 1;
+		if (DEVICE_MEMORY.equalsIgnoreCase(device)) {
+			this.manifest = null;
+			this.recovered = Collections.emptyList();
+		} else {
+			this.manifest = new BlockManifest(Paths.get(storagePath, MANIFEST_FILE_NAME), idBase);
+			this.recovered = restore(manifest.recover());
+			blockID = Math.max(blockID, manifest.getMaxId());
+			attach(manifest);
+		}
+		log.info("Initialized persister with {} shards striped by {} on {} devices modelled by {}, {} layout of {} byte blocks in {} byte slots, {} slots per segment, {} placement, {} durability. Initial data : {}, {} blocks found.",
+				shards, stripe, device, this.shards[0].model.getClass().getSimpleName(), layout, blockSize, slotSize, this.segmentSlots, placement, durability, blockID + 1, recovered.size());
+	}
+
+	/**
+	 * Restores the locations, spans and segment ends of the blocks of the manifest. Blocks whose
+	 * segment was dropped before they were forgotten are forgotten now.
+	 * @return headers of the blocks, with their summaries, in id order
+	 */
+	private List<BlockHeader> restore(Map<Long, BlockManifest.Entry> entries) throws IOException {
+		List<BlockHeader> result = new ArrayList<>(entries.size());
+		List<Long> gone = new ArrayList<>();
+		for (BlockManifest.Entry entry : entries.values()) {
+			long id = entry.getHeader().getId();
+			Shard shard = shards[(int) (entry.getLocation() % shards.length)];
+			long segment = entry.getLocation() / shards.length / segmentSlots;
+			if (!shard.segments.containsKey(segment)) {
+				gone.add(id);
+				continue;
+			}
+			if (locations != null)
+				locations.put(id, entry.getLocation());
+			else if (entry.getLocation() != id - idBase)
+				relocated.put(id, entry.getLocation());
+			if (entry.getSpan() > 1)
+				spans.put(id, entry.getSpan());
+			shard.segmentEnds.merge(segment, entry.getHeader().gettEnd(), Math::max);
+			result.add(entry.getHeader());
+		}
+		manifest.forget(gone);
+		result.sort(Comparator.comparingLong(BlockHeader::getId));
+		return result;
+	}
+
+	/**
+	 * Headers of the blocks found in the manifest on open, handed out once: the caller takes over
+	 * and {@link #forget}s those it does not need.
+	 */
+	public List<BlockHeader> takeRecovered() {
+		List<BlockHeader> result = recovered;
+		recovered = Collections.emptyList();
+		return result;
+	}
+
+	/**
+	 * Persister of a stream of vectors of length N, kept in a subdirectory of every shard root.
+	 * It has ids from {@code idBase} on, so blocks of all streams can share one cache, and it
+	 * queues its I/O through its own lane of the shard threads of this persister.
+	 */
+	public FilePersistentStorage stream(String name, int N, long idBase) throws IOException {
+		FilePersistentStorage stream = new FilePersistentStorage(Paths.get(rootPath, STREAM_DIRECTORY, name).toString(),
+				derivedShardPaths(Paths.get(STREAM_DIRECTORY, name).toString()), shards.length, stripe, layout, pageSize,
+				durability, commitMillis, commitBlocks, commitWait, segmentSlots, device, models, ioThreads, placement, extentSlots,
+				quantize, quantizeBands, quantizeError, N, P, L, this, idBase);
+		streams.add(stream);
+		return stream;
+	}
+
+	/**
+	 * Persister of the same block shape and striping kept in a subdirectory of every shard root.
+	 */
+	public FilePersistentStorage derive(String name) throws IOException {
+		return derive(name, P, L);
+	}
+
+	/**
+	 * Persister of the same striping but blocks of P rows and L columns.
+	 */
+	public FilePersistentStorage derive(String name, int P, int L) throws IOException {
+		return new FilePersistentStorage(Paths.get(rootPath, name).toString(), derivedShardPaths(name), shards.length, stripe, layout, pageSize,
+				durability, commitMillis, commitBlocks, commitWait, segmentSlots, device, models, ioThreads, placement, extentSlots,
+				quantize, quantizeBands, quantizeError, N, P, L);
+	}
+
+	private String derivedShardPaths(String name) {
+		if (shardRoots.length > 1 || !shardRoots[0].equals(rootPath))
+			return derivedShardPaths(String.join(",", shardRoots), name);
+		return "";
+	}
+
+	/**
+	 * Subdirectory {@code name} of every shard root of {@code shardPaths}, empty when the
+	 * shards are kept at the storage path.
+	 */
+	static String derivedShardPaths(String shardPaths, String name) {
+		StringBuilder derivedShardPaths = new StringBuilder();
+		if (!shardPaths.isEmpty()) {
+			for (String shardRoot : shardPaths.split(",")) {
+				if (derivedShardPaths.length() > 0)
+					derivedShardPaths.append(',');
+				derivedShardPaths.append(Paths.get(shardRoot, name));
 			}
+		}
+		return derivedShardPaths.toString();
+	}
+
+	private static int gcd(int a, int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	/**
+	 * Flag byte (special block, encoding), id relative to the id base, iBeg and row count, then
+	 * the rows, then the CRC32 of all that.
+	 */
+	private static int encodedSize(int rowsSize) {
+		return 1 + Long.BYTES + Integer.BYTES + Integer.BYTES + rowsSize + Integer.BYTES;
+	}
+
+	private long position(long slot) {
+		if (blocksPerPage > 0)
+			return (slot / blocksPerPage) * pageSize + (slot % blocksPerPage) * blockSize;
+		return slot * slotSize;
+	}
+
+	private long slotsIn(long length) {
+		if (blocksPerPage > 0)
+			return (length / pageSize) * blocksPerPage + (length % pageSize + blockSize - 1) / blockSize;
+		return (length + slotSize - 1) / slotSize;
+	}
+
+	/**
+	 * Slots a block of the given shape takes at most, codec header and checksum included.
+	 */
+	public int spanFor(int rows, int width) {
+		return (encodedSize(Quantizer.rowsSize(rows, width, Quantizer.FLOAT)) + blockSize - 1) / blockSize;
+	}
+
+	/**
+	 * Slots the block starting at index {@code iBeg} takes in the encoding its values allow.
+	 */
+	public int spanFor(Block block, long iBeg) {
+		return (encodedSize(Quantizer.rowsSize(block.getData().size(), block.getL(), encodingOf(block, iBeg))) + blockSize - 1) / blockSize;
+	}
+
+	private boolean isQuantized(long iBeg) {
+		return encoding != Quantizer.FLOAT && (quantized == null || quantized.contains((int) (iBeg / L)));
 	}
 
-	private File getFile(String namePattern) {
-		return new File(Paths.get(storagePath, String.format(namePattern, this.id)).toString());
+	private int encodingOf(Block block, long iBeg) {
+		if (!isQuantized(iBeg))
+			return Quantizer.FLOAT;
+		return Quantizer.choose(block.getData(), block.getL(), encoding, quantizeError);
 	}
 
-	private FileHandler initializeStorage(String namePattern) throws IOException {
-		File file = getFile(namePattern);
-		file.getParentFile().mkdirs();
-		RandomAccessFile raf = new RandomAccessFile(file, "rw");
-		FileChannel channel = raf.getChannel();
-		log.debug("Persistent storage file {} has been created at {}", this.id, file.getAbsolutePath());
-		return new FileHandler(raf, channel);
+	private File getFile(int shard, String namePattern) {
+		String shardRoot = shardRoots[shard % shardRoots.length];
+		return new File(Paths.get(shardRoot, "files", String.format(namePattern, shard)).toAbsolutePath().toString());
+	}
+
+	private Shard initializeStorage(int shard, String namePattern) throws IOException {
+		File prefix = getFile(shard, namePattern);
+		prefix.getParentFile().mkdirs();
+		FairScheduler scheduler = root != null ? root.shards[shard].scheduler
+				: new FairScheduler("persister-" + prefix.getParentFile().getParentFile().getName() + "-" + shard);
+		DeviceModel model = root != null ? root.shards[shard].model : models.get();
+		Shard result = new Shard(shard, prefix, scheduler, scheduler.lane(this), DEVICE_MEMORY.equalsIgnoreCase(device), model);
+		File[] files = result.inMemory ? null : prefix.getParentFile().listFiles((dir, name) -> name.startsWith(prefix.getName() + "."));
+		for (File file : files == null ? new File[0] : files) {
+			long segment = Long.parseLong(file.getName().substring(prefix.getName().length() + 1));
+			BlockDevice handler = result.open(segment);
+			result.slots = Math.max(result.slots, segment * segmentSlots + slotsIn(handler.size()));
+			result.segmentEnds.put(segment, Long.MIN_VALUE);	// raised by the manifest for every block found
+		}
+		log.debug("Persistent storage shard {} has {} segments at {}", shard, result.segments.size(), prefix.getParentFile().getAbsolutePath());
+		return result;
 	}
 
 	
+	public synchronized long nextId() {
+		return ++blockID;
+	}
+
+	/**
+	 * Id of a block taking {@code span} slots. Striping by id derives locations from ids,
+	 * so a whole row of slots across shards is reserved for every slot of the span and
+	 * the span never crosses a segment border.
+	 */
+	public synchronized long nextId(int span) {
+		if (span == 1 || locations != null) {
+			return ++blockID;
+		}
+		long slot = fitInSegment((blockID - idBase + shards.length) / shards.length, span);
+		blockID = idBase + (slot + span) * shards.length - 1;
+		return idBase + slot * shards.length + slot % shards.length;
+	}
+
+	private long fitInSegment(long slot, int span) {
+		if (span > segmentSlots)
+			throw new IllegalArgumentException("Block of " + span + " slots does not fit into a segment of " + segmentSlots);
+		return slot % segmentSlots + span > segmentSlots ? (slot / segmentSlots + 1) * segmentSlots : slot;
+	}
+
 	public long add(Block block) throws IOException {
-		return add(toBytes(block));
+		return await(addAsync(block));
+	}
+
+	/**
+	 * Writes blocks in parallel, every one by the thread of its shard, and waits for all of them.
+	 * @return future completed once the blocks are forced to the device as the durability asks,
+	 * later than the return only with group commit and without {@code commitWait}
+	 */
+	public CompletableFuture<Void> addAll(Collection<Block> blocks) throws IOException {
+		List<CompletableFuture<Long>> writes = new ArrayList<>(blocks.size());
+		List<CompletableFuture<Long>> commits = new ArrayList<>(blocks.size());
+		for (Block block : blocks) {
+			CompletableFuture<Long> written = writeAsync(block);
+			CompletableFuture<Long> committed = committed(written);
+			writes.add(commitWait ? committed : written);
+			commits.add(committed);
+		}
+		for (CompletableFuture<Long> write : writes) {
+			await(write);
+		}
+		return CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[commits.size()]));
+	}
+
+	/**
+	 * Completes once the block is written and, with group commit and {@code commitWait},
+	 * once the batch it belongs to is forced to the device.
+	 */
+	public CompletableFuture<Long> addAsync(Block block) {
+		CompletableFuture<Long> written = writeAsync(block);
+		return commitWait ? committed(written) : written;
+	}
+
+	private CompletableFuture<Long> writeAsync(Block block) {
+		long id = block.getHeader().getId();
+		int blockEncoding = encodingOf(block, block.getHeader().getiBeg());
+		int span = (encodedSize(Quantizer.rowsSize(block.getData().size(), block.getL(), blockEncoding)) + blockSize - 1) / blockSize;
+		long location = allocate(block, span);
+		Shard shard = shards[(int) (location % shards.length)];
+		byte[] bytes = toBytes(block, span, blockEncoding);
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				write(shard, location / shards.length, bytes, span);
+				if (manifest != null)
+					manifest.put(block.getHeader(), location, span);
+				if (DURABILITY_BLOCK.equalsIgnoreCase(durability)) {
+					long start = System.nanoTime();
+					shard.force();
+					if (manifest != null)
+						manifest.flush();
+					recordForce(System.nanoTime() - start, 1);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return id;
+		}, shard.io);
+	}
+
+	/**
+	 * The write followed by the group commit of the batch it joins, the write itself without group commit.
+	 */
+	private CompletableFuture<Long> committed(CompletableFuture<Long> written) {
+		if (committer == null) {
+			return written;
+		}
+		return written.thenCompose(writtenId -> committer.written().thenApply(v -> writtenId));
+	}
+
+	/**
+	 * Has the log forced with every group commit, so the records appended to it share the fsync of
+	 * the blocks instead of taking one each. Nothing changes without group commit.
+	 */
+	public void attach(Flushable log) {
+		(root != null ? root : this).logs.add(log);
+	}
+
+	public void detach(Flushable log) {
+		(root != null ? root : this).logs.remove(log);
+	}
+
+	/**
+	 * Registers records just appended to an attached log with the group commit and, with
+	 * {@code commitWait}, waits until they are forced.
+	 */
+	public void logged() throws IOException {
+		if (committer != null) {
+			CompletableFuture<Void> batch = committer.logged();
+			if (commitWait)
+				await(batch);
+		}
+	}
+
+	/**
+	 * Forces the shards of this persister and of all its streams, then the attached logs.
+	 */
+	private void forceAll(int blocks) throws IOException {
+		long start = System.nanoTime();
+		for (Shard shard : shards) {
+			shard.force();
+		}
+		for (FilePersistentStorage stream : streams) {
+			for (Shard shard : stream.shards) {
+				shard.force();
+			}
+		}
+		for (Flushable log : logs) {
+			log.flush();
+		}
+		recordForce(System.nanoTime() - start, blocks);
+	}
+
+	private synchronized void recordForce(long nanos, int blocks) {
+		fsyncCount++;
+		fsyncNanos += nanos;
+		fsyncMaxNanos = Math.max(fsyncMaxNanos, nanos);
+		fsyncBlocks += blocks;
+		fsyncMaxBatch = Math.max(fsyncMaxBatch, blocks);
 	}
 
 	public Block get(long id) throws IOException {
-		return fromBytes(getByteBlock(id));
+		return await(getAsync(id));
 	}
-	
-	private byte[] toBytes(Block block) {
-		byte[] result = new byte[blockSize];
-		result[0] = (byte) (block.getData().size() == L ? 1 : 0);
+
+	/**
+	 * Reads blocks in parallel, every one by the thread of its shard or by the shared read pool.
+	 */
+	public Map<Long, Block> getAll(Iterable<? extends Long> ids) throws IOException {
+		List<Long> list = new ArrayList<>();
+		for (Long id : ids) {
+			list.add(id);
+		}
+		Map<Long, CompletableFuture<Block>> reads = getAllAsync(list);
+		Map<Long, Block> result = new LinkedHashMap<>();
+		for (Map.Entry<Long, CompletableFuture<Block>> read : reads.entrySet()) {
+			result.put(read.getKey(), await(read.getValue()));
+		}
 		return result;
 	}
-	private Block fromBytes(byte[] bytes) {
-		// TODO Auto-generated method stub
-		return null;
+
+	public CompletableFuture<Block> getAsync(long id) {
+		chargeReads(Collections.singletonList(id));
+		return readAsync(id);
+	}
+
+	/**
+	 * Issues the reads of all the blocks at once, without waiting for any of them, in the order
+	 * of their locations. The futures are returned in the order of the ids.
+	 */
+	public Map<Long, CompletableFuture<Block>> getAllAsync(Collection<Long> ids) {
+		List<Long> issued = new ArrayList<>(new LinkedHashSet<>(ids));
+		issued.sort(Comparator.comparing(id -> {
+			Long location = locate(id);
+			return location == null ? Long.MAX_VALUE : location;
+		}));
+		Map<Long, CompletableFuture<Block>> started = new HashMap<>();
+		for (Long id : issued) {
+			started.put(id, readAsync(id));
+		}
+		chargeReads(issued);
+		Map<Long, CompletableFuture<Block>> reads = new LinkedHashMap<>();
+		for (Long id : ids) {
+			reads.put(id, started.get(id));
+		}
+		return reads;
+	}
+
+	/**
+	 * The persisted ones of the blocks, in the order of their locations.
+	 */
+	public List<Long> located(Collection<Long> ids) {
+		List<Long> result = new ArrayList<>(ids.size());
+		for (Long id : ids) {
+			if (locate(id) != null)
+				result.add(id);
+		}
+		result.sort(Comparator.comparing(this::locate));
+		return result;
+	}
+
+	private CompletableFuture<Block> readAsync(long id) {
+		Long location = locate(id);
+		if (location == null) {
+			CompletableFuture<Block> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new IOException("Block " + id + " is not persisted"));
+			return failed;
+		}
+		Shard shard = shards[(int) (location % shards.length)];
+		int span = spans.getOrDefault(id, 1);
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return fromBytes(id, read(shard, location / shards.length, span));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, readers != null ? readers : shard.io);
+	}
+
+	/**
+	 * Charges the device models of the shards with the reads issued together, in issue order.
+	 */
+	private void chargeReads(Collection<Long> ids) {
+		List<List<Long>> perShard = new ArrayList<>(shards.length);
+		for (int k = 0; k < shards.length; k++) {
+			perShard.add(new ArrayList<Long>());
+		}
+		for (Long id : ids) {
+			Long location = locate(id);
+			if (location != null)
+				perShard.get((int) (location % shards.length)).add(id);
+		}
+		for (int k = 0; k < shards.length; k++) {
+			List<Long> shardIds = perShard.get(k);
+			if (shardIds.isEmpty())
+				continue;
+			long[] addresses = new long[shardIds.size()];
+			int[] lengths = new int[shardIds.size()];
+			for (int r = 0; r < addresses.length; r++) {
+				long id = shardIds.get(r);
+				long slot = locate(id) / shards.length;
+				addresses[r] = position(slot);
+				lengths[r] = extent(slot, spans.getOrDefault(id, 1));
+				if (r == 0 || addresses[r] != addresses[r - 1] + lengths[r - 1])
+					readRuns.incrementAndGet();
+			}
+			chargedBlocks.addAndGet(addresses.length);
+			shards[k].model.charge(addresses, lengths, false);
+		}
+	}
+
+	/**
+	 * Bytes between the start of the first slot of a block and the end of its last one.
+	 */
+	private int extent(long slot, int span) {
+		return (int) (offset(slot + span - 1) - offset(slot)) + blockSize;
+	}
+
+	private long allocate(Block block, int span) {
+		long id = block.getHeader().getId();
+		long location;
+		if (locations == null) {
+			location = id - idBase;
+		} else if (tiles != null) {
+			location = place(block, span);
+			locations.put(id, location);
+		} else {
+			Shard shard = shards[(int) (block.getHeader().getiBeg() / L) % shards.length];
+			synchronized (shard) {
+				long slot = fitInSegment(shard.slots, span);
+				shard.slots = slot + span;
+				location = slot * shards.length + shard.id;
+			}
+			locations.put(id, location);
+		}
+		if (span > 1) {
+			spans.put(id, span);
+		}
+		shards[(int) (location % shards.length)].segmentEnds.merge(location / shards.length / segmentSlots, block.getHeader().gettEnd(), Math::max);
+		return location;
+	}
+
+	/**
+	 * Location of a block under a curve placement. The n-th block of a common band is the cell (n, band);
+	 * the tile of the cell gets an extent of a shard when its first block comes and is forgotten
+	 * once all its cells are written. Special blocks come at another rate than the columns and would
+	 * keep tiles open, so they go with the blocks of several slots to an extent filled in arrival order.
+	 */
+	private long place(Block block, int span) {
+		int band = (int) (block.getHeader().getiBeg() / L);
+		if (span > 1 || block.getHeader().getiBeg() >= N / L * L) {
+			Shard shard = shards[(int) ((STRIPE_BY_BAND.equalsIgnoreCase(stripe) ? band : block.getHeader().getId()) % shards.length)];
+			synchronized (shard) {
+				if (shard.overflowNext + span > shard.overflowEnd) {
+					int length = (span + extentSlots - 1) / extentSlots * extentSlots;
+					shard.overflowNext = fitInSegment(shard.slots, length);
+					shard.overflowEnd = shard.overflowNext + length;
+					shard.slots = shard.overflowEnd;
+				}
+				long slot = shard.overflowNext;
+				shard.overflowNext += span;
+				return slot * shards.length + shard.id;
+			}
+		}
+		long column;
+		synchronized (tiles) {
+			column = columns[band]++;
+		}
+		int bandGroups = (bands + (1 << bandBits) - 1) >> bandBits;
+		long tileKey = (column >> columnBits) * bandGroups + (band >> bandBits);
+		int tileBands = Math.min(bands - ((band >> bandBits) << bandBits), 1 << bandBits);
+		Shard shard = shards[(int) ((STRIPE_BY_BAND.equalsIgnoreCase(stripe) ? band >> bandBits : tileKey) % shards.length)];
+		Tile tile;
+		synchronized (shard) {
+			tile = tiles.get(tileKey);
+			if (tile == null) {
+				tile = new Tile(fitInSegment(shard.slots, extentSlots), shard.id);
+				shard.slots = tile.slot + extentSlots;
+				tiles.put(tileKey, tile);
+			}
+			if (++tile.placed == tileBands << columnBits) {
+				tiles.remove(tileKey);
+			}
+		}
+		return (tile.slot + cell(column, band)) * shards.length + shard.id;
+	}
+
+	/**
+	 * Position of the cell inside its tile along the curve. A tile longer than wide is a row of
+	 * squares, each one walked by the curve in turn.
+	 */
+	private int cell(long column, int band) {
+		int x = (int) (column & ((1 << columnBits) - 1));
+		int y = band & ((1 << bandBits) - 1);
+		int bits = Math.min(columnBits, bandBits);
+		int side = 1 << bits;
+		int square = PLACEMENT_HILBERT.equalsIgnoreCase(placement) ? hilbert(side, x & (side - 1), y & (side - 1))
+				: interleave(x & (side - 1), y & (side - 1), bits);
+		return ((columnBits > bandBits ? x : y) >> bits) * side * side + square;
+	}
+
+	static int interleave(int x, int y, int bits) {
+		int code = 0;
+		for (int i = 0; i < bits; i++) {
+			code |= ((x >> i) & 1) << (2 * i) | ((y >> i) & 1) << (2 * i + 1);
+		}
+		return code;
+	}
+
+	static int hilbert(int side, int x, int y) {
+		int code = 0;
+		for (int s = side / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			code += s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = side - 1 - x;
+					y = side - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Deletes one segment file whose blocks all ended before the horizon and which will
+	 * not receive any more blocks. The caller makes sure the index no longer refers to them.
+	 * @return whether a segment was dropped
+	 */
+	public boolean dropSegmentBefore(long horizon) throws IOException {
+		for (Shard shard : shards) {
+			long frontier = frontier(shard);
+			for (Map.Entry<Long, Long> segment : shard.segmentEnds.entrySet()) {
+				if (segment.getValue() < horizon && (segment.getKey() + 1) * segmentSlots <= frontier) {
+					shard.segmentEnds.remove(segment.getKey());
+					await(CompletableFuture.runAsync(() -> {
+						try {
+							shard.drop(segment.getKey());
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}, shard.io));
+					droppedSegments.incrementAndGet();
+					log.debug("Dropped segment {} of shard {}", segment.getKey(), shard.id);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * First slot of the shard that may still receive blocks.
+	 */
+	private long frontier(Shard shard) {
+		long frontier;
+		synchronized (this) {
+			frontier = locations == null ? (blockID - idBase + 1) / shards.length : shard.slots;
+		}
+		if (tiles != null) {
+			if (shard.overflowNext < shard.overflowEnd)
+				frontier = Math.min(frontier, shard.overflowNext);
+			for (Tile tile : tiles.values()) {
+				if (tile.shard == shard.id)
+					frontier = Math.min(frontier, tile.slot);
+			}
+		}
+		return frontier;
 	}
-	
 
-	public long add(byte[] block) throws IOException {
-		blockID++;
-		writeBuffer.put(block).flip();
-		while (writeBuffer.hasRemaining()) {
-			mainFile.channel.write(writeBuffer);
+	/**
+	 * Whether the segment of the block will not receive any more blocks.
+	 */
+	public boolean isSealed(long id) {
+		Long location = locate(id);
+		if (location == null)
+			return false;
+		Shard shard = shards[(int) (location % shards.length)];
+		return (location / shards.length / segmentSlots + 1) * segmentSlots <= frontier(shard);
+	}
+
+	/**
+	 * Contiguous runs of slots the blocks lie in, counted per shard.
+	 */
+	public int runs(Collection<Long> ids) {
+		List<long[]> located = new ArrayList<>(ids.size());
+		for (Long id : ids) {
+			Long location = locate(id);
+			if (location != null)
+				located.add(new long[]{location % shards.length, location / shards.length, spans.getOrDefault(id, 1)});
+		}
+		located.sort(Comparator.comparingLong((long[] slot) -> slot[0]).thenComparingLong(slot -> slot[1]));
+		int runs = 0;
+		long shard = -1;
+		long next = -1;
+		for (long[] slot : located) {
+			if (slot[0] != shard || slot[1] != next)
+				runs++;
+			shard = slot[0];
+			next = slot[1] + slot[2];
+		}
+		return runs;
+	}
+
+	/**
+	 * Rewrites the blocks one after another in the given order at the write frontier and points
+	 * their ids to the new slots; the old slots go away with their segments. With band striping or
+	 * a curve placement a block stays in its shard, with id striping the moved blocks are striped
+	 * by the ids reserved for them. Reads and writes run on the shard threads.
+	 */
+	public void relocate(List<Long> ids) throws IOException {
+		List<CompletableFuture<Void>> writes = new ArrayList<>(ids.size());
+		Map<Long, Long> moves = new LinkedHashMap<>();
+		for (Long id : ids) {
+			Long location = locate(id);
+			if (location == null)
+				continue;
+			int span = spans.getOrDefault(id, 1);
+			Shard source = shards[(int) (location % shards.length)];
+			long moved = locations == null ? nextId(span) - idBase : reserve(source, span);
+			Shard target = shards[(int) (moved % shards.length)];
+			long slot = moved / shards.length;
+			writes.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return read(source, location / shards.length, span);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, source.io).thenAcceptAsync(bytes -> {
+				try {
+					target.segmentEnds.merge(slot / segmentSlots, fromBytes(id, bytes).getHeader().gettEnd(), Math::max);
+					write(target, slot, bytes, span);
+					if (manifest != null)
+						manifest.move(id, moved);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, target.io));
+			moves.put(id, moved);
+		}
+		for (CompletableFuture<Void> write : writes) {
+			await(write);
+		}
+		(locations == null ? relocated : locations).putAll(moves);
+		relocatedBlocks.addAndGet(moves.size());
+	}
+
+	private long reserve(Shard shard, int span) {
+		synchronized (shard) {
+			long slot = fitInSegment(shard.slots, span);
+			shard.slots = slot + span;
+			return slot * shards.length + shard.id;
+		}
+	}
+
+	/**
+	 * Releases the location bookkeeping of blocks nobody will read any more.
+	 */
+	public void forget(Collection<Long> ids) throws IOException {
+		for (Long id : ids) {
+			spans.remove(id);
+			relocated.remove(id);
+			if (locations != null)
+				locations.remove(id);
+		}
+		if (manifest != null)
+			manifest.forget(ids);
+	}
+
+	private Long locate(long id) {
+		if (locations != null)
+			return locations.get(id);
+		Long moved = relocated.get(id);
+		return moved == null ? id - idBase : moved;
+	}
+
+	private static <T> T await(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException)
+				throw ((UncheckedIOException) cause).getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	private byte[] toBytes(Block block, int span, int blockEncoding) {
+		int size = span * blockSize;
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put((byte) ((block.getL() == L ? 0 : 1) | blockEncoding << 1));
+		buffer.putLong(block.getHeader().getId() - idBase);
+		buffer.putInt((int) block.getHeader().getiBeg());
+		buffer.putInt(block.getData().size());
+		int width = block.getL();
+		float[] mins = new float[width];
+		float[] steps = new float[width];
+		if (blockEncoding == Quantizer.BYTE) {
+			for (int j = 0; j < width; j++) {
+				mins[j] = Quantizer.min(block.getData(), j);
+				steps[j] = Quantizer.step(mins[j], Quantizer.max(block.getData(), j));
+				buffer.putFloat(mins[j]);
+				buffer.putFloat(steps[j]);
+			}
+		}
+		for (Vector row : block.getData()) {
+			buffer.putLong(row.getTimestamp());
+			float[] values = row.getVector();
+			for (int j = 0; j < values.length; j++) {
+				if (blockEncoding == Quantizer.BYTE)
+					buffer.put(Quantizer.toByte(values[j], mins[j], steps[j]));
+				else if (blockEncoding == Quantizer.HALF)
+					buffer.putShort(Quantizer.toHalf(values[j]));
+				else
+					buffer.putFloat(values[j]);
+			}
+		}
+		encodedBlocks[blockEncoding].incrementAndGet();
+		if (blockEncoding < encoding && isQuantized(block.getHeader().getiBeg()))
+			refinedBlocks.incrementAndGet();
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, size - Integer.BYTES);
+		buffer.putInt(size - Integer.BYTES, (int) crc.getValue());
+		return buffer.array();
+	}
+
+	private static boolean intact(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - Integer.BYTES);
+		return (int) crc.getValue() == ByteBuffer.wrap(bytes).getInt(bytes.length - Integer.BYTES);
+	}
+
+	private Block fromBytes(long id, byte[] bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (!intact(bytes)) {
+			corruptBlocks.incrementAndGet();
+			throw new IOException("Block " + id + " is torn or corrupt: checksum mismatch");
+		}
+		byte flags = buffer.get();
+		long stored = idBase + buffer.getLong();
+		if (stored != id) {
+			corruptBlocks.incrementAndGet();
+			throw new IOException("Block " + id + " found block " + stored + " in its slot");
+		}
+		boolean special = (flags & 1) == 1;
+		int blockEncoding = flags >> 1;
+		int width = special ? L_S : L;
+		int iBeg = buffer.getInt();
+		int rows = buffer.getInt();
+		float[] mins = new float[width];
+		float[] steps = new float[width];
+		if (blockEncoding == Quantizer.BYTE) {
+			for (int j = 0; j < width; j++) {
+				mins[j] = buffer.getFloat();
+				steps[j] = buffer.getFloat();
+			}
+		}
+		ArrayList<Vector> data = new ArrayList<>(rows);
+		for (int r = 0; r < rows; r++) {
+			long timestamp = buffer.getLong();
+			float[] values = new float[width];
+			for (int j = 0; j < width; j++) {
+				if (blockEncoding == Quantizer.BYTE)
+					values[j] = Quantizer.fromByte(buffer.get(), mins[j], steps[j]);
+				else if (blockEncoding == Quantizer.HALF)
+					values[j] = Quantizer.fromHalf(buffer.getShort());
+				else
+					values[j] = buffer.getFloat();
+			}
+			data.add(new Vector(timestamp, values));
 		}
-		writeBuffer.clear();
-		return blockID;
+		BlockHeader header = new BlockHeader(id, data.get(0).getTimestamp(), data.get(rows - 1).getTimestamp(), iBeg, iBeg + width - 1);
+		return new Block(header, Math.max(special ? P_S : P, rows), width, data);
 	}
 
-	  public byte[] getByteBlock(long blockID) throws IOException {
-		ByteBuffer resultBuffer = ByteBuffer.allocate(blockSize);
-	    mainFile.channel.read(resultBuffer, blockID * blockSize);
-	    return resultBuffer.array();
+	/**
+	 * Position of the slot inside its segment file.
+	 */
+	private long offset(long slot) {
+		return position(slot) - position(slot / segmentSlots * segmentSlots);
+	}
+
+	private void write(Shard shard, long slot, byte[] block, int span) throws IOException {
+		StorageEvents.DiskWrite event = new StorageEvents.DiskWrite();
+		event.begin();
+		BlockDevice segment = shard.segment(slot / segmentSlots, true);
+		for (int k = 0; k < span; k++) {
+			ByteBuffer writeBuffer = ByteBuffer.wrap(block, k * blockSize, blockSize);
+			long position = offset(slot + k);
+			while (writeBuffer.hasRemaining()) {
+				position += segment.write(writeBuffer, position);
+			}
+		}
+		shard.model.charge(new long[]{position(slot)}, new int[]{extent(slot, span)}, true);
+		blocksWritten.incrementAndGet();
+		if (event.shouldCommit()) {
+			event.shard = shard.id;
+			event.slot = slot;
+			event.span = span;
+			event.bytes = (long) span * blockSize;
+			event.commit();
+		}
+	}
+
+	public byte[] getByteBlock(long blockID) throws IOException {
+		Long location = locate(blockID);
+		if (location == null)
+			throw new IOException("Block " + blockID + " is not persisted");
+		return read(shards[(int) (location % shards.length)], location / shards.length, spans.getOrDefault(blockID, 1));
+	}
+
+	/**
+	 * Reads all slots of a block with one request, skipping the page padding between them.
+	 */
+	  private byte[] read(Shard shard, long slot, int span) throws IOException {
+		StorageEvents.DiskRead event = new StorageEvents.DiskRead();
+		event.begin();
+		BlockDevice segment = shard.segment(slot / segmentSlots, false);
+		if (segment == null)
+			throw new IOException("Slot " + slot + " of shard " + shard.id + " lies in a dropped segment");
+		long position = offset(slot);
+		int length = extent(slot, span);
+		ByteBuffer resultBuffer = ByteBuffer.allocate(length);
+		while (resultBuffer.hasRemaining()) {
+			int read = segment.read(resultBuffer, position + resultBuffer.position());
+			if (read < 0)
+				throw new IOException("Slot " + slot + " is out of persisted data of shard " + shard.id);
+		}
+		shard.blocksRead.incrementAndGet();
+		blocksRead.incrementAndGet();
+		bytesRead.addAndGet(length);
+		pagesRead.addAndGet((position + length - 1) / pageSize - position / pageSize + 1);
+		if (event.shouldCommit()) {
+			event.shard = shard.id;
+			event.slot = slot;
+			event.span = span;
+			event.bytes = length;
+			event.commit();
+		}
+		if (span == 1)
+			return resultBuffer.array();
+		byte[] result = new byte[span * blockSize];
+		for (int k = 0; k < span; k++) {
+			System.arraycopy(resultBuffer.array(), (int) (offset(slot + k) - position), result, k * blockSize, blockSize);
+		}
+	    return result;
 	  }
-	
-	
+
+	public long getBlocksRead() {
+		return blocksRead.get();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getBlocksWritten() {
+		return blocksWritten.get();
+	}
+
+	/**
+	 * File system pages touched by the block reads so far, summed over reads: a page read twice counts twice.
+	 */
+	public long getPagesRead() {
+		return pagesRead.get();
+	}
+
+	/**
+	 * Contiguous runs the reads issued together fell into, per shard.
+	 */
+	public long getReadRuns() {
+		return readRuns.get();
+	}
+
+	/**
+	 * Blocks per contiguous run of the reads issued together.
+	 */
+	public double getReadRunLength() {
+		long runs = readRuns.get();
+		return runs == 0 ? 0.0 : (double) chargedBlocks.get() / runs;
+	}
+
+	public long getRelocatedBlocks() {
+		return relocatedBlocks.get();
+	}
+
+	/**
+	 * Block requests run by the shard threads, for all the streams sharing them.
+	 */
+	public long getIoTasks() {
+		long tasks = 0;
+		for (Shard shard : shards) {
+			tasks += shard.scheduler.getExecuted();
+		}
+		return tasks;
+	}
+
+	/**
+	 * Most streams queueing requests at one shard thread at the same time.
+	 */
+	public int getMaxIoLanes() {
+		int lanes = 0;
+		for (Shard shard : shards) {
+			lanes = Math.max(lanes, shard.scheduler.getMaxLanes());
+		}
+		return lanes;
+	}
+
+	public String getQuantize() {
+		return quantize;
+	}
+
+	public long getHalfBlocks() {
+		return encodedBlocks[Quantizer.HALF].get();
+	}
+
+	public long getByteBlocks() {
+		return encodedBlocks[Quantizer.BYTE].get();
+	}
+
+	/**
+	 * Blocks of quantized bands stored in a finer encoding than configured to keep the error bound.
+	 */
+	public long getRefinedBlocks() {
+		return refinedBlocks.get();
+	}
+
+	public String getPlacement() {
+		return placement;
+	}
+
+	public long getCorruptBlocks() {
+		return corruptBlocks.get();
+	}
+
+	public long getSimulatedReadMicros() {
+		long micros = 0;
+		for (Shard shard : shards) {
+			micros += shard.model.getReadMicros();
+		}
+		return micros;
+	}
+
+	public long getSimulatedWriteMicros() {
+		long micros = 0;
+		for (Shard shard : shards) {
+			micros += shard.model.getWriteMicros();
+		}
+		return micros;
+	}
+
+	public long getReadSeeks() {
+		long seeks = 0;
+		for (Shard shard : shards) {
+			seeks += shard.model.getReadSeeks();
+		}
+		return seeks;
+	}
+
+	public long getWriteSeeks() {
+		long seeks = 0;
+		for (Shard shard : shards) {
+			seeks += shard.model.getWriteSeeks();
+		}
+		return seeks;
+	}
+
+	public long getDroppedSegments() {
+		return droppedSegments.get();
+	}
+
+	public int getSegmentCount() {
+		int count = 0;
+		for (Shard shard : shards) {
+			count += shard.segments.size();
+		}
+		return count;
+	}
+
+	public String getRootPath() {
+		return rootPath;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public int getSlotSize() {
+		return slotSize;
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public long getShardBlocksRead(int shard) {
+		return shards[shard].blocksRead.get();
+	}
+
+	public synchronized long getFsyncCount() {
+		return fsyncCount;
+	}
+
+	public synchronized double getFsyncMeanMicros() {
+		return fsyncCount == 0 ? 0.0 : fsyncNanos / 1000.0 / fsyncCount;
+	}
+
+	public synchronized double getFsyncMaxMicros() {
+		return fsyncMaxNanos / 1000.0;
+	}
+
+	public synchronized double getFsyncMeanBatch() {
+		return fsyncCount == 0 ? 0.0 : (double) fsyncBlocks / fsyncCount;
+	}
+
+	public synchronized long getFsyncMaxBatch() {
+		return fsyncMaxBatch;
+	}
+
+	public String getDurability() {
+		return durability;
+	}
 
 	public void close() throws IOException {
-		if (mainFile != null) {
-			mainFile.close();
+		if (manifest != null) {
+			detach(manifest);
+		}
+		if (root != null) {
+			root.streams.remove(this);
+			for (Shard shard : shards) {
+				for (BlockDevice segment : shard.segments.values()) {
+					segment.close();
+				}
+			}
+			if (manifest != null) {
+				manifest.close();
+			}
+			return;
+		}
+		if (committer != null) {
+			try {
+				committer.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		if (readers != null) {
+			readers.shutdown();
+		}
+		for (Shard shard : shards) {
+			shard.scheduler.shutdown();
+			for (BlockDevice segment : shard.segments.values()) {
+				segment.close();
+			}
+		}
+		if (manifest != null) {
+			manifest.close();
 		}
 	}
 
-	private static class FileHandler implements Closeable {
+	private static class Shard {
+
+		private final int id;
+		private final File prefix;
+		private final FairScheduler scheduler;
+		private final Executor io;
+		private final boolean inMemory;
+		private final DeviceModel model;
+		private final AtomicLong blocksRead;
+		private final ConcurrentSkipListMap<Long, BlockDevice> segments;
+		private final ConcurrentSkipListMap<Long, Long> segmentEnds;	// segment -> latest block end time in it
+		private long slots;
+		private long overflowNext;		// next free slot of the extent taking blocks of several slots
+		private long overflowEnd;
+
+		Shard(int id, File prefix, FairScheduler scheduler, Executor io, boolean inMemory, DeviceModel model) {
+			this.id = id;
+			this.prefix = prefix;
+			this.scheduler = scheduler;
+			this.io = io;
+			this.inMemory = inMemory;
+			this.model = model;
+			this.blocksRead = new AtomicLong();
+			this.segments = new ConcurrentSkipListMap<>();
+			this.segmentEnds = new ConcurrentSkipListMap<>();
+		}
+
+		BlockDevice segment(long segment, boolean create) throws IOException {
+			BlockDevice handler = segments.get(segment);
+			return handler == null && create ? open(segment) : handler;
+		}
 
-		private final RandomAccessFile raf;
-		private final FileChannel channel;
+		BlockDevice open(long segment) throws IOException {
+			BlockDevice handler = inMemory ? new MemoryDevice() : new FileDevice(new File(prefix.getPath() + String.format(SEGMENT_SUFFIX_FORMAT, segment)));
+			segments.put(segment, handler);
+			return handler;
+		}
 
-		FileHandler(RandomAccessFile raf, FileChannel channel) {
-			this.raf = raf;
-			this.channel = channel;
+		void force() throws IOException {
+			for (BlockDevice segment : segments.values()) {
+				segment.force();
+			}
 		}
 
-		@Override
-		public void close() throws IOException {
-			channel.force(false);
-			raf.close();
+		void drop(long segment) throws IOException {
+			BlockDevice handler = segments.remove(segment);
+			if (handler != null) {
+				handler.delete();
+			}
+		}
+	}
+
+	private static class Tile {
+
+		private final long slot;
+		private final int shard;
+		private int placed;
+
+		Tile(long slot, int shard) {
+			this.slot = slot;
+			this.shard = shard;
 		}
 	}
 }
@@ -0,0 +1,87 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Forces written blocks to the device in batches: every {@code commitMillis} or as soon
+ * as {@code commitBlocks} blocks are waiting, whichever comes first. Writers may wait on
+ * the shared future of the batch their block belongs to. Records appended to a log forced
+ * along with the blocks join the batch too, without counting as blocks.
+ */
+class GroupCommitter {
+
+	interface Forcer {
+		void force(int blocks) throws IOException;
+	}
+
+	private final Forcer forcer;
+	private final int commitBlocks;
+	private final ScheduledExecutorService timer;
+	private CompletableFuture<Void> pending;
+	private int pendingBlocks;
+	private boolean pendingRecords;
+
+	GroupCommitter(Forcer forcer, long commitMillis, int commitBlocks) {
+		this.forcer = forcer;
+		this.commitBlocks = commitBlocks;
+		this.pending = new CompletableFuture<>();
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("group-commit-%d").build());
+		this.timer.scheduleWithFixedDelay(this::commit, commitMillis, commitMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Registers a block that has just been written.
+	 * @return future completed once the block is forced to the device
+	 */
+	synchronized CompletableFuture<Void> written() {
+		CompletableFuture<Void> batch = pending;
+		if (++pendingBlocks == commitBlocks) {
+			timer.execute(this::commit);
+		}
+		return batch;
+	}
+
+	/**
+	 * Registers records just appended to a log forced with the blocks.
+	 * @return future completed once the records are forced to the device
+	 */
+	synchronized CompletableFuture<Void> logged() {
+		pendingRecords = true;
+		return pending;
+	}
+
+	private void commit() {
+		CompletableFuture<Void> batch;
+		int blocks;
+		synchronized (this) {
+			if (pendingBlocks == 0 && !pendingRecords) {
+				return;
+			}
+			batch = pending;
+			blocks = pendingBlocks;
+			pending = new CompletableFuture<>();
+			pendingBlocks = 0;
+			pendingRecords = false;
+		}
+		try {
+			forcer.force(blocks);
+			batch.complete(null);
+		} catch (IOException e) {
+			batch.completeExceptionally(new UncheckedIOException(e));
+		}
+	}
+
+	void close() throws InterruptedException {
+		timer.execute(this::commit);
+		timer.shutdown();
+		timer.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+}
@@ -0,0 +1,36 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Single head disk: a request not starting where the previous one ended costs a seek,
+ * then bytes are transferred at a constant rate.
+ */
+public class HddModel extends DeviceModel {
+
+	private final double seekMicros;
+	private final double bytesPerMicro;
+	private long head = -1;
+
+	@Inject
+	public HddModel(@Named("seekMicros") int seekMicros, @Named("transferMBps") int transferMBps) {
+		this.seekMicros = seekMicros;
+		this.bytesPerMicro = transferMBps;
+	}
+
+	@Override
+	protected double serve(long[] addresses, int[] lengths) {
+		double micros = 0;
+		for (int k = 0; k < addresses.length; k++) {
+			if (addresses[k] != head) {
+				seek();
+				micros += seekMicros;
+			}
+			micros += lengths[k] / bytesPerMicro;
+			head = addresses[k] + lengths[k];
+		}
+		return micros;
+	}
+
+}
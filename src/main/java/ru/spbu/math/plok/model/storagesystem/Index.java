@@ -1,11 +1,17 @@
 package ru.spbu.math.plok.model.storagesystem;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import ru.spbu.math.plok.model.client.ValuePredicate;
+
 
 public class Index {
 	
@@ -15,11 +21,16 @@ public class Index {
 	private int L = -1; 
 	private int L_S;
 	private int P_S;
-	private long firstBasicTimestamp = -1;
-	private long firstSpecialTimestamp = -1;
 	private List<List<Long>> grid;
+	private List<Long> gridBegins;
+	private List<Long> gridEnds;
 	private List<Long> specialGrid;
+	private List<Long> specialBegins;
+	private List<Long> specialEnds;
+	private Map<Long, BlockHeader> headers;
 	private int blockCount;
+	private final AtomicLong zoneMapCheckedCount = new AtomicLong();	// readers share the read lock
+	private final AtomicLong zoneMapSkippedCount = new AtomicLong();
 	
 
 	@Inject
@@ -30,10 +41,14 @@ public class Index {
 		this.L = L;
 		this.N = N;
 		this.L_S = N % L;
-		this.P_S = P * L / L_S;
+		this.P_S = L_S == 0 ? 0 : P * L / L_S;
 		grid = new ArrayList<>();
-		grid.add(new ArrayList<Long>());
+		gridBegins = new ArrayList<>();
+		gridEnds = new ArrayList<>();
 		specialGrid = new ArrayList<>();
+		specialBegins = new ArrayList<>();
+		specialEnds = new ArrayList<>();
+		headers = new HashMap<>();
 	}
 
 	@Override
@@ -49,19 +64,19 @@ public class Index {
 	public void put(BlockHeader entry) {
 		if (isSpecial(entry)){
 			specialGrid.add(entry.getId());
-			if (firstSpecialTimestamp == -1)
-				firstSpecialTimestamp = entry.gettBeg();
+			specialBegins.add(entry.gettBeg());
+			specialEnds.add(entry.gettEnd());
 		}else{
 			int last = grid.size() - 1;
-			if (grid.get(last).size() == N / L){
+			if (last == -1 || grid.get(last).size() == N / L){
 				grid.add(new ArrayList<Long>());
+				gridBegins.add(entry.gettBeg());
+				gridEnds.add(entry.gettEnd());
 				last++;
 			}
 			grid.get(last).add(entry.getId());
-			System.out.println("Columns in grid:" + grid.size());
-			if (firstBasicTimestamp == -1)
-				firstBasicTimestamp = entry.gettBeg();
 		}
+		headers.put(entry.getId(), entry);
 		blockCount++;
 	}
 
@@ -78,42 +93,269 @@ public class Index {
 		return result;
 	}
 
+	/**
+	 * Same as {@link #get(long, long, int, int)} but skips the blocks whose time span
+	 * cannot contain a row satisfying the predicate according to the zone maps.
+	 */
+	public List<Long> get(long startTime, long endTime, int i1, int i2, ValuePredicate predicate) {
+		return get(startTime, endTime, i1, i2, predicate == null ? null : getZoneMapFilter(startTime, endTime, predicate));
+	}
+
+	List<Long> get(long startTime, long endTime, int i1, int i2, ZoneMapFilter filter) {
+		List<Long> ids = get(startTime, endTime, i1, i2);
+		if (filter == null) {
+			return ids;
+		}
+		List<Long> result = new ArrayList<>(ids.size());
+		for (Long id : ids){
+			if (filter.mayMatch(headers.get(id)))
+				result.add(id);
+		}
+		zoneMapCheckedCount.addAndGet(ids.size());
+		zoneMapSkippedCount.addAndGet(ids.size() - result.size());
+		return result;
+	}
+
+	ZoneMapFilter getZoneMapFilter(long startTime, long endTime, ValuePredicate predicate) {
+		return getZoneMapFilter(startTime, endTime, predicate, Collections.<BlockHeader>emptyList());
+	}
+
+	/**
+	 * @param unindexed headers of not yet indexed blocks holding the predicate index, later than all indexed ones
+	 */
+	ZoneMapFilter getZoneMapFilter(long startTime, long endTime, ValuePredicate predicate, List<BlockHeader> unindexed) {
+		List<BlockHeader> holders = getHeaders(startTime, endTime, predicate.getIndex(), predicate.getIndex());
+		holders.addAll(unindexed);
+		return new ZoneMapFilter(predicate, holders);
+	}
+
+	public List<BlockHeader> getHeaders(long startTime, long endTime, int i1, int i2) {
+		return getHeaders(startTime, endTime, i1, i2, (ZoneMapFilter) null);
+	}
+
+	public List<BlockHeader> getHeaders(long startTime, long endTime, int i1, int i2, ValuePredicate predicate) {
+		return getHeaders(startTime, endTime, i1, i2, predicate == null ? null : getZoneMapFilter(startTime, endTime, predicate));
+	}
+
+	List<BlockHeader> getHeaders(long startTime, long endTime, int i1, int i2, ZoneMapFilter filter) {
+		List<Long> ids = get(startTime, endTime, i1, i2, filter);
+		List<BlockHeader> result = new ArrayList<>(ids.size());
+		for (Long id : ids){
+			result.add(headers.get(id));
+		}
+		return result;
+	}
+
+	/**
+	 * Headers of the bands of [i1, i2] in the first column that does not end before {@code from},
+	 * null if there is no such column starting not after {@code endTime}.
+	 */
+	List<BlockHeader> getColumn(long from, long endTime, int i1, int i2) {
+		int bands = N / L;
+		int column = firstNotLess(gridEnds, from);
+		if (column == grid.size() || gridBegins.get(column) > endTime || i1 > bands * L - 1 || i2 < 0) {
+			return null;
+		}
+		List<Long> ids = grid.get(column);
+		int up = Math.max(i1, 0) / L;
+		int down = Math.min(Math.min(i2, bands * L - 1) / L, ids.size() - 1);
+		List<BlockHeader> result = new ArrayList<>(Math.max(down - up + 1, 0));
+		for (int band = up; band <= down; band++) {
+			result.add(headers.get(ids.get(band)));
+		}
+		return result;
+	}
+
+	/**
+	 * Header of the first special block that does not end before {@code from},
+	 * null if there is no such block starting not after {@code endTime}.
+	 */
+	BlockHeader getSpecial(long from, long endTime) {
+		int special = firstNotLess(specialEnds, from);
+		if (special == specialGrid.size() || specialBegins.get(special) > endTime) {
+			return null;
+		}
+		return headers.get(specialGrid.get(special));
+	}
+
+	/**
+	 * Adds the indexed blocks crossing the rectangle to the coverage, rows counted along the
+	 * blocks holding index {@code probe}. Only the grid and the headers are looked at.
+	 */
+	void cover(Coverage coverage, long startTime, long endTime, int i1, int i2, int probe) {
+		int bands = N / L;
+		if (!grid.isEmpty() && i1 <= bands * L - 1 && i2 >= 0) {
+			int up = Math.max(i1, 0) / L;
+			int down = Math.min(i2, bands * L - 1) / L;
+			int left = firstNotLess(gridEnds, startTime);
+			int right = lastNotGreater(gridBegins, endTime);
+			for (int column = left; column <= right; column++) {
+				List<Long> ids = grid.get(column);
+				long blocks = Math.max(Math.min(down + 1, ids.size()) - up, 0);
+				boolean inner = gridBegins.get(column) >= startTime && gridEnds.get(column) <= endTime;
+				coverage.addBlocks(blocks, inner ? blocks : 0);
+				if (probe < bands * L && probe / L < ids.size()) {
+					BlockHeader header = headers.get(ids.get(probe / L));
+					coverage.addRows(header.gettBeg(), header.gettEnd(), rows(header, P), startTime, endTime);
+				}
+			}
+		}
+		if (!specialGrid.isEmpty() && i2 >= N - L_S && i1 <= N - 1) {
+			int left = firstNotLess(specialEnds, startTime);
+			int right = lastNotGreater(specialBegins, endTime);
+			for (int special = left; special <= right; special++) {
+				boolean inner = specialBegins.get(special) >= startTime && specialEnds.get(special) <= endTime;
+				coverage.addBlocks(1, inner ? 1 : 0);
+				if (probe >= bands * L) {
+					BlockHeader header = headers.get(specialGrid.get(special));
+					coverage.addRows(header.gettBeg(), header.gettEnd(), rows(header, P_S), startTime, endTime);
+				}
+			}
+		}
+	}
+
+	private static int rows(BlockHeader header, int capacity) {
+		return header.getSummary() == null ? capacity : header.getSummary().getCount();
+	}
+
+	public BlockHeader getHeader(long id) {
+		return headers.get(id);
+	}
+
 	private List<Long> getFromSpecial(long startTime, long endTime, int i1, int i2) {
-		long firstTime = firstBasicTimestamp;
-		long lastTime = firstTime + specialGrid.size() * P * p;
 		if (specialGrid.isEmpty() 
-				|| startTime > lastTime
-				|| endTime   < firstTime) {
+				|| i2 < N - L_S
+				|| i1 > N - 1) {
+			return new ArrayList<>();
+		}
+		int leftBlockIndex  = firstNotLess(specialEnds, startTime);
+		int rightBlockIndex = lastNotGreater(specialBegins, endTime);
+		if (leftBlockIndex > rightBlockIndex) {
 			return new ArrayList<>();
 		}
-		int leftBlockIndex  = (int)  (startTime    >= firstTime ? ((startTime - firstTime) / p) / P_S   : 0              );
-		int rightBlockIndex = (int)  (lastTime     >= endTime   ? ((endTime   - firstTime) / p) / P_S   : specialGrid.size() - 1);
 		return specialGrid.subList(leftBlockIndex, rightBlockIndex + 1);
 	}
 
 	private List<Long> getFromBasic(long qTimeStart, long qTimeEnd, int qIndexStart, int qIndexEnd) {
-		long firstTime = firstBasicTimestamp;
-		long lastTime  = firstTime + grid.size() * P * p ;
+		int bands = N / L;
 		if (grid.isEmpty() 
-				|| qTimeStart  > lastTime
-				|| qTimeEnd    < firstTime
-				|| qIndexStart > N
+				|| qIndexStart > bands * L - 1
 				|| qIndexEnd   < 0 
 				) {
 			return new ArrayList<>();
 		}
-		int leftBlockIndex  = (int)  (qTimeStart  >= firstTime  ? ((qTimeStart - firstTime) / p) / P   : 0                );
-		int rightBlockIndex = (int)  (qTimeEnd    <= lastTime	? ((qTimeEnd   - firstTime) / p) / P   : grid.size() - 1  );
-		int upBlockIndex  	= (int) (qIndexStart  >= 0 			? qIndexStart / L : 0);
-		int downBlockIndex  = (int) (qIndexEnd    <= N 			? qIndexEnd / L : 0);
+		int leftBlockIndex  = firstNotLess(gridEnds, qTimeStart);
+		int rightBlockIndex = lastNotGreater(gridBegins, qTimeEnd);
+		int upBlockIndex  	= Math.max(qIndexStart, 0) / L;
+		int downBlockIndex  = Math.min(qIndexEnd, bands * L - 1) / L;
 		List<Long> result = new ArrayList<>();
 		for (int i = leftBlockIndex; i <= rightBlockIndex; i++){
-			 result.addAll(grid.get(i).subList(upBlockIndex, downBlockIndex + 1));
+			List<Long> column = grid.get(i);
+			if (upBlockIndex < column.size())
+				result.addAll(column.subList(upBlockIndex, Math.min(downBlockIndex + 1, column.size())));
 		}
 		return result;
 	}
 
+	/**
+	 * Position of the first element of the sorted list that is not less than the key.
+	 */
+	private static int firstNotLess(List<Long> sorted, long key) {
+		int lo = 0;
+		int hi = sorted.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted.get(mid) < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Position of the last element of the sorted list that is not greater than the key, -1 if none.
+	 */
+	private static int lastNotGreater(List<Long> sorted, long key) {
+		int lo = 0;
+		int hi = sorted.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted.get(mid) <= key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo - 1;
+	}
+
+	/**
+	 * Forgets the columns and special blocks that ended before the horizon.
+	 * @return ids of the forgotten blocks
+	 */
+	public List<Long> dropBefore(long horizon) {
+		List<Long> dropped = new ArrayList<>();
+		int columns = firstNotLess(gridEnds, horizon);
+		for (List<Long> column : grid.subList(0, columns)) {
+			dropped.addAll(column);
+		}
+		grid.subList(0, columns).clear();
+		gridBegins.subList(0, columns).clear();
+		gridEnds.subList(0, columns).clear();
+		int specials = firstNotLess(specialEnds, horizon);
+		dropped.addAll(specialGrid.subList(0, specials));
+		specialGrid.subList(0, specials).clear();
+		specialBegins.subList(0, specials).clear();
+		specialEnds.subList(0, specials).clear();
+		for (Long id : dropped) {
+			headers.remove(id);
+		}
+		blockCount -= dropped.size();
+		return dropped;
+	}
+
+	/**
+	 * Up to {@code count} consecutive special blocks starting after the given time.
+	 */
+	List<BlockHeader> getSpecialRun(long after, int count) {
+		List<BlockHeader> result = new ArrayList<>(count);
+		for (int k = lastNotGreater(specialBegins, after) + 1; k < specialGrid.size() && result.size() < count; k++) {
+			result.add(headers.get(specialGrid.get(k)));
+		}
+		return result;
+	}
+
+	/**
+	 * Puts a block in place of the consecutive special blocks it was merged from.
+	 */
+	void replaceSpecials(List<BlockHeader> merged, BlockHeader replacement) {
+		int first = firstNotLess(specialBegins, merged.get(0).gettBeg());
+		for (int k = 0; k < merged.size(); k++) {
+			if (first + k >= specialGrid.size() || specialGrid.get(first + k) != merged.get(k).getId())
+				throw new IllegalStateException("Special blocks to replace are not consecutive in the index: " + merged);
+		}
+		specialGrid.subList(first, first + merged.size()).clear();
+		specialBegins.subList(first, first + merged.size()).clear();
+		specialEnds.subList(first, first + merged.size()).clear();
+		specialGrid.add(first, replacement.getId());
+		specialBegins.add(first, replacement.gettBeg());
+		specialEnds.add(first, replacement.gettEnd());
+		for (BlockHeader header : merged) {
+			headers.remove(header.getId());
+		}
+		headers.put(replacement.getId(), replacement);
+		blockCount -= merged.size() - 1;
+	}
+
 	public int getBlockCount() {
 		return blockCount;
 	}
+
+	public long getZoneMapCheckedCount() {
+		return zoneMapCheckedCount.get();
+	}
+
+	public long getZoneMapSkippedCount() {
+		return zoneMapSkippedCount.get();
+	}
 }
@@ -0,0 +1,69 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Device kept in memory, so timings depend neither on the disk nor on the OS page cache.
+ * Nothing survives a restart.
+ */
+class MemoryDevice implements BlockDevice {
+
+	private static final int CHUNK_SIZE = 1 << 16;
+	private final List<byte[]> chunks = new ArrayList<>();
+	private long size;
+
+	@Override
+	public synchronized int read(ByteBuffer dst, long position) {
+		if (position >= size) {
+			return -1;
+		}
+		int length = (int) Math.min(dst.remaining(), size - position);
+		for (int done = 0; done < length; ) {
+			long at = position + done;
+			int inChunk = (int) (at % CHUNK_SIZE);
+			int part = Math.min(length - done, CHUNK_SIZE - inChunk);
+			dst.put(chunks.get((int) (at / CHUNK_SIZE)), inChunk, part);
+			done += part;
+		}
+		return length;
+	}
+
+	@Override
+	public synchronized int write(ByteBuffer src, long position) {
+		int length = src.remaining();
+		while ((long) chunks.size() * CHUNK_SIZE < position + length) {
+			chunks.add(new byte[CHUNK_SIZE]);
+		}
+		for (int done = 0; done < length; ) {
+			long at = position + done;
+			int inChunk = (int) (at % CHUNK_SIZE);
+			int part = Math.min(length - done, CHUNK_SIZE - inChunk);
+			src.get(chunks.get((int) (at / CHUNK_SIZE)), inChunk, part);
+			done += part;
+		}
+		size = Math.max(size, position + length);
+		return length;
+	}
+
+	@Override
+	public synchronized long size() {
+		return size;
+	}
+
+	@Override
+	public void force() {
+	}
+
+	@Override
+	public synchronized void delete() {
+		chunks.clear();
+		size = 0;
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,108 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Rows of the blocks that are still being filled, as published by the writer after a put.
+ * The writer only appends to the open blocks and never reallocates their row lists, so
+ * reading the first {@code rows} entries is safe while it goes on filling them.
+ * Served copies get negative ids and are never cached.
+ */
+class MemtableSnapshot {
+
+	private final List<Block> common;
+	private final int commonRows;
+	private final Block special;
+	private final int specialRows;
+	private final int L;
+	private final int specialBeg;
+
+	MemtableSnapshot(List<Block> common, int commonRows, Block special, int specialRows, int L, int specialBeg) {
+		this.common = common;
+		this.commonRows = commonRows;
+		this.special = special;
+		this.specialRows = specialRows;
+		this.L = L;
+		this.specialBeg = specialBeg;
+	}
+
+	List<Block> select(long startTime, long endTime, int i1, int i2) {
+		List<Block> result = new ArrayList<>();
+		if (commonRows > 0) {
+			int up = Math.max(i1, 0) / L;
+			int down = Math.min(i2, common.size() * L - 1) / L;
+			for (int band = up; band <= down; band++) {
+				addFrozen(result, common.get(band), commonRows, band * L, -1 - band, startTime, endTime);
+			}
+		}
+		if (specialRows > 0 && i2 >= specialBeg) {
+			addFrozen(result, special, specialRows, specialBeg, -1 - common.size(), startTime, endTime);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the open blocks crossing the rectangle to the coverage, rows along index {@code probe}.
+	 */
+	void cover(Coverage coverage, long startTime, long endTime, int i1, int i2, int probe) {
+		if (commonRows > 0 && i1 <= common.size() * L - 1 && i2 >= 0) {
+			int up = Math.max(i1, 0) / L;
+			int down = Math.min(i2, common.size() * L - 1) / L;
+			long rows = rowsIn(common.get(0).getData(), commonRows, startTime, endTime);
+			if (overlaps(common.get(0).getData(), commonRows, startTime, endTime))
+				coverage.addBlocks(down - up + 1, 0);
+			if (probe < common.size() * L)
+				coverage.addExactRows(rows);
+		}
+		if (specialRows > 0 && i2 >= specialBeg) {
+			if (overlaps(special.getData(), specialRows, startTime, endTime))
+				coverage.addBlocks(1, 0);
+			if (probe >= specialBeg)
+				coverage.addExactRows(rowsIn(special.getData(), specialRows, startTime, endTime));
+		}
+	}
+
+	private static boolean overlaps(List<Vector> data, int rows, long startTime, long endTime) {
+		return data.get(0).getTimestamp() <= endTime && data.get(rows - 1).getTimestamp() >= startTime;
+	}
+
+	/**
+	 * Rows among the first {@code rows} ones, ordered by time, that lie in [startTime, endTime].
+	 */
+	private static long rowsIn(List<Vector> data, int rows, long startTime, long endTime) {
+		return Math.max(firstAfter(data, rows, endTime) - firstAfter(data, rows, startTime - 1), 0);
+	}
+
+	private static int firstAfter(List<Vector> data, int rows, long time) {
+		int lo = 0;
+		int hi = rows;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (data.get(mid).getTimestamp() <= time)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private static void addFrozen(List<Block> result, Block open, int rows, long iBeg, long id, long startTime, long endTime) {
+		List<Vector> openData = open.getData();
+		long tBeg = openData.get(0).getTimestamp();
+		long tEnd = openData.get(rows - 1).getTimestamp();
+		if (tBeg > endTime || tEnd < startTime) {
+			return;
+		}
+		ArrayList<Vector> data = new ArrayList<>(rows);
+		for (int r = 0; r < rows; r++) {
+			data.add(openData.get(r));
+		}
+		BlockHeader header = new BlockHeader(id, tBeg, tEnd, iBeg, iBeg + open.getL() - 1);
+		header.setSummary(BlockSummary.of(data, open.getL()));
+		result.add(new Block(header, open.getP(), open.getL(), data));
+	}
+
+}
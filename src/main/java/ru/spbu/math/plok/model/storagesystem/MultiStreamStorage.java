@@ -0,0 +1,214 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+
+import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Many vector streams of different lengths, keyed by name. Every stream has its own block
+ * builders and index (a {@link PLokStorage} without rollup tiers) and its own segment files,
+ * while the block cache bounded in bytes, the shard I/O threads with their fair lanes, group commit,
+ * the maintenance thread and the fork-join pool are shared. A stream thus costs its data and
+ * open blocks, not a set of threads and a cache of its own.
+ */
+public class MultiStreamStorage {
+
+	private static final Logger log = LoggerFactory.getLogger(MultiStreamStorage.class);
+	private static final int STREAM_ID_BITS = 40;		// block ids of stream k start at k << STREAM_ID_BITS
+	private static final int BLOCK_OVERHEAD_BYTES = 64;	// block, header and list objects around the rows
+	private final FilePersistentStorage root;
+	private final LoadingCache<Long, Block> cache;
+	private final ScheduledExecutorService maintenance;
+	private final ForkJoinPool forkPool;
+	private final Map<String, PLokStorage> streams = new ConcurrentHashMap<>();
+	private final Map<Long, PLokStorage> owners = new ConcurrentHashMap<>();	// stream number -> storage
+	private final Map<String, Integer> lengths = new ConcurrentHashMap<>();		// vector length of every stream
+	private final long cacheBytes;
+	private final int P;
+	private final int L;
+	private final int period;
+	private final boolean writeAheadLog;
+	private final long retention;
+	private final int compactFactor;
+	private final int maintenanceRate;
+	private final int forkMicros;
+	private final long reorganizeMillis;
+
+	@Inject
+	public MultiStreamStorage(@Named("P") int P, @Named("L") int L, @Named("p") int period,
+			@Named("cacheBytes") long cacheBytes, @Named("wal") boolean writeAheadLog, @Named("retention") long retention,
+			@Named("compactFactor") int compactFactor, @Named("maintenanceRate") int maintenanceRate,
+			@Named("forkMicros") int forkMicros, @Named("reorganizeMillis") long reorganizeMillis,
+			Provider<FilePersistentStorage> persStorage) {
+		this.root = persStorage.get();
+		this.P = P;
+		this.L = L;
+		this.period = period;
+		this.cacheBytes = cacheBytes;
+		this.writeAheadLog = writeAheadLog;
+		this.retention = retention;
+		this.compactFactor = compactFactor;
+		this.maintenanceRate = maintenanceRate;
+		this.forkMicros = forkMicros;
+		this.reorganizeMillis = reorganizeMillis;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(cacheBytes)
+				.weigher((Long id, Block block) -> weight(block))
+				.recordStats()
+				.build(new CacheLoader<Long, Block>() {
+					@Override
+					public Block load(Long key) throws Exception {
+						return owner(key).readAllFromDisk(Collections.singletonList(key)).get(key);
+					}
+
+					@Override
+					public Map<Long, Block> loadAll(Iterable<? extends Long> keys) throws Exception {
+						Map<PLokStorage, List<Long>> perStream = new LinkedHashMap<>();
+						for (Long key : keys){
+							perStream.computeIfAbsent(owner(key), stream -> new ArrayList<Long>()).add(key);
+						}
+						Map<Long, Block> loaded = new HashMap<>();
+						for (Map.Entry<PLokStorage, List<Long>> stream : perStream.entrySet()){
+							loaded.putAll(stream.getKey().readAllFromDisk(stream.getValue()));
+						}
+						return loaded;
+					}
+				});
+		this.maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("maintenance-streams-%d").build());
+		this.forkPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		log.info("Initialized multi-stream storage with a {} byte block cache", cacheBytes);
+	}
+
+	private static int weight(Block block) {
+		return BLOCK_OVERHEAD_BYTES + block.getData().size() * (Long.BYTES + block.getL() * Float.BYTES);
+	}
+
+	private PLokStorage owner(long id) {
+		PLokStorage owner = owners.get(id >>> STREAM_ID_BITS);
+		if (owner == null)
+			throw new IllegalStateException("Block " + id + " belongs to no open stream");
+		return owner;
+	}
+
+	/**
+	 * Storage of the stream, created on first use with vectors of length N.
+	 * @throws IllegalArgumentException if the stream holds vectors of another length
+	 */
+	public PLokStorage stream(String name, int N) throws IOException {
+		PLokStorage stream = streams.get(name);
+		if (stream == null){
+			synchronized (this){
+				stream = streams.get(name);
+				if (stream == null){
+					stream = open(name, N);
+				}
+			}
+		}
+		int length = lengths.get(name);
+		if (length != N)
+			throw new IllegalArgumentException("Stream " + name + " holds vectors of " + length + " values, not " + N);
+		return stream;
+	}
+
+	private PLokStorage open(String name, int N) throws IOException {
+		long number = owners.size() + 1;
+		FilePersistentStorage persister = root.stream(name, N, number << STREAM_ID_BITS);
+		PLokStorage stream = new PLokStorage(N, P, L, 0, period, 1, 0, writeAheadLog, retention, compactFactor,
+				maintenanceRate, forkMicros, reorganizeMillis, 0, 0, () -> new Index(N, P, L, period), () -> persister,
+				cache, maintenance, forkPool);
+		owners.put(number, stream);
+		lengths.put(name, N);
+		streams.put(name, stream);
+		log.debug("Opened stream {} of {} values as number {}", name, N, number);
+		return stream;
+	}
+
+	public void put(String stream, Vector vector) throws IOException {
+		stream(stream, vector.getLength()).put(vector);
+	}
+
+	public List<Block> serve(String stream, Query query) throws Exception {
+		PLokStorage storage = streams.get(stream);
+		return storage == null ? Collections.<Block>emptyList() : storage.serve(query);
+	}
+
+	public Aggregate aggregate(String stream, Query query) throws Exception {
+		PLokStorage storage = streams.get(stream);
+		return storage == null ? new Aggregate() : storage.aggregate(query);
+	}
+
+	public int getStreamCount() {
+		return streams.size();
+	}
+
+	/**
+	 * Bytes of the blocks held by the shared cache.
+	 */
+	public long getCachedBytes() {
+		long bytes = 0;
+		for (Block block : cache.asMap().values()){
+			bytes += weight(block);
+		}
+		return bytes;
+	}
+
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		long blocks = 0;
+		for (PLokStorage stream : streams.values()){
+			blocks += stream.getBlockCount();
+		}
+		statistics.put("streams", streams.size());
+		statistics.put("blocks", blocks);
+		statistics.put("cacheBytes", cacheBytes);
+		statistics.put("cachedBytes", getCachedBytes());
+		statistics.put("cachedBlocks", cache.size());
+		statistics.put("cacheHitRate", cache.stats().hitRate());
+		statistics.put("cacheEvictions", cache.stats().evictionCount());
+		statistics.put("ioTasks", root.getIoTasks());
+		statistics.put("maxIoLanes", root.getMaxIoLanes());
+		return statistics;
+	}
+
+	public void close() throws IOException {
+		for (PLokStorage stream : streams.values()){
+			stream.close();
+		}
+		streams.clear();
+		owners.clear();
+		lengths.clear();
+		maintenance.shutdownNow();
+		try {
+			maintenance.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		forkPool.shutdown();
+		cache.invalidateAll();
+		root.close();
+	}
+
+}
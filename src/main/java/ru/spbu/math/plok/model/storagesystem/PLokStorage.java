@@ -1,13 +1,51 @@
 package ru.spbu.math.plok.model.storagesystem;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.name.Named;
@@ -17,14 +55,88 @@ import ru.spbu.math.plok.model.generator.Vector;
 
 public class PLokStorage implements StorageSystem{
 
+	private static final Logger log = LoggerFactory.getLogger(PLokStorage.class);
+	private static final String ROLLUP_DIRECTORY_FORMAT = "rollup_%d";
+	private static final String WAL_DIRECTORY = "wal";
+	private static final long MAINTENANCE_PERIOD_MILLIS = 200;
+	private static final int CO_ACCESS_PATTERNS = 256;		// block sets remembered by the reorganizer
+	private static final int CO_ACCESS_MAX_BLOCKS = 4096;	// larger reads are scans, not worth placing together
+	private static final int CO_ACCESS_MIN_COUNT = 2;
+	private static final String CACHE_SNAPSHOT_FILE_NAME = "cache.snapshot";
+	private static final int WARM_UP_BATCH = 64;		// blocks read back at once, in disk order
 	private final LoadingCache<Long, Block> cache;
 	private final FilePersistentStorage storage;
 	private Index index;
-	protected long cacheMissCount;
-	protected long requestCount;
+	protected final AtomicLong cacheMissCount = new AtomicLong();
+	protected final AtomicLong requestCount = new AtomicLong();
+	protected final AtomicLong servedBlockCount = new AtomicLong();	// also counted by async completions
+	protected final AtomicLong aggregateCount = new AtomicLong();
+	protected final AtomicLong summaryBlockCount = new AtomicLong();
+	protected final AtomicLong scannedBlockCount = new AtomicLong();
+	protected final AtomicLong rollupRequestCount = new AtomicLong();
+	protected long recoveredVectorCount;
+	protected long recoveredBlockCount;
+	protected long recoveryMillis;
+	protected final AtomicLong memtableBlockCount = new AtomicLong();
+	protected final AtomicLong droppedBlockCount = new AtomicLong();
+	protected final AtomicLong compactionCount = new AtomicLong();
+	protected final AtomicLong compactedBlockCount = new AtomicLong();
+	protected final AtomicLong asyncRequestCount = new AtomicLong();
+	protected final AtomicLong asyncFetchedBlocks = new AtomicLong();
+	protected final AtomicLong maxOutstandingReads = new AtomicLong();
+	protected final AtomicLong cursorCount = new AtomicLong();
+	protected final AtomicLong cursorStepCount = new AtomicLong();
+	protected final AtomicLong cursorBlockCount = new AtomicLong();
+	protected final AtomicLong cursorMaxWindow = new AtomicLong();
+	protected final AtomicLong forkedQueryCount = new AtomicLong();
+	protected final AtomicLong forkTaskCount = new AtomicLong();
+	protected final AtomicLong coverageCount = new AtomicLong();
+	protected final AtomicLong coverageNanos = new AtomicLong();
+	protected final AtomicLong batchCount = new AtomicLong();
+	protected final AtomicLong batchQueryCount = new AtomicLong();
+	protected final AtomicLong batchRequestedBlocks = new AtomicLong();
+	protected final AtomicLong batchFetchedBlocks = new AtomicLong();
 	
 	private List<Block> currentCommonBlocks;
 	private Block currentSpecial;
+	private List<RollupTier> rollups;
+	private ExecutorService rollupExecutor;
+	private WriteAheadLog wal;
+	private long commonStartSeq;		// first WAL record of the open common column
+	private long specialStartSeq;		// first WAL record of the open special block
+	private final ArrayDeque<Checkpoint> checkpoints = new ArrayDeque<>();	// waiting for the group commit of their blocks
+	private final StampedLock publication = new StampedLock();	// index changes together with the memtable they drain
+	private volatile MemtableSnapshot memtable;
+	private final long retention;
+	private final int compactFactor;
+	private ScheduledExecutorService maintenance;
+	private final List<ScheduledFuture<?>> maintenanceTasks = new ArrayList<>();
+	private final Object maintenanceLock = new Object();	// held by a running maintenance task
+	private final boolean shared;		// cache, maintenance and fork pool belong to a MultiStreamStorage
+	private RateLimiter maintenanceLimiter;
+	private volatile long lastTimestamp = Long.MIN_VALUE;
+	private long compactedUpTo = Long.MIN_VALUE;		// end of the last special block merged by the compactor
+	private final List<BlockHeader> retired = new ArrayList<>();	// merged away, kept readable until expired
+	private final long forkNanos;
+	private ForkJoinPool forkPool;
+	private volatile double blockNanos;		// moving average of fetching and processing one block
+	private final long reorganizeMillis;
+	private CoAccessLog coAccess;
+	protected final AtomicLong reorganizeCount = new AtomicLong();
+	protected final AtomicLong reorganizedPatterns = new AtomicLong();
+	protected final AtomicLong reorganizedBlocks = new AtomicLong();
+	protected final AtomicLong runsBeforeReorganize = new AtomicLong();
+	protected final AtomicLong runsAfterReorganize = new AtomicLong();
+	private final int cacheCapacity;
+	private final long cacheSnapshotMillis;
+	private final int warmUpBlocks;
+	private AccessCounts access;
+	private CacheSnapshot cacheSnapshot;
+	protected final AtomicLong cacheSnapshotCount = new AtomicLong();
+	protected final AtomicLong cacheSnapshotBlocks = new AtomicLong();
+	protected final AtomicLong warmedUpBlocks = new AtomicLong();
+	protected final AtomicLong warmUpSkippedBlocks = new AtomicLong();
+	protected final AtomicLong warmUpMillis = new AtomicLong();
 	
 	private int p = -1; 
 	private int N = -1; 
@@ -35,28 +147,398 @@ public class PLokStorage implements StorageSystem{
 	
 	
 	@Inject
-	public PLokStorage(@Named("N")int N,  @Named("P")int P,  @Named("L")int L, @Named("cacheUnitSize") int cacheUnitSize, Provider<Index> indexProvider, Provider<FilePersistentStorage> persStorage) {
+	public PLokStorage(@Named("N")int N,  @Named("P")int P,  @Named("L")int L, @Named("cacheUnitSize") int cacheUnitSize,
+			@Named("p") int period, @Named("rollupFactor") int rollupFactor, @Named("rollupLevels") int rollupLevels,
+			@Named("wal") boolean writeAheadLog, @Named("retention") long retention, @Named("compactFactor") int compactFactor,
+			@Named("maintenanceRate") int maintenanceRate, @Named("forkMicros") int forkMicros,
+			@Named("reorganizeMillis") long reorganizeMillis, @Named("cacheSnapshotMillis") long cacheSnapshotMillis,
+			@Named("warmUpBlocks") int warmUpBlocks, Provider<Index> indexProvider, Provider<FilePersistentStorage> persStorage) throws IOException {
+		this(N, P, L, cacheUnitSize, period, rollupFactor, rollupLevels, writeAheadLog, retention, compactFactor, maintenanceRate,
+				forkMicros, reorganizeMillis, cacheSnapshotMillis, warmUpBlocks, indexProvider, persStorage, null, null, null);
+	}
+
+	/**
+	 * Storage of one stream of a {@link MultiStreamStorage}: the block cache, the maintenance thread and
+	 * the fork-join pool are those of the engine when given, and are left running on close.
+	 */
+	PLokStorage(int N, int P, int L, int cacheUnitSize, int period, int rollupFactor, int rollupLevels,
+			boolean writeAheadLog, long retention, int compactFactor, int maintenanceRate, int forkMicros, long reorganizeMillis,
+			long cacheSnapshotMillis, int warmUpBlocks, Provider<Index> indexProvider, Provider<FilePersistentStorage> persStorage, LoadingCache<Long, Block> sharedCache,
+			ScheduledExecutorService sharedMaintenance, ForkJoinPool sharedForkPool) throws IOException {
 		super();
+		checkArgument(rollupLevels == 0 || rollupFactor > 1, "Rollup factor must be at least 2, got %s", rollupFactor);
+		checkArgument(rollupLevels == 0 || period * Math.pow(rollupFactor, rollupLevels) <= Integer.MAX_VALUE,
+				"Period %s of the coarsest of %s rollup tiers by %s does not fit into an int", period, rollupLevels, rollupFactor);
 		storage = persStorage.get();
-			cache = CacheBuilder.newBuilder()
+		this.forkNanos = forkMicros * 1000L;
+		this.reorganizeMillis = reorganizeMillis;
+		this.cacheCapacity = cacheUnitSize;
+		this.cacheSnapshotMillis = sharedCache != null ? 0 : cacheSnapshotMillis;
+		this.warmUpBlocks = warmUpBlocks;
+		this.retention = retention;
+		this.compactFactor = compactFactor;
+		this.shared = sharedCache != null;
+		this.maintenance = sharedMaintenance;
+		this.forkPool = sharedForkPool;
+			cache = sharedCache != null ? sharedCache : CacheBuilder.newBuilder()
 					.maximumSize(cacheUnitSize)
 					.build(new CacheLoader<Long, Block>() {
 						@Override
 						public Block load(Long key) throws Exception {
-							cacheMissCount++;
+							cacheMissCount.incrementAndGet();
 							return readFromDisk(key);
 						}
+
+						@Override
+						public Map<Long, Block> loadAll(Iterable<? extends Long> keys) throws Exception {
+							return readAllFromDisk(keys);
+						}
 					});
 			index = indexProvider.get();
+			this.p = period;
 			this.P = P;
 			this.L = L;
 			this.N = N;
 			this.L_S = N % L;
-			this.P_S = P * L / L_S;
+			this.P_S = L_S == 0 ? 0 : P * L / L_S;
 			currentCommonBlocks = new ArrayList<>(N / L);
 			refreshCommonColumn();
 			currentSpecial = new Block(P_S, L_S);
+			publishMemtable();
+			initRollups(cacheUnitSize, rollupFactor, rollupLevels, maintenanceRate);
+			if (writeAheadLog){
+				initWal();
+			}else{
+				restoreIndex(Long.MAX_VALUE, Long.MAX_VALUE);
+			}
+			initMaintenance(maintenanceRate);
+		}
+
+	/**
+	 * Retention, compaction, reorganization and the cache warm-up run in the background, their block I/O
+	 * limited to {@code rate} per second.
+	 */
+	private void initMaintenance(int rate) {
+		boolean compaction = compactFactor > 1 && L_S != 0;
+		if (retention <= 0 && !compaction && reorganizeMillis <= 0 && cacheSnapshotMillis <= 0){
+			return;
+		}
+		maintenanceLimiter = RateLimiter.create(rate);
+		if (maintenance == null){
+			maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("maintenance-%d").build());
+		}
+		maintenanceTasks.add(maintenance.scheduleWithFixedDelay(() -> {
+			synchronized (maintenanceLock){
+				try {
+					if (retention > 0)
+						expire();
+					if (compaction)
+						compact();
+				} catch (Exception e) {
+					log.error("Maintenance failed", e);
+				}
+			}
+		}, MAINTENANCE_PERIOD_MILLIS, MAINTENANCE_PERIOD_MILLIS, TimeUnit.MILLISECONDS));
+		if (reorganizeMillis > 0){
+			coAccess = new CoAccessLog(CO_ACCESS_PATTERNS, CO_ACCESS_MAX_BLOCKS);
+			maintenanceTasks.add(maintenance.scheduleWithFixedDelay(() -> {
+				synchronized (maintenanceLock){
+					try {
+						reorganize();
+					} catch (InterruptedIOException e) {
+						log.debug("Reorganization interrupted by close");
+					} catch (Exception e) {
+						log.error("Reorganization failed", e);
+					}
+				}
+			}, reorganizeMillis, reorganizeMillis, TimeUnit.MILLISECONDS));
+		}
+		if (cacheSnapshotMillis > 0){
+			access = new AccessCounts();
+			cacheSnapshot = new CacheSnapshot(Paths.get(storage.getRootPath(), CACHE_SNAPSHOT_FILE_NAME));
+			maintenanceTasks.add(maintenance.schedule(() -> {
+				synchronized (maintenanceLock){
+					try {
+						warmUp();
+					} catch (InterruptedIOException e) {
+						log.debug("Cache warm-up interrupted by close");
+					} catch (Exception e) {
+						log.error("Cache warm-up failed", e);
+					}
+				}
+			}, 0, TimeUnit.MILLISECONDS));
+			maintenanceTasks.add(maintenance.scheduleWithFixedDelay(() -> {
+				try {
+					saveCacheSnapshot();
+				} catch (Exception e) {
+					log.error("Cache snapshot failed", e);
+				}
+			}, cacheSnapshotMillis, cacheSnapshotMillis, TimeUnit.MILLISECONDS));
+		}
+		log.info("Maintenance started: retention {} msec, compaction of {} special blocks, reorganization every {} msec, {} blocks/sec",
+				retention, compactFactor, reorganizeMillis, rate);
+	}
+
+	/**
+	 * Moves the blocks of the recurring reads next to each other, the most frequent read first.
+	 * Only blocks of sealed segments move, and a block placed for one read is left alone by the
+	 * less frequent ones sharing it, so passes do not undo each other.
+	 */
+	void reorganize() throws IOException {
+		Set<Long> placed = new HashSet<>();
+		boolean moved = false;
+		for (Map.Entry<List<Long>, Integer> pattern : coAccess.recurring(CO_ACCESS_MIN_COUNT)){
+			List<Long> move = new ArrayList<>(pattern.getKey().size());
+			for (Long id : pattern.getKey()){
+				if (!placed.contains(id) && storage.isSealed(id))
+					move.add(id);
+			}
+			placed.addAll(pattern.getKey());
+			int before = storage.runs(move);
+			if (move.size() < 2 || before <= Math.min(move.size(), storage.getShardCount())){
+				continue;
+			}
+			maintenanceLimiter.acquire(2 * move.size());
+			storage.relocate(move);
+			runsBeforeReorganize.addAndGet(before);
+			runsAfterReorganize.addAndGet(storage.runs(move));
+			reorganizedBlocks.addAndGet(move.size());
+			reorganizedPatterns.incrementAndGet();
+			moved = true;
+		}
+		if (moved){
+			reorganizeCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Reads the blocks of the last cache snapshot that the index still holds back into the cache,
+	 * the hottest ones up to {@code warmUpBlocks}, in the order of their disk locations.
+	 */
+	void warmUp() throws IOException {
+		long start = System.currentTimeMillis();
+		List<Long> snapshot = cacheSnapshot.load();
+		int budget = warmUpBlocks > 0 ? warmUpBlocks : cacheCapacity;
+		List<Long> indexed = readConsistent(() -> {
+			List<Long> result = new ArrayList<>();
+			for (Long id : snapshot){
+				if (result.size() == budget)
+					break;
+				if (index.getHeader(id) != null)
+					result.add(id);
+			}
+			return result;
+		});
+		indexed.removeAll(cache.asMap().keySet());
+		List<Long> ordered = storage.located(indexed);
+		for (int from = 0; from < ordered.size(); from += WARM_UP_BATCH){
+			List<Long> batch = ordered.subList(from, Math.min(ordered.size(), from + WARM_UP_BATCH));
+			maintenanceLimiter.acquire(batch.size());
+			for (Map.Entry<Long, Block> block : storage.getAll(batch).entrySet()){
+				cache.asMap().putIfAbsent(block.getKey(), block.getValue());
+			}
+			warmedUpBlocks.addAndGet(batch.size());
+		}
+		warmUpSkippedBlocks.set(snapshot.size() - ordered.size());
+		warmUpMillis.set(System.currentTimeMillis() - start);
+		log.info("Warmed up the cache with {} of {} snapshot blocks in {} msec", ordered.size(), snapshot.size(), warmUpMillis.get());
+	}
+
+	/**
+	 * Saves the ids of the cached blocks read most since the last snapshot.
+	 */
+	void saveCacheSnapshot() throws IOException {
+		List<Long> hottest = access.hottest(cache.asMap().keySet(), cacheCapacity);
+		cacheSnapshot.save(hottest);
+		cacheSnapshotCount.incrementAndGet();
+		cacheSnapshotBlocks.set(hottest.size());
+	}
+
+	/**
+	 * Forgets the blocks older than the retention horizon, then deletes the segments holding only such blocks.
+	 */
+	void expire() throws IOException {
+		if (lastTimestamp == Long.MIN_VALUE){
+			return;
+		}
+		long horizon = lastTimestamp - retention;
+		List<Long> dropped;
+		long stamp = publication.writeLock();
+		try {
+			dropped = index.dropBefore(horizon);
+		} finally {
+			publication.unlockWrite(stamp);
+		}
+		synchronized (retired){
+			for (Iterator<BlockHeader> it = retired.iterator(); it.hasNext();){
+				BlockHeader header = it.next();
+				if (header.gettEnd() < horizon){
+					dropped.add(header.getId());
+					it.remove();
+				}
+			}
+		}
+		cache.invalidateAll(dropped);
+		if (coAccess != null)
+			coAccess.forget(dropped);
+		storage.forget(dropped);
+		droppedBlockCount.addAndGet(dropped.size());
+		while (storage.dropSegmentBefore(horizon)){
+			maintenanceLimiter.acquire();
+		}
+	}
+
+	/**
+	 * Merges runs of {@code compactFactor} special blocks into blocks of as many times more rows,
+	 * so a query on the tail indexes reads one block instead of a run of narrow ones.
+	 */
+	void compact() throws IOException {
+		while (true){
+			List<BlockHeader> run = readConsistent(() -> index.getSpecialRun(compactedUpTo, compactFactor));
+			if (run.size() < compactFactor){
+				return;
+			}
+			int span = storage.spanFor(P_S * compactFactor, L_S);
+			maintenanceLimiter.acquire(run.size() + span);
+			Block merged = new Block(P_S * compactFactor, L_S);
+			for (Block source : storage.getAll(ids(run)).values()){
+				for (Vector row : source.getData()){
+					merged.tryAdd(row);
+				}
+			}
+			merged.pack(storage.nextId(storage.spanFor(merged, N - L_S)), N - L_S);
+			storage.add(merged);
+			long stamp = publication.writeLock();
+			try {
+				index.replaceSpecials(run, merged.getHeader());
+			} finally {
+				publication.unlockWrite(stamp);
+			}
+			synchronized (retired){
+				retired.addAll(run);
+			}
+			cache.invalidateAll(ids(run));
+			compactedUpTo = merged.getHeader().gettEnd();
+			compactionCount.incrementAndGet();
+			compactedBlockCount.addAndGet(run.size());
+		}
+	}
+
+	/**
+	 * Opens the WAL and replays the vectors of the column and special block that were open at shutdown.
+	 */
+	private void initWal() throws IOException {
+		long start = System.currentTimeMillis();
+		wal = new WriteAheadLog(Paths.get(storage.getRootPath(), WAL_DIRECTORY).toString(), N, storage.getDurability());
+		storage.attach(wal);
+		List<WriteAheadLog.Record> records = wal.recover();
+		commonStartSeq = wal.getCommonStart();
+		specialStartSeq = wal.getSpecialStart();
+		long commonFrom = Long.MAX_VALUE;
+		long specialFrom = Long.MAX_VALUE;
+		for (WriteAheadLog.Record record : records){
+			if (record.getSeq() >= commonStartSeq)
+				commonFrom = Math.min(commonFrom, record.getVector().getTimestamp());
+			if (record.getSeq() >= specialStartSeq)
+				specialFrom = Math.min(specialFrom, record.getVector().getTimestamp());
+		}
+		restoreIndex(commonFrom, specialFrom);
+		for (WriteAheadLog.Record record : records){
+			if (record.getSeq() >= commonStartSeq)
+				putCommonPart(record.getVector(), record.getSeq());
+			if (record.getSeq() >= specialStartSeq)
+				putSpecialPart(record.getVector(), record.getSeq());
+			lastTimestamp = record.getVector().getTimestamp();
+		}
+		publishMemtable();
+		recoveredVectorCount = records.size();
+		recoveryMillis = System.currentTimeMillis() - start;
+		log.info("Replayed {} WAL records in {} msec", recoveredVectorCount, recoveryMillis);
+	}
+
+	/**
+	 * Indexes the blocks the persister found on open. Only complete columns are taken, the newest copy
+	 * of a column written twice; a special block merged by the compactor wins over the blocks it was
+	 * merged from. Blocks starting at {@code commonFrom} or {@code specialFrom} are rebuilt by the WAL replay.
+	 */
+	private void restoreIndex(long commonFrom, long specialFrom) throws IOException {
+		List<BlockHeader> found = storage.takeRecovered();
+		if (found.isEmpty()){
+			return;
+		}
+		int bands = N / L;
+		TreeMap<Long, BlockHeader[]> columns = new TreeMap<>();
+		List<BlockHeader> specials = new ArrayList<>();
+		List<Long> unused = new ArrayList<>();
+		for (BlockHeader header : found){
+			boolean special = header.getiEnd() - header.getiBeg() + 1 != L;
+			if (header.gettBeg() >= (special ? specialFrom : commonFrom)){
+				unused.add(header.getId());
+			}else if (special){
+				specials.add(header);
+			}else{
+				BlockHeader[] column = columns.computeIfAbsent(header.gettBeg(), t -> new BlockHeader[bands]);
+				int band = (int) (header.getiBeg() / L);
+				if (column[band] != null)
+					unused.add(column[band].getId());		// found in id order, the later copy is the newer one
+				column[band] = header;
+			}
+		}
+		long commonEnd = Long.MIN_VALUE;
+		for (BlockHeader[] column : columns.values()){
+			boolean complete = column[0] != null && column[0].gettBeg() > commonEnd;
+			for (BlockHeader header : column){
+				complete &= header != null && header.gettEnd() == column[0].gettEnd();
+			}
+			for (BlockHeader header : column){
+				if (header == null)
+					continue;
+				if (complete)
+					index.put(header);
+				else
+					unused.add(header.getId());
+			}
+			if (complete)
+				commonEnd = column[0].gettEnd();
+		}
+		specials.sort(Comparator.comparingLong(BlockHeader::gettBeg).thenComparing(Comparator.comparingLong(BlockHeader::gettEnd).reversed()));
+		long specialEnd = Long.MIN_VALUE;
+		for (BlockHeader header : specials){
+			if (header.gettBeg() <= specialEnd){
+				unused.add(header.getId());
+				continue;
+			}
+			index.put(header);
+			specialEnd = header.gettEnd();
+			if (header.getSummary().getCount() > P_S)
+				compactedUpTo = specialEnd;
 		}
+		storage.forget(unused);
+		lastTimestamp = Math.max(commonEnd, specialEnd);
+		recoveredBlockCount = found.size() - unused.size();
+		log.info("Indexed {} of {} blocks found on open", recoveredBlockCount, found.size());
+	}
+
+	/**
+	 * Tiers keep their blocks as long as the base stream, the periods were checked to fit into an int.
+	 */
+	private void initRollups(int cacheUnitSize, int factor, int levels, int maintenanceRate) throws IOException {
+		rollups = new ArrayList<>(levels);
+		long tierPeriod = p;
+		for (int level = 1; level <= levels; level++){
+			tierPeriod *= factor;
+			final int tierIndexPeriod = (int) tierPeriod;
+			final FilePersistentStorage tierStorage = storage.derive(String.format(ROLLUP_DIRECTORY_FORMAT, level));
+			PLokStorage tier = new PLokStorage(N, P, L, cacheUnitSize, tierIndexPeriod, factor, 0,
+					false, retention, 0, maintenanceRate, 0, 0, 0, 0, () -> new Index(N, P, L, tierIndexPeriod), () -> tierStorage);
+			rollups.add(new RollupTier(level, tierPeriod, factor, tier));
+		}
+		if (!rollups.isEmpty()){
+			rollupExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rollup-%d").build());
+			log.info("Initialized {} rollup tiers: {}", levels, rollups);
+		}
+	}
+
 	private void refreshCommonColumn() {
 		currentCommonBlocks = new ArrayList<>();
 		//currentCommonBlocks.clear();
@@ -66,62 +548,977 @@ public class PLokStorage implements StorageSystem{
 		
 	}
 	
+	/**
+	 * Cache misses of this storage, counted as such.
+	 */
+	Map<Long, Block> readAllFromDisk(Iterable<? extends Long> keys) throws IOException {
+		StorageEvents.CacheLoad event = new StorageEvents.CacheLoad();
+		event.begin();
+		Map<Long, Block> loaded = storage.getAll(keys);
+		cacheMissCount.addAndGet(loaded.size());
+		if (event.shouldCommit()){
+			event.requested = Iterables.size(keys);
+			event.loaded = loaded.size();
+			event.commit();
+		}
+		return loaded;
+	}
+	
 	protected Block readFromDisk(long key) throws IOException {
-		return this.storage.get(key);
+		StorageEvents.CacheLoad event = new StorageEvents.CacheLoad();
+		event.begin();
+		Block block = this.storage.get(key);
+		if (event.shouldCommit()){
+			event.requested = 1;
+			event.loaded = block == null ? 0 : 1;
+			event.commit();
+		}
+		return block;
 	}
 
 
 	public void put(Vector vector) {
-		putCommonPart(vector);
-		putSpecialPart(vector);
+		long seq = logAhead(vector);
+		lastTimestamp = vector.getTimestamp();
+		putCommonPart(vector, seq);
+		putSpecialPart(vector, seq);
+		publishMemtable();
+		if (!rollups.isEmpty()){
+			rollupExecutor.execute(() -> rollUp(vector));
+		}
+	}
+
+	private void rollUp(Vector vector) {
+		try {
+			Vector next = vector;
+			for (int i = 0; i < rollups.size() && next != null; i++){
+				next = rollups.get(i).add(next);
+			}
+		} catch (RuntimeException e) {
+			log.error("Rollup failed", e);
+		}
+	}
+
+	/**
+	 * Coarsest tier whose period still fits into the requested resolution.
+	 */
+	private RollupTier rollupFor(long resolution) {
+		RollupTier chosen = null;
+		for (RollupTier tier : rollups){
+			if (tier.getPeriod() <= resolution)
+				chosen = tier;
+		}
+		return chosen;
+	}
+	
+	private long logAhead(Vector vector) {
+		if (wal == null){
+			return -1;
+		}
+		try {
+			long seq = wal.append(vector);
+			storage.logged();
+			advanceCheckpoint(false);
+			return seq;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Start sequence numbers of the WAL once the blocks written before them are forced to the device.
+	 */
+	private static class Checkpoint {
+		private final CompletableFuture<Void> committed;
+		private final long commonStart;
+		private final long specialStart;
+
+		Checkpoint(CompletableFuture<Void> committed, long commonStart, long specialStart) {
+			this.committed = committed;
+			this.commonStart = commonStart;
+			this.specialStart = specialStart;
+		}
+	}
+
+	/**
+	 * Queues a checkpoint at the current start sequence numbers. It is taken only once the blocks just
+	 * written are forced to the device, as a crash before would lose rows the log no longer holds.
+	 */
+	private void checkpoint(CompletableFuture<Void> committed) {
+		if (wal != null){
+			checkpoints.add(new Checkpoint(committed, commonStartSeq, L_S == 0 ? commonStartSeq : specialStartSeq));
+			try {
+				advanceCheckpoint(false);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Checkpoints the WAL at the latest queued checkpoint whose blocks, and those of all the earlier
+	 * ones, are forced, waiting for them if asked to.
+	 */
+	private void advanceCheckpoint(boolean wait) throws IOException {
+		Checkpoint latest = null;
+		while (!checkpoints.isEmpty() && (wait || checkpoints.peek().committed.isDone())){
+			Checkpoint next = checkpoints.poll();
+			try {
+				next.committed.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw new IOException("Blocks before WAL record " + next.commonStart + " are not committed", e.getCause());
+			}
+			latest = next;
+		}
+		if (latest != null){
+			wal.checkpoint(latest.commonStart, latest.specialStart);
+		}
 	}
 	
-	private void putSpecialPart(Vector vector) {
+	/**
+	 * Makes the rows added to the open blocks so far visible to readers. Rows only grow
+	 * between column flushes, so this needs no lock.
+	 */
+	private void publishMemtable() {
+		int commonRows = currentCommonBlocks.isEmpty() ? 0 : currentCommonBlocks.get(0).getData().size();
+		memtable = new MemtableSnapshot(currentCommonBlocks, commonRows, currentSpecial, currentSpecial.getData().size(), L, N - L_S);
+	}
+
+	private void putSpecialPart(Vector vector, long seq) {
 		if (L_S != 0){
 			if (currentSpecial.tryAdd(vector.cutCopy(vector.getLength() - L_S, vector.getLength() - 1))){
-				currentSpecial.pack(System.currentTimeMillis(), vector.getLength() - L_S);
-				index.put(currentSpecial);
-				currentSpecial = new Block(P_S, L_S);
+				currentSpecial.pack(storage.nextId(storage.spanFor(currentSpecial, vector.getLength() - L_S)), vector.getLength() - L_S);
+				CompletableFuture<Void> committed = store(Collections.singletonList(currentSpecial), () -> currentSpecial = new Block(P_S, L_S));
+				specialStartSeq = seq + 1;
+				checkpoint(committed);
 			}
 		}
 	}
 	
-	private void putCommonPart(Vector vector) {
-		boolean commonBlocksFilled = false;
+	private void putCommonPart(Vector vector, long seq) {
+		List<Block> filled = new ArrayList<>();
 		for (int i = 0; i < N / L; i++){
 			int up = L * i;
 			int down = L * (i + 1) - 1;
 			Block block = currentCommonBlocks.get(i);
 			if (block.tryAdd(vector.cutCopy(up, down))){
-				commonBlocksFilled = true;
-				block.pack(System.currentTimeMillis(), up);
+				block.pack(storage.nextId(storage.spanFor(block, up)), up);
+				filled.add(block);
+			}
+		}
+		if (!filled.isEmpty()){
+			CompletableFuture<Void> committed = store(filled, this::refreshCommonColumn);
+			log.debug("Blocks in index: {}", index.getBlockCount());
+			commonStartSeq = seq + 1;
+			checkpoint(committed);
+		}
+	}
+	
+	/**
+	 * Writes the blocks of a column concurrently and makes them visible in the index once all are persisted.
+	 * The open blocks are replaced in the same step, so readers never see the rows twice or not at all.
+	 * @return future completed once the blocks are forced to the device
+	 */
+	private CompletableFuture<Void> store(List<Block> blocks, Runnable reopen) {
+		CompletableFuture<Void> committed;
+		try {
+			committed = storage.addAll(blocks);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		StorageEvents.IndexPut event = new StorageEvents.IndexPut();
+		long stamp = publication.writeLock();
+		event.begin();
+		try {
+			for (Block block : blocks){
 				index.put(block);
-				System.out.println("Blocks in index:" + index.getBlockCount());
 			}
+			reopen.run();
+			publishMemtable();
+		} finally {
+			publication.unlockWrite(stamp);
 		}
-		if (commonBlocksFilled){
-			refreshCommonColumn();
+		if (event.shouldCommit()){
+			event.blocks = blocks.size();
+			event.indexed = index.getBlockCount();
+			event.commit();
 		}
+		return committed;
 	}
 	
+	/**
+	 * Persisted headers and open memtable rows covering the query, taken from one consistent state.
+	 */
+	private static class Lookup {
+		private List<BlockHeader> headers;
+		private List<Block> fresh;
+		private Map<Long, Block> openHolders = new HashMap<>();
+		private ZoneMapFilter filter;
+	}
+
+	private Lookup lookup(Query q) {
+		return readConsistent(() -> {
+			Lookup lookup = new Lookup();
+			MemtableSnapshot snapshot = memtable;
+			lookup.fresh = snapshot.select(q.getTimeStart(), q.getTimeEnd(), q.getIndexStart(), q.getIndexEnd());
+			if (q.getPredicate() != null){
+				List<BlockHeader> openHolders = new ArrayList<>();
+				int column = q.getPredicate().getIndex();
+				for (Block block : snapshot.select(q.getTimeStart(), q.getTimeEnd(), column, column)){
+					openHolders.add(block.getHeader());
+					lookup.openHolders.put(block.getHeader().getId(), block);
+				}
+				lookup.filter = index.getZoneMapFilter(q.getTimeStart(), q.getTimeEnd(), q.getPredicate(), openHolders);
+				List<Block> matching = new ArrayList<>(lookup.fresh.size());
+				for (Block block : lookup.fresh){
+					if (lookup.filter.mayMatch(block.getHeader()))
+						matching.add(block);
+				}
+				lookup.fresh = matching;
+			}
+			lookup.headers = index.getHeaders(q.getTimeStart(), q.getTimeEnd(), q.getIndexStart(), q.getIndexEnd(), lookup.filter);
+			return lookup;
+		});
+	}
+
+	/**
+	 * Runs the read under the read lock: the index and the memtable are plain collections, a
+	 * reader must not walk them while a column flush or a compaction changes them.
+	 */
+	private <T> T readConsistent(Supplier<T> read) {
+		long stamp = publication.readLock();
+		try {
+			return read.get();
+		} finally {
+			publication.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Persisted blocks come through the cache, rows of the blocks still being filled are
+	 * served as partial blocks straight from memory.
+	 */
 	public List<Block> serve(Query q) throws Exception{
-		List<Long> ids = index.get(q.getTimeStart(), q.getTimeEnd(), q.getIndexStart(), q.getIndexEnd());
-		List<Block> blocks = new ArrayList<>(); 
-		for (Long id: ids){
-			blocks.add(cache.get(id));
+		StorageEvents.Serve event = new StorageEvents.Serve();
+		event.begin();
+		requestCount.incrementAndGet();
+		RollupTier tier = q.getResolution() > 0 ? rollupFor(q.getResolution()) : null;
+		List<Block> blocks;
+		int fresh = 0;
+		if (tier != null){
+			rollupRequestCount.incrementAndGet();
+			blocks = tier.serve(q);
+		}else{
+			Lookup lookup = lookup(q);
+			List<Long> ids = ids(lookup.headers);
+			if (coAccess != null)
+				coAccess.record(ids);
+			if (access != null)
+				access.record(ids);
+			blocks = new ArrayList<>(cache.getAll(ids).values());
+			blocks.addAll(lookup.fresh);
+			fresh = lookup.fresh.size();
+			servedBlockCount.addAndGet(blocks.size());
+			memtableBlockCount.addAndGet(fresh);
+		}
+		if (event.shouldCommit()){
+			event.timeStart = q.getTimeStart();
+			event.timeEnd = q.getTimeEnd();
+			event.indexStart = q.getIndexStart();
+			event.indexEnd = q.getIndexEnd();
+			event.resolution = q.getResolution();
+			event.blocks = blocks.size();
+			event.memtableBlocks = fresh;
+			event.commit();
 		}
 		return blocks;		
 	}
+
+	/**
+	 * Cached blocks and memtable rows are handed over at once, the reads of all the missing
+	 * blocks are issued together and every block is cached and handed over as it arrives.
+	 * How many of them are in flight at the same time depends on {@code ioThreads}.
+	 */
+	@Override
+	public CompletableFuture<List<Block>> serveAsync(Query q, Consumer<Block> onBlock) {
+		if (q.getResolution() > 0 && rollupFor(q.getResolution()) != null){
+			return StorageSystem.super.serveAsync(q, onBlock);
+		}
+		requestCount.incrementAndGet();
+		asyncRequestCount.incrementAndGet();
+		Lookup lookup;
+		try {
+			lookup = lookup(q);
+		} catch (RuntimeException e) {
+			CompletableFuture<List<Block>> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		List<Long> ids = ids(lookup.headers);
+		if (coAccess != null)
+			coAccess.record(ids);
+		if (access != null)
+			access.record(ids);
+		Map<Long, Block> present = cache.getAllPresent(ids);
+		List<Long> misses = new ArrayList<>(ids.size() - present.size());
+		for (Long id : ids){
+			if (!present.containsKey(id))
+				misses.add(id);
+		}
+		for (Block block : present.values()){
+			onBlock.accept(block);
+		}
+		for (Block block : lookup.fresh){
+			onBlock.accept(block);
+		}
+		Map<Long, CompletableFuture<Block>> reads = storage.getAllAsync(misses);
+		cacheMissCount.addAndGet(misses.size());
+		asyncFetchedBlocks.addAndGet(misses.size());
+		maxOutstandingReads.accumulateAndGet(misses.size(), Math::max);
+		List<CompletableFuture<Block>> arrivals = new ArrayList<>(reads.size());
+		for (Map.Entry<Long, CompletableFuture<Block>> read : reads.entrySet()){
+			arrivals.add(read.getValue().thenApply(block -> {
+				cache.put(read.getKey(), block);
+				onBlock.accept(block);
+				return block;
+			}));
+		}
+		return CompletableFuture.allOf(arrivals.toArray(new CompletableFuture<?>[arrivals.size()])).thenApply(done -> {
+			List<Block> blocks = new ArrayList<>(ids.size() + lookup.fresh.size());
+			for (Long id : ids){
+				Block block = present.get(id);
+				blocks.add(block != null ? block : reads.get(id).join());
+			}
+			blocks.addAll(lookup.fresh);
+			servedBlockCount.addAndGet(blocks.size());
+			memtableBlockCount.addAndGet(lookup.fresh.size());
+			return blocks;
+		});
+	}
+
+	/**
+	 * Walks the answer column by column in time order, special blocks interleaved, and the open
+	 * memtable rows last. Only the blocks of the current step and of the one read ahead are held,
+	 * missing blocks are read around the cache so a long scan does not evict the hot set.
+	 * The answer is cut at the last vector put before the cursor was opened.
+	 */
+	@Override
+	public BlockCursor cursor(Query q) throws Exception {
+		if (q.getResolution() > 0 && rollupFor(q.getResolution()) != null){
+			return StorageSystem.super.cursor(q);
+		}
+		requestCount.incrementAndGet();
+		cursorCount.incrementAndGet();
+		return new Cursor(q, Math.min(q.getTimeEnd(), lastTimestamp));
+	}
+
+	private class Cursor implements BlockCursor {
+
+		private final long startTime;
+		private final long endTime;
+		private final int i1;
+		private final int i2;
+		private final boolean common;
+		private final boolean special;
+		private final ZoneMapFilter filter;
+		private final ArrayDeque<Block> window = new ArrayDeque<>();
+		private long commonFrom;
+		private long specialFrom;
+		private boolean resolved;
+		private Map<Long, Block> pending;		// blocks of the step read ahead, missing ones still coming
+		private Map<Long, CompletableFuture<Block>> pendingReads;
+		private List<Block> pendingOrder;
+
+		Cursor(Query q, long endTime) {
+			this.startTime = q.getTimeStart();
+			this.endTime = endTime;
+			this.i1 = q.getIndexStart();
+			this.i2 = q.getIndexEnd();
+			this.common = i1 <= N / L * L - 1 && i2 >= 0 && N / L > 0;
+			this.special = L_S > 0 && i2 >= N - L_S && i1 <= N - 1;
+			this.commonFrom = startTime;
+			this.specialFrom = startTime;
+			this.resolved = endTime < startTime;
+			this.filter = q.getPredicate() == null || resolved ? null : readConsistent(() -> {
+				List<BlockHeader> openHolders = new ArrayList<>();
+				int column = q.getPredicate().getIndex();
+				for (Block block : memtable.select(startTime, endTime, column, column)){
+					openHolders.add(block.getHeader());
+				}
+				return index.getZoneMapFilter(startTime, endTime, q.getPredicate(), openHolders);
+			});
+			readAhead();
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (window.isEmpty() && pendingOrder != null){
+				for (Map.Entry<Long, Block> entry : pending.entrySet()){
+					Block block = entry.getValue();
+					if (block == null){
+						try {
+							block = pendingReads.get(entry.getKey()).get();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new IllegalStateException(e);
+						} catch (ExecutionException e) {
+							throw new UncheckedIOException(new IOException("Block " + entry.getKey() + " is not readable", e.getCause()));
+						}
+					}
+					window.add(block);
+				}
+				window.addAll(pendingOrder);
+				pending = null;
+				pendingReads = null;
+				pendingOrder = null;
+				readAhead();
+				cursorMaxWindow.accumulateAndGet(window.size() + (pending == null ? 0 : pending.size()), Math::max);
+			}
+			return !window.isEmpty();
+		}
+
+		@Override
+		public Block next() {
+			if (!hasNext()){
+				throw new NoSuchElementException();
+			}
+			cursorBlockCount.incrementAndGet();
+			servedBlockCount.incrementAndGet();
+			return window.poll();
+		}
+
+		@Override
+		public void close() {
+			window.clear();
+			pending = null;
+			pendingReads = null;
+			pendingOrder = null;
+			resolved = true;
+		}
+
+		/**
+		 * Resolves the next step and issues the reads of its missing blocks.
+		 */
+		private void readAhead() {
+			while (!resolved && pendingOrder == null){
+				Step step = readConsistent(this::resolve);
+				commonFrom = step.commonFrom;
+				specialFrom = step.specialFrom;
+				cursorStepCount.incrementAndGet();
+				List<Long> ids = new ArrayList<>(step.headers.size());
+				for (BlockHeader header : step.headers){
+					if (filter == null || filter.mayMatch(header))
+						ids.add(header.getId());
+				}
+				if (coAccess != null)
+					coAccess.record(ids);
+				Map<Long, Block> present = cache.getAllPresent(ids);
+				List<Long> misses = new ArrayList<>(ids.size() - present.size());
+				pending = new LinkedHashMap<>();
+				for (Long id : ids){
+					pending.put(id, present.get(id));
+					if (!present.containsKey(id))
+						misses.add(id);
+				}
+				pendingReads = storage.getAllAsync(misses);
+				cacheMissCount.addAndGet(misses.size());
+				pendingOrder = new ArrayList<>();
+				for (Block block : step.fresh){
+					if (filter == null || filter.mayMatch(block.getHeader()))
+						pendingOrder.add(block);
+				}
+				memtableBlockCount.addAndGet(pendingOrder.size());
+				if (step.last){
+					resolved = true;
+				}
+				if (pending.isEmpty() && pendingOrder.isEmpty()){
+					pending = null;
+					pendingReads = null;
+					pendingOrder = null;
+				}
+			}
+		}
+
+		private Step resolve() {
+			Step step = new Step();
+			step.commonFrom = commonFrom;
+			step.specialFrom = specialFrom;
+			List<BlockHeader> column = common ? index.getColumn(commonFrom, endTime, i1, i2) : null;
+			BlockHeader nextSpecial = special ? index.getSpecial(specialFrom, endTime) : null;
+			if (column != null && column.isEmpty()){
+				column = null;
+			}
+			if (column == null && nextSpecial == null){
+				step.fresh = memtable.select(startTime, endTime, i1, i2);
+				step.last = true;
+			}else if (nextSpecial == null || (column != null && column.get(0).gettBeg() <= nextSpecial.gettBeg())){
+				step.headers = column;
+				step.commonFrom = column.get(0).gettEnd() + 1;
+			}else{
+				step.headers = Collections.singletonList(nextSpecial);
+				step.specialFrom = nextSpecial.gettEnd() + 1;
+			}
+			return step;
+		}
+	}
+
+	/**
+	 * One column, one special block or the memtable rows, as resolved by a cursor.
+	 */
+	private static class Step {
+		private List<BlockHeader> headers = Collections.emptyList();
+		private List<Block> fresh = Collections.emptyList();
+		private long commonFrom;
+		private long specialFrom;
+		private boolean last;
+	}
+
+	/**
+	 * Looks up every query first and fetches the union of their blocks through the cache at once,
+	 * so a block shared by several queries is read at most once. Each query then gets its own
+	 * projection of the fetched blocks. Queries for a rollup tier are batched by that tier.
+	 */
+	@Override
+	public List<List<Block>> serveBatch(List<Query> queries) throws Exception {
+		List<List<Block>> answers = new ArrayList<>(Collections.<List<Block>>nCopies(queries.size(), null));
+		Map<RollupTier, List<Integer>> tiered = new LinkedHashMap<>();
+		List<Integer> own = new ArrayList<>();
+		for (int k = 0; k < queries.size(); k++){
+			Query q = queries.get(k);
+			RollupTier tier = q.getResolution() > 0 ? rollupFor(q.getResolution()) : null;
+			if (tier == null){
+				own.add(k);
+			}else{
+				tiered.computeIfAbsent(tier, t -> new ArrayList<>()).add(k);
+			}
+		}
+		for (Map.Entry<RollupTier, List<Integer>> entry : tiered.entrySet()){
+			List<Query> tierQueries = new ArrayList<>(entry.getValue().size());
+			for (int k : entry.getValue()){
+				tierQueries.add(queries.get(k));
+			}
+			List<List<Block>> tierAnswers = entry.getKey().serveBatch(tierQueries);
+			for (int j = 0; j < tierAnswers.size(); j++){
+				answers.set(entry.getValue().get(j), tierAnswers.get(j));
+			}
+			requestCount.addAndGet(tierQueries.size());
+			rollupRequestCount.addAndGet(tierQueries.size());
+		}
+		List<Lookup> lookups = new ArrayList<>(own.size());
+		Set<Long> union = new LinkedHashSet<>();
+		long requested = 0;
+		for (int k : own){
+			Lookup lookup = lookup(queries.get(k));
+			lookups.add(lookup);
+			union.addAll(ids(lookup.headers));
+			if (coAccess != null)
+				coAccess.record(ids(lookup.headers));
+			if (access != null)
+				access.record(ids(lookup.headers));
+			requested += lookup.headers.size();
+		}
+		Map<Long, Block> fetched = cache.getAll(union);
+		for (int j = 0; j < own.size(); j++){
+			Lookup lookup = lookups.get(j);
+			List<Block> blocks = new ArrayList<>(lookup.headers.size() + lookup.fresh.size());
+			for (BlockHeader header : lookup.headers){
+				blocks.add(fetched.get(header.getId()));
+			}
+			blocks.addAll(lookup.fresh);
+			servedBlockCount.addAndGet(blocks.size());
+			memtableBlockCount.addAndGet(lookup.fresh.size());
+			answers.set(own.get(j), blocks);
+		}
+		requestCount.addAndGet(own.size());
+		batchCount.incrementAndGet();
+		batchQueryCount.addAndGet(queries.size());
+		batchRequestedBlocks.addAndGet(requested);
+		batchFetchedBlocks.addAndGet(union.size());
+		return answers;
+	}
+
+	private static List<Long> ids(List<BlockHeader> headers) {
+		List<Long> ids = new ArrayList<>(headers.size());
+		for (BlockHeader header : headers){
+			ids.add(header.getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * Blocks lying inside the query rectangle are answered from their summaries,
+	 * only the blocks crossing its border are loaded and scanned. With a value
+	 * predicate a block is answered from its summary only if the zone maps show
+	 * that all rows of its time span match.
+	 */
+	@Override
+	public Aggregate aggregate(Query q) throws Exception {
+		aggregateCount.incrementAndGet();
+		Aggregate result = new Aggregate();
+		Lookup lookup = lookup(q);
+		ZoneMapFilter filter = lookup.filter;
+		List<BlockHeader> border = new ArrayList<>();
+		for (BlockHeader header : lookup.headers){
+			boolean inside = header.gettBeg() >= q.getTimeStart() && header.gettEnd() <= q.getTimeEnd();
+			if (inside && (filter == null || filter.allMatch(header))){
+				int from = (int) (Math.max(q.getIndexStart(), header.getiBeg()) - header.getiBeg());
+				int to   = (int) (Math.min(q.getIndexEnd(), header.getiEnd()) - header.getiBeg());
+				result.merge(header.getSummary(), from, to);
+				summaryBlockCount.incrementAndGet();
+			}else{
+				border.add(header);
+			}
+		}
+		result.merge(fold(border, block -> {
+			Aggregate partial = new Aggregate();
+			partial.scan(block, q, filter == null ? null : matchingRows(filter, block.getHeader(), lookup.openHolders));
+			return partial;
+		}, (left, right) -> {
+			left.merge(right);
+			return left;
+		}, Aggregate::new));
+		scannedBlockCount.addAndGet(border.size());
+		for (Block block : lookup.fresh){
+			result.scan(block, q, filter == null ? null : matchingRows(filter, block.getHeader(), lookup.openHolders));
+			memtableBlockCount.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Counts blocks and rows of the rectangle from the index grid, the block headers and the
+	 * open memtable rows only; value predicates and resolutions are not taken into account.
+	 */
+	@Override
+	public Coverage coverage(Query q) {
+		long start = System.nanoTime();
+		int i1 = Math.max(q.getIndexStart(), 0);
+		int i2 = Math.min(q.getIndexEnd(), N - 1);
+		Coverage result = readConsistent(() -> {
+			Coverage coverage = new Coverage(i2 - i1 + 1);
+			if (i1 <= i2 && q.getTimeStart() <= q.getTimeEnd()){
+				index.cover(coverage, q.getTimeStart(), q.getTimeEnd(), i1, i2, i1);
+				memtable.cover(coverage, q.getTimeStart(), q.getTimeEnd(), i1, i2, i1);
+			}
+			return coverage;
+		});
+		coverageCount.incrementAndGet();
+		coverageNanos.addAndGet(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Maps every block of the answer, memtable rows included, and folds the results in time order.
+	 * Answers with more work than {@code forkMicros} are split along the time axis into fork-join
+	 * tasks that fetch and map their own slice.
+	 */
+	public <R> R process(Query q, Function<Block, R> mapper, BinaryOperator<R> combiner, Supplier<R> identity) throws Exception {
+		requestCount.incrementAndGet();
+		R result = identity.get();
+		RollupTier tier = q.getResolution() > 0 ? rollupFor(q.getResolution()) : null;
+		if (tier != null){
+			rollupRequestCount.incrementAndGet();
+			for (Block block : tier.serve(q)){
+				result = combiner.apply(result, mapper.apply(block));
+			}
+			return result;
+		}
+		Lookup lookup = lookup(q);
+		if (coAccess != null)
+			coAccess.record(ids(lookup.headers));
+		List<BlockHeader> ordered = new ArrayList<>(lookup.headers);
+		ordered.sort(Comparator.comparingLong(BlockHeader::gettBeg));
+		result = combiner.apply(result, fold(ordered, mapper, combiner, identity));
+		for (Block block : lookup.fresh){
+			result = combiner.apply(result, mapper.apply(block));
+		}
+		servedBlockCount.addAndGet(ordered.size() + lookup.fresh.size());
+		memtableBlockCount.addAndGet(lookup.fresh.size());
+		return result;
+	}
+
+	/**
+	 * Fetches and maps the blocks in place when that is estimated to be cheap, otherwise in
+	 * slices sized by the per block cost measured so far, at least four slices per worker.
+	 * Slices are cut between columns only, so the bands of a column are read together.
+	 */
+	private <R> R fold(List<BlockHeader> headers, Function<Block, R> mapper, BinaryOperator<R> combiner, Supplier<R> identity) throws Exception {
+		double perBlock = blockNanos;
+		int n = headers.size();
+		if (forkNanos <= 0 || perBlock == 0 || n * perBlock <= forkNanos){
+			return foldSlice(headers, mapper, combiner, identity);
+		}
+		int workers = forkPool().getParallelism();
+		int leaf = (int) Math.max(Math.ceil(forkNanos / perBlock), Math.ceil((double) n / (4 * workers)));
+		if (n <= leaf){
+			return foldSlice(headers, mapper, combiner, identity);
+		}
+		forkedQueryCount.incrementAndGet();
+		try {
+			return forkPool().invoke(new Slice<>(columns(headers), n, leaf, mapper, combiner, identity));
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+
+	private <R> R foldSlice(List<BlockHeader> headers, Function<Block, R> mapper, BinaryOperator<R> combiner, Supplier<R> identity) throws ExecutionException {
+		long start = System.nanoTime();
+		List<Long> ids = ids(headers);
+		if (access != null)
+			access.record(ids);
+		Map<Long, Block> loaded = cache.getAll(ids);
+		R result = identity.get();
+		for (BlockHeader header : headers){
+			result = combiner.apply(result, mapper.apply(loaded.get(header.getId())));
+		}
+		if (!headers.isEmpty()){
+			double measured = (double) (System.nanoTime() - start) / headers.size();
+			blockNanos = blockNanos == 0 ? measured : 0.8 * blockNanos + 0.2 * measured;
+		}
+		return result;
+	}
+
+	/**
+	 * Headers in time order grouped by the column they belong to, the bands of a column being
+	 * the blocks {@link Index#getColumn} returns for it; a special block is a group of its own.
+	 */
+	private List<List<BlockHeader>> columns(List<BlockHeader> headers) {
+		List<BlockHeader> ordered = new ArrayList<>(headers);
+		ordered.sort(Comparator.comparingLong(BlockHeader::gettBeg).thenComparingLong(BlockHeader::getiBeg));
+		int commonEnd = N / L * L;
+		List<List<BlockHeader>> columns = new ArrayList<>();
+		List<BlockHeader> column = null;
+		BlockHeader first = null;
+		for (BlockHeader header : ordered){
+			boolean sameColumn = first != null && first.getiEnd() < commonEnd && header.getiEnd() < commonEnd
+					&& first.gettBeg() == header.gettBeg() && first.gettEnd() == header.gettEnd();
+			if (!sameColumn){
+				column = new ArrayList<>();
+				columns.add(column);
+				first = header;
+			}
+			column.add(header);
+		}
+		return columns;
+	}
+
+	private synchronized ForkJoinPool forkPool() {
+		if (forkPool == null){
+			forkPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		}
+		return forkPool;
+	}
+
+	/**
+	 * Halves its time ordered columns until a slice is small enough, the earlier half folded on the left.
+	 */
+	private class Slice<R> extends RecursiveTask<R> {
+
+		private static final long serialVersionUID = 1L;
+		private final List<List<BlockHeader>> columns;
+		private final int blocks;
+		private final int leaf;
+		private final Function<Block, R> mapper;
+		private final BinaryOperator<R> combiner;
+		private final Supplier<R> identity;
+
+		Slice(List<List<BlockHeader>> columns, int blocks, int leaf, Function<Block, R> mapper, BinaryOperator<R> combiner, Supplier<R> identity) {
+			this.columns = columns;
+			this.blocks = blocks;
+			this.leaf = leaf;
+			this.mapper = mapper;
+			this.combiner = combiner;
+			this.identity = identity;
+		}
+
+		@Override
+		protected R compute() {
+			if (blocks <= leaf || columns.size() == 1){
+				synchronized (PLokStorage.this) {
+					forkTaskCount.incrementAndGet();
+				}
+				List<BlockHeader> headers = new ArrayList<>(blocks);
+				for (List<BlockHeader> column : columns){
+					headers.addAll(column);
+				}
+				try {
+					return foldSlice(headers, mapper, combiner, identity);
+				} catch (ExecutionException e) {
+					throw new CompletionException(e.getCause());
+				}
+			}
+			int mid = 0;
+			int earlierBlocks = 0;
+			while (mid < columns.size() - 1 && earlierBlocks + columns.get(mid).size() <= blocks / 2){
+				earlierBlocks += columns.get(mid++).size();
+			}
+			if (mid == 0){
+				earlierBlocks = columns.get(mid++).size();
+			}
+			Slice<R> earlier = new Slice<>(columns.subList(0, mid), earlierBlocks, leaf, mapper, combiner, identity);
+			earlier.fork();
+			R later = new Slice<>(columns.subList(mid, columns.size()), blocks - earlierBlocks, leaf, mapper, combiner, identity).compute();
+			return combiner.apply(earlier.join(), later);
+		}
+	}
+
+	private Set<Long> matchingRows(ZoneMapFilter filter, BlockHeader entry, Map<Long, Block> openHolders) {
+		Set<Long> rows = new HashSet<>();
+		for (BlockHeader holder : filter.overlapping(entry)){
+			int column = filter.column(holder);
+			Block block = holder.getId() < 0 ? openHolders.get(holder.getId()) : cache.getUnchecked(holder.getId());
+			for (Vector row : block.getData()){
+				if (filter.getPredicate().test(row.getVector()[column]))
+					rows.add(row.getTimestamp());
+			}
+		}
+		return rows;
+	}
 	
 	@Override
 	public HashMap<String, Object> getStatistics() {
-		// TODO Auto-generated method stub
-		return null;
+		HashMap<String, Object> statistics = new HashMap<>();
+		statistics.put("blockCount", index.getBlockCount());
+		statistics.put("requestCount", requestCount.get());
+		statistics.put("servedBlockCount", servedBlockCount.get());
+		statistics.put("cacheMissCount", cacheMissCount.get());
+		statistics.put("aggregateCount", aggregateCount.get());
+		statistics.put("summaryBlockCount", summaryBlockCount.get());
+		statistics.put("scannedBlockCount", scannedBlockCount.get());
+		statistics.put("memtableBlockCount", memtableBlockCount.get());
+		statistics.put("droppedBlockCount", droppedBlockCount.get());
+		statistics.put("droppedSegments", storage.getDroppedSegments());
+		statistics.put("segmentCount", storage.getSegmentCount());
+		statistics.put("compactionCount", compactionCount.get());
+		statistics.put("compactedBlockCount", compactedBlockCount.get());
+		statistics.put("asyncRequestCount", asyncRequestCount.get());
+		statistics.put("asyncFetchedBlocks", asyncFetchedBlocks.get());
+		statistics.put("maxOutstandingReads", maxOutstandingReads.get());
+		statistics.put("cursorCount", cursorCount.get());
+		statistics.put("cursorStepCount", cursorStepCount.get());
+		statistics.put("cursorBlockCount", cursorBlockCount.get());
+		statistics.put("cursorMaxWindow", cursorMaxWindow.get());
+		statistics.put("forkedQueryCount", forkedQueryCount.get());
+		statistics.put("forkTaskCount", forkTaskCount.get());
+		statistics.put("blockNanosEstimate", blockNanos);
+		statistics.put("coverageCount", coverageCount.get());
+		statistics.put("coverageMeanMicros", coverageCount.get() == 0 ? 0.0 : coverageNanos.get() / 1000.0 / coverageCount.get());
+		statistics.put("batchCount", batchCount.get());
+		statistics.put("batchQueryCount", batchQueryCount.get());
+		statistics.put("batchRequestedBlocks", batchRequestedBlocks.get());
+		statistics.put("batchFetchedBlocks", batchFetchedBlocks.get());
+		statistics.put("batchDedupSavedBlocks", batchRequestedBlocks.get() - batchFetchedBlocks.get());
+		statistics.put("batchDedupRatio", batchRequestedBlocks.get() == 0 ? 0.0 : 1 - (double) batchFetchedBlocks.get() / batchRequestedBlocks.get());
+		statistics.put("zoneMapCheckedCount", index.getZoneMapCheckedCount());
+		statistics.put("zoneMapSkippedCount", index.getZoneMapSkippedCount());
+		statistics.put("zoneMapSkipRate", index.getZoneMapCheckedCount() == 0 ? 0.0 : (double) index.getZoneMapSkippedCount() / index.getZoneMapCheckedCount());
+		statistics.put("rollupRequestCount", rollupRequestCount.get());
+		for (RollupTier tier : rollups){
+			statistics.put(String.format(ROLLUP_DIRECTORY_FORMAT, tier.getLevel()) + ".blockCount", tier.getBlockCount());
+		}
+		statistics.put("blocksRead", storage.getBlocksRead());
+		statistics.put("pagesRead", storage.getPagesRead());
+		long queryCount = requestCount.get() + aggregateCount.get();
+		statistics.put("blocksReadPerQuery", queryCount == 0 ? 0.0 : (double) storage.getBlocksRead() / queryCount);
+		statistics.put("pagesReadPerQuery", queryCount == 0 ? 0.0 : (double) storage.getPagesRead() / queryCount);
+		statistics.put("bytesReadPerQuery", queryCount == 0 ? 0.0 : (double) storage.getBytesRead() / queryCount);
+		statistics.put("simulatedReadMicros", storage.getSimulatedReadMicros());
+		statistics.put("simulatedWriteMicros", storage.getSimulatedWriteMicros());
+		statistics.put("readSeeks", storage.getReadSeeks());
+		statistics.put("placement", storage.getPlacement());
+		statistics.put("quantize", storage.getQuantize());
+		statistics.put("halfBlocks", storage.getHalfBlocks());
+		statistics.put("byteBlocks", storage.getByteBlocks());
+		statistics.put("refinedBlocks", storage.getRefinedBlocks());
+		statistics.put("readRunLength", storage.getReadRunLength());
+		statistics.put("reorganizeCount", reorganizeCount.get());
+		statistics.put("reorganizedPatterns", reorganizedPatterns.get());
+		statistics.put("reorganizedBlocks", reorganizedBlocks.get());
+		statistics.put("relocatedBlocks", storage.getRelocatedBlocks());
+		statistics.put("coAccessPatterns", coAccess == null ? 0 : coAccess.size());
+		statistics.put("runLengthBeforeReorganize", runsBeforeReorganize.get() == 0 ? 0.0 : (double) reorganizedBlocks.get() / runsBeforeReorganize.get());
+		statistics.put("runLengthAfterReorganize", runsAfterReorganize.get() == 0 ? 0.0 : (double) reorganizedBlocks.get() / runsAfterReorganize.get());
+		statistics.put("cacheSnapshotCount", cacheSnapshotCount.get());
+		statistics.put("cacheSnapshotBlocks", cacheSnapshotBlocks.get());
+		statistics.put("recoveredBlockCount", recoveredBlockCount);
+		statistics.put("warmedUpBlocks", warmedUpBlocks.get());
+		statistics.put("warmUpSkippedBlocks", warmUpSkippedBlocks.get());
+		statistics.put("warmUpMillis", warmUpMillis.get());
+		statistics.put("readRuns", storage.getReadRuns());
+		statistics.put("readRunsPerQuery", queryCount == 0 ? 0.0 : (double) storage.getReadRuns() / queryCount);
+		statistics.put("writeSeeks", storage.getWriteSeeks());
+		statistics.put("simulatedReadMicrosPerQuery", queryCount == 0 ? 0.0 : (double) storage.getSimulatedReadMicros() / queryCount);
+		statistics.put("readSeeksPerQuery", queryCount == 0 ? 0.0 : (double) storage.getReadSeeks() / queryCount);
+		statistics.put("durability", storage.getDurability());
+		statistics.put("fsyncCount", storage.getFsyncCount());
+		statistics.put("fsyncMeanMicros", storage.getFsyncMeanMicros());
+		statistics.put("fsyncMaxMicros", storage.getFsyncMaxMicros());
+		statistics.put("fsyncMeanBatch", storage.getFsyncMeanBatch());
+		statistics.put("fsyncMaxBatch", storage.getFsyncMaxBatch());
+		statistics.put("corruptBlocks", storage.getCorruptBlocks());
+		if (wal != null){
+			statistics.put("walRecords", wal.getAppendedRecords());
+			statistics.put("walBytes", wal.getAppendedBytes());
+			statistics.put("walSegments", wal.getSegmentCount());
+			statistics.put("walForceCount", wal.getForceCount());
+			statistics.put("walCheckpointSeq", Math.min(wal.getCommonStart(), wal.getSpecialStart()));
+			statistics.put("recoveredVectorCount", recoveredVectorCount);
+			statistics.put("recoveryMillis", recoveryMillis);
+		}
+		statistics.put("blockSize", storage.getBlockSize());
+		statistics.put("slotSize", storage.getSlotSize());
+		for (int shard = 0; shard < storage.getShardCount(); shard++){
+			statistics.put("shard_" + shard + ".blocksRead", storage.getShardBlocksRead(shard));
+		}
+		statistics.put("bytesRead", storage.getBytesRead());
+		statistics.put("blocksWritten", storage.getBlocksWritten());
+		return statistics;
 	}
 	@Override
 	public int getBlockCount() {
 		return index.getBlockCount();
 	}
 	
+	@Override
+	public void close() throws IOException {
+		try {
+			if (shared){
+				for (ScheduledFuture<?> task : maintenanceTasks){
+					task.cancel(false);
+				}
+				synchronized (maintenanceLock){
+					maintenanceTasks.clear();
+				}
+			}else if (maintenance != null){
+				maintenance.shutdownNow();
+				maintenance.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			if (forkPool != null && !shared){
+				forkPool.shutdown();
+			}
+			if (rollupExecutor != null){
+				rollupExecutor.shutdown();
+				rollupExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (access != null){
+			saveCacheSnapshot();
+		}
+		for (RollupTier tier : rollups){
+			tier.close();
+		}
+		storage.close();		// group commits what is left
+		if (wal != null){
+			storage.detach(wal);
+			advanceCheckpoint(true);
+			wal.close();
+		}
+	}
+	
 
 }
@@ -0,0 +1,158 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.List;
+
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Lossy value encodings of the block codec: IEEE half precision floats, and bytes scaled
+ * between the minimum and maximum of a column of the block.
+ */
+final class Quantizer {
+
+	static final int FLOAT = 0;
+	static final int HALF = 1;
+	static final int BYTE = 2;
+	private static final int BYTE_LEVELS = 255;
+
+	private Quantizer() {
+	}
+
+	/**
+	 * Bytes of the rows of a block, the per column minimum and step of the byte encoding included.
+	 */
+	static int rowsSize(int rows, int width, int encoding) {
+		switch (encoding) {
+		case HALF:
+			return rows * (Long.BYTES + width * Short.BYTES);
+		case BYTE:
+			return width * 2 * Float.BYTES + rows * (Long.BYTES + width);
+		default:
+			return rows * (Long.BYTES + width * Float.BYTES);
+		}
+	}
+
+	/**
+	 * The coarsest encoding not above {@code encoding} whose error stays within the bound, 0 meaning
+	 * no bound. Values out of the range of an encoding always rule it out.
+	 */
+	static int choose(List<Vector> rows, int width, int encoding, float bound) {
+		if (encoding == BYTE && within(byteError(rows, width), bound))
+			return BYTE;
+		if (encoding >= HALF && within(halfError(rows), bound))
+			return HALF;
+		return FLOAT;
+	}
+
+	private static boolean within(double error, float bound) {
+		return !Double.isInfinite(error) && (bound <= 0 || error <= bound);
+	}
+
+	static double halfError(List<Vector> rows) {
+		double error = 0;
+		for (Vector row : rows) {
+			for (float value : row.getVector()) {
+				error = Math.max(error, error(value, fromHalf(toHalf(value))));
+			}
+		}
+		return error;
+	}
+
+	static double byteError(List<Vector> rows, int width) {
+		double error = 0;
+		for (int j = 0; j < width; j++) {
+			float min = min(rows, j);
+			float step = step(min, max(rows, j));
+			if (Float.isNaN(step) || Float.isInfinite(step))
+				return Double.POSITIVE_INFINITY;
+			for (Vector row : rows) {
+				float value = row.getVector()[j];
+				error = Math.max(error, error(value, fromByte(toByte(value, min, step), min, step)));
+			}
+		}
+		return error;
+	}
+
+	private static double error(float value, float decoded) {
+		if (Float.compare(value, decoded) == 0)
+			return 0;
+		return Math.abs((double) value - decoded);
+	}
+
+	static float min(List<Vector> rows, int column) {
+		float min = Float.POSITIVE_INFINITY;
+		for (Vector row : rows) {
+			min = Math.min(min, row.getVector()[column]);
+		}
+		return min;
+	}
+
+	static float max(List<Vector> rows, int column) {
+		float max = Float.NEGATIVE_INFINITY;
+		for (Vector row : rows) {
+			max = Math.max(max, row.getVector()[column]);
+		}
+		return max;
+	}
+
+	static float step(float min, float max) {
+		return (max - min) / BYTE_LEVELS;
+	}
+
+	static byte toByte(float value, float min, float step) {
+		if (step == 0)
+			return 0;
+		return (byte) Math.max(0, Math.min(BYTE_LEVELS, Math.round((value - min) / step)));
+	}
+
+	static float fromByte(byte level, float min, float step) {
+		return min + (level & 0xff) * step;
+	}
+
+	/**
+	 * Nearest half precision value, ties to even; out of range values become infinities.
+	 */
+	static short toHalf(float value) {
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int rawExponent = (bits >>> 23) & 0xff;
+		int mantissa = bits & 0x7fffff;
+		if (rawExponent == 0xff)
+			return (short) (sign | 0x7c00 | (mantissa == 0 ? 0 : 0x200));
+		int exponent = rawExponent - 127 + 15;
+		if (exponent >= 0x1f)
+			return (short) (sign | 0x7c00);
+		if (exponent <= 0) {
+			if (exponent < -10)
+				return (short) sign;
+			mantissa |= 0x800000;
+			int shift = 14 - exponent;
+			int half = mantissa >> shift;
+			int rest = mantissa & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if (rest > halfway || rest == halfway && (half & 1) != 0)
+				half++;
+			return (short) (sign | half);
+		}
+		int half = sign | exponent << 10 | mantissa >> 13;
+		int rest = mantissa & 0x1fff;
+		if (rest > 0x1000 || rest == 0x1000 && (half & 1) != 0)
+			half++;		// a carry into the exponent is the right rounding, up to infinity
+		return (short) half;
+	}
+
+	static float fromHalf(short half) {
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		if (exponent == 0x1f)
+			return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+		if (exponent == 0) {
+			float value = mantissa / 16777216f;		// subnormal, mantissa * 2^-24
+			return sign == 0 ? value : -value;
+		}
+		return Float.intBitsToFloat(sign | (exponent - 15 + 127) << 23 | mantissa << 13);
+	}
+
+}
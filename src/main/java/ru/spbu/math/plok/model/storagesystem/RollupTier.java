@@ -0,0 +1,83 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.IOException;
+import java.util.List;
+
+import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * One level of the rollup pyramid. Averages every {@code factor} incoming vectors
+ * into one and keeps the averaged vectors as its own block stream with its own index.
+ */
+class RollupTier {
+
+	private final int level;
+	private final long period;
+	private final int factor;
+	private final PLokStorage storage;
+	private float[] sum;
+	private long firstTimestamp;
+	private int count;
+
+	RollupTier(int level, long period, int factor, PLokStorage storage) {
+		this.level = level;
+		this.period = period;
+		this.factor = factor;
+		this.storage = storage;
+	}
+
+	/**
+	 * @return averaged vector if this one completed it, null otherwise
+	 */
+	synchronized Vector add(Vector vector) {
+		float[] values = vector.getVector();
+		if (count == 0) {
+			sum = new float[values.length];
+			firstTimestamp = vector.getTimestamp();
+		}
+		for (int j = 0; j < values.length; j++) {
+			sum[j] += values[j];
+		}
+		if (++count < factor) {
+			return null;
+		}
+		for (int j = 0; j < sum.length; j++) {
+			sum[j] /= factor;
+		}
+		Vector rolled = new Vector(firstTimestamp, sum);
+		count = 0;
+		storage.put(rolled);
+		return rolled;
+	}
+
+	synchronized List<Block> serve(Query q) throws Exception {
+		return storage.serve(q);
+	}
+
+	synchronized List<List<Block>> serveBatch(List<Query> queries) throws Exception {
+		return storage.serveBatch(queries);
+	}
+
+	synchronized int getBlockCount() {
+		return storage.getBlockCount();
+	}
+
+	void close() throws IOException {
+		storage.close();
+	}
+
+	int getLevel() {
+		return level;
+	}
+
+	long getPeriod() {
+		return period;
+	}
+
+	@Override
+	public String toString() {
+		return "RollupTier [level=" + level + ", period=" + period + ", factor=" + factor + "]";
+	}
+
+}
@@ -0,0 +1,215 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+
+import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.client.ValuePredicate;
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Baseline with the row layout: every vector is a record of its own (a block of P=1, L=N)
+ * appended in time order. A sparse index keeps the timestamp of every {@code rowIndexEvery}-th
+ * record, so a query reads from the last indexed record not after its start up to the first
+ * indexed record after its end. A record may take more than one slot, so the ids written are
+ * kept rather than derived, and both are rebuilt from the records found on open.
+ */
+public class RowLogStorage implements StorageSystem{
+
+	private static final Logger log = LoggerFactory.getLogger(RowLogStorage.class);
+	private static final String ROWLOG_DIRECTORY = "rowlog";
+	private final LoadingCache<Long, Block> cache;
+	private final FilePersistentStorage storage;
+	private final int N;
+	private final int every;
+	private final List<Long> sparseTimes;		// timestamp of every every-th record
+	private final List<Long> ids;				// id of every record, in the order written
+	protected long recordCount;
+	protected long cacheMissCount;
+	protected long requestCount;
+	protected long aggregateCount;
+	protected long servedBlockCount;
+	protected long overreadCount;
+
+	@Inject
+	public RowLogStorage(@Named("N") int N, @Named("cacheUnitSize") int cacheUnitSize, @Named("rowIndexEvery") int every,
+			@Named("storagePath") String storagePath, @Named("shardPaths") String shardPaths,
+			@Named("shards") int shards, @Named("stripe") String stripe,
+			@Named("layout") String layout, @Named("pageSize") int pageSize,
+			@Named("durability") String durability, @Named("commitMillis") long commitMillis,
+			@Named("commitBlocks") int commitBlocks, @Named("commitWait") boolean commitWait,
+			@Named("segmentSlots") int segmentSlots, @Named("device") String device, Provider<DeviceModel> models,
+			@Named("ioThreads") int ioThreads, @Named("placement") String placement, @Named("extentSlots") int extentSlots,
+			@Named("quantize") String quantize, @Named("quantizeBands") String quantizeBands, @Named("quantizeError") float quantizeError)
+			throws IOException {
+		this.N = N;
+		this.every = every;
+		this.storage = new FilePersistentStorage(Paths.get(storagePath, ROWLOG_DIRECTORY).toString(),
+				FilePersistentStorage.derivedShardPaths(shardPaths, ROWLOG_DIRECTORY), shards, stripe, layout, pageSize,
+				durability, commitMillis, commitBlocks, commitWait, segmentSlots, device, models, ioThreads, placement, extentSlots,
+				quantize, quantizeBands, quantizeError, N, 1, N);
+		this.sparseTimes = new ArrayList<>();
+		this.ids = new ArrayList<>();
+		for (BlockHeader header : storage.takeRecovered()) {
+			index(header.getId(), header.gettBeg());
+		}
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(cacheUnitSize)
+				.build(new CacheLoader<Long, Block>() {
+					@Override
+					public Block load(Long key) throws Exception {
+						cacheMissCount++;
+						return storage.get(key);
+					}
+
+					@Override
+					public Map<Long, Block> loadAll(Iterable<? extends Long> keys) throws Exception {
+						Map<Long, Block> loaded = storage.getAll(keys);
+						cacheMissCount += loaded.size();
+						return loaded;
+					}
+				});
+		log.info("Row log of {} wide records, every {}th indexed, {} records found", N, every, recordCount);
+	}
+
+	@Override
+	public synchronized void put(Vector vector) {
+		Block record = new Block(1, N);
+		record.tryAdd(vector);
+		long id = storage.nextId(storage.spanFor(record, 0));
+		record.pack(id, 0);
+		try {
+			storage.add(record);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		index(id, vector.getTimestamp());
+	}
+
+	private void index(long id, long timestamp) {
+		if (recordCount % every == 0){
+			sparseTimes.add(timestamp);
+		}
+		ids.add(id);
+		recordCount++;
+	}
+
+	/**
+	 * Ids of the records that may lie in [startTime, endTime] according to the sparse index.
+	 */
+	private synchronized List<Long> candidates(long startTime, long endTime) {
+		if (sparseTimes.isEmpty()){
+			return new ArrayList<>();
+		}
+		int from = Math.max(lastNotGreater(sparseTimes, startTime), 0);
+		int to = lastNotGreater(sparseTimes, endTime) + 1;
+		return new ArrayList<>(ids.subList(from * every, (int) Math.min((long) to * every, ids.size())));
+	}
+
+	private static int lastNotGreater(List<Long> sorted, long key) {
+		int lo = 0;
+		int hi = sorted.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted.get(mid) <= key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo - 1;
+	}
+
+	/**
+	 * Records inside the query time range. The row log keeps no downsampled copies,
+	 * so the resolution of the query is ignored.
+	 */
+	@Override
+	public List<Block> serve(Query q) throws Exception {
+		requestCount++;
+		List<Block> blocks = new ArrayList<>();
+		for (Block record : cache.getAll(candidates(q.getTimeStart(), q.getTimeEnd())).values()){
+			Vector row = record.getData().get(0);
+			if (row.getTimestamp() < q.getTimeStart() || row.getTimestamp() > q.getTimeEnd()){
+				overreadCount++;
+			}else if (q.getPredicate() == null || q.getPredicate().test(row.getVector()[q.getPredicate().getIndex()])){
+				blocks.add(record);
+			}
+		}
+		servedBlockCount += blocks.size();
+		return blocks;
+	}
+
+	@Override
+	public Aggregate aggregate(Query q) throws Exception {
+		aggregateCount++;
+		Aggregate result = new Aggregate();
+		ValuePredicate predicate = q.getPredicate();
+		for (Block record : cache.getAll(candidates(q.getTimeStart(), q.getTimeEnd())).values()){
+			Vector row = record.getData().get(0);
+			Set<Long> rows = null;
+			if (predicate != null){
+				rows = new HashSet<>();
+				if (predicate.test(row.getVector()[predicate.getIndex()]))
+					rows.add(row.getTimestamp());
+			}
+			result.scan(record, q, rows);
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized HashMap<String, Object> getStatistics() {
+		HashMap<String, Object> statistics = new HashMap<>();
+		statistics.put("blockCount", recordCount);
+		statistics.put("sparseIndexSize", sparseTimes.size());
+		statistics.put("requestCount", requestCount);
+		statistics.put("aggregateCount", aggregateCount);
+		statistics.put("servedBlockCount", servedBlockCount);
+		statistics.put("overreadCount", overreadCount);
+		statistics.put("cacheMissCount", cacheMissCount);
+		statistics.put("blocksRead", storage.getBlocksRead());
+		statistics.put("bytesRead", storage.getBytesRead());
+		statistics.put("pagesRead", storage.getPagesRead());
+		long queryCount = requestCount + aggregateCount;
+		statistics.put("blocksReadPerQuery", queryCount == 0 ? 0.0 : (double) storage.getBlocksRead() / queryCount);
+		statistics.put("bytesReadPerQuery", queryCount == 0 ? 0.0 : (double) storage.getBytesRead() / queryCount);
+		statistics.put("pagesReadPerQuery", queryCount == 0 ? 0.0 : (double) storage.getPagesRead() / queryCount);
+		statistics.put("simulatedReadMicros", storage.getSimulatedReadMicros());
+		statistics.put("simulatedWriteMicros", storage.getSimulatedWriteMicros());
+		statistics.put("readSeeks", storage.getReadSeeks());
+		statistics.put("writeSeeks", storage.getWriteSeeks());
+		statistics.put("simulatedReadMicrosPerQuery", queryCount == 0 ? 0.0 : (double) storage.getSimulatedReadMicros() / queryCount);
+		statistics.put("readSeeksPerQuery", queryCount == 0 ? 0.0 : (double) storage.getReadSeeks() / queryCount);
+		statistics.put("blockSize", storage.getBlockSize());
+		statistics.put("blocksWritten", storage.getBlocksWritten());
+		return statistics;
+	}
+
+	@Override
+	public synchronized int getBlockCount() {
+		return (int) recordCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		storage.close();
+	}
+
+}
@@ -1,36 +1,282 @@
 package ru.spbu.math.plok.model.storagesystem;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
 import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.client.ValuePredicate;
 import ru.spbu.math.plok.model.generator.Vector;
 
+/**
+ * Conventional baseline: every value is a row of an embedded H2 table clustered by (timestamp, index).
+ * H2 stores the rows in the order of a single BIGINT primary key only, so the key is the vector
+ * number times N plus the index, the vector number being the timestamp followed by the count of
+ * earlier vectors of the same timestamp. Vectors sharing a timestamp are thus all kept, as PLok does,
+ * also when the timestamp comes again later or was put before the table was opened.
+ * Vectors are inserted with batched prepared statements, queries are range scans over the key.
+ */
 public class SQLStorage implements StorageSystem{
 
+	private static final Logger log = LoggerFactory.getLogger(SQLStorage.class);
+	private static final String DATABASE_DIRECTORY = "h2";
+	private static final String DATABASE_NAME = "vectors";
+	private static final int DUPLICATE_BITS = 8;		// vectors of one timestamp kept apart
+	private static final String CREATE_TABLE =
+			"CREATE TABLE IF NOT EXISTS vectors (k BIGINT PRIMARY KEY, vec BIGINT NOT NULL, ts BIGINT NOT NULL, idx INT NOT NULL, val REAL NOT NULL)";
+	private static final String INSERT = "INSERT INTO vectors (k, vec, ts, idx, val) VALUES (?, ?, ?, ?, ?)";
+	private static final String RANGE = " FROM vectors WHERE k BETWEEN ? AND ? AND idx BETWEEN ? AND ?";
+	private static final String MATCHING = " AND vec IN (SELECT vec FROM vectors WHERE k BETWEEN ? AND ? AND idx = ? AND val BETWEEN ? AND ?)";
+	private static final String SELECT = "SELECT vec, ts, idx, val" + RANGE;
+	private static final String AGGREGATE = "SELECT MIN(val), MAX(val), SUM(val), COUNT(*)" + RANGE;
+	private static final String AGGREGATE_MATCHING = AGGREGATE + MATCHING;
+	private static final String ORDER = " ORDER BY k";
+	private static final String HIGHEST = "SELECT MAX(ts) FROM vectors";
+	private static final String LAST_VECTOR = "SELECT MAX(vec) FROM vectors WHERE k BETWEEN ? AND ?";
+	private static final String ROLLED = "SELECT ts - MOD(ts, ?) AS bucket, idx, AVG(val)" + RANGE;
+	private static final String GROUP = " GROUP BY bucket, idx ORDER BY bucket, idx";
+
+	private final Connection connection;
+	private final PreparedStatement insert;
+	private final int N;
+	private final int batchSize;
+	private final long timestampLimit;	// largest absolute timestamp whose keys fit into a BIGINT
+	private int batched;
+	private long lastTimestamp = Long.MIN_VALUE;
+	private long highestTimestamp = Long.MIN_VALUE;	// of all the vectors in the table
+	private int duplicates;			// vectors put before with the last timestamp
+	protected long vectorCount;
+	protected long batchCount;
+	protected long insertNanos;
+	protected long requestCount;
+	protected long aggregateCount;
+	protected long servedRowCount;
+	protected long queryNanos;
+
+	@Inject
+	public SQLStorage(@Named("N") int N, @Named("storagePath") String storagePath, @Named("sqlBatch") int batchSize) throws SQLException {
+		this.N = N;
+		this.batchSize = batchSize;
+		this.timestampLimit = (Long.MAX_VALUE / N >> DUPLICATE_BITS) - 1;
+		String url = "jdbc:h2:file:" + Paths.get(storagePath, DATABASE_DIRECTORY, DATABASE_NAME).toAbsolutePath();
+		connection = DriverManager.getConnection(url);
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(CREATE_TABLE);
+			try (ResultSet result = statement.executeQuery(HIGHEST)) {
+				if (result.next() && result.getObject(1) != null)
+					highestTimestamp = result.getLong(1);
+			}
+		}
+		connection.setAutoCommit(false);
+		insert = connection.prepareStatement(INSERT);
+		log.info("Opened {} with batches of {} vectors", url, batchSize);
+	}
+
+	@Override
+	public synchronized void put(Vector vector) {
+		long start = System.nanoTime();
+		if (Math.abs(vector.getTimestamp()) > timestampLimit)
+			throw new IllegalArgumentException("Timestamp " + vector.getTimestamp() + " is out of the key range [-"
+					+ timestampLimit + ", " + timestampLimit + "] of vectors of " + N + " values");
+		try {
+			if (vector.getTimestamp() == lastTimestamp) {
+				if (++duplicates >= 1 << DUPLICATE_BITS)
+					throw new IllegalStateException("More than " + (1 << DUPLICATE_BITS) + " vectors at " + lastTimestamp);
+			} else {
+				lastTimestamp = vector.getTimestamp();
+				duplicates = lastTimestamp > highestTimestamp ? 0 : storedDuplicates(lastTimestamp);
+				highestTimestamp = Math.max(highestTimestamp, lastTimestamp);
+			}
+			long vec = (vector.getTimestamp() << DUPLICATE_BITS) + duplicates;
+			float[] values = vector.getVector();
+			for (int j = 0; j < values.length; j++) {
+				insert.setLong(1, vec * N + j);
+				insert.setLong(2, vec);
+				insert.setLong(3, vector.getTimestamp());
+				insert.setInt(4, j);
+				insert.setFloat(5, values[j]);
+				insert.addBatch();
+			}
+			vectorCount++;
+			if (++batched >= batchSize) {
+				flush();
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException("Insert of vector " + vector.getTimestamp() + " failed", e);
+		} finally {
+			insertNanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Count of the vectors of a timestamp already in the table, for a timestamp not after the highest one.
+	 */
+	private int storedDuplicates(long timestamp) throws SQLException {
+		flush();
+		try (PreparedStatement select = connection.prepareStatement(LAST_VECTOR)) {
+			select.setLong(1, key(timestamp, 0));
+			select.setLong(2, key(timestamp, (1 << DUPLICATE_BITS) - 1) + N - 1);
+			try (ResultSet result = select.executeQuery()) {
+				if (!result.next() || result.getObject(1) == null)
+					return 0;
+				int duplicates = (int) (result.getLong(1) - (timestamp << DUPLICATE_BITS)) + 1;
+				if (duplicates >= 1 << DUPLICATE_BITS)
+					throw new IllegalStateException("More than " + (1 << DUPLICATE_BITS) + " vectors at " + timestamp);
+				return duplicates;
+			}
+		}
+	}
+
+	private void flush() throws SQLException {
+		if (batched > 0) {
+			insert.executeBatch();
+			connection.commit();
+			batched = 0;
+			batchCount++;
+		}
+	}
+
+	/**
+	 * Answers with a single block holding the query rectangle, rows ordered by time.
+	 * With a resolution the rows are averaged over buckets of that many msec.
+	 */
 	@Override
-	public List<Block> serve(Query query) throws Exception {
-		// TODO Auto-generated method stub
-		return null;
+	public synchronized List<Block> serve(Query query) throws Exception {
+		long start = System.nanoTime();
+		requestCount++;
+		flush();
+		String sql = query.getResolution() > 0 ? ROLLED : SELECT;
+		sql += query.getPredicate() == null ? "" : MATCHING;
+		sql += query.getResolution() > 0 ? GROUP : ORDER;
+		int width = query.getIndexEnd() - query.getIndexStart() + 1;
+		ArrayList<Vector> rows = new ArrayList<>();
+		try (PreparedStatement select = connection.prepareStatement(sql)) {
+			int parameter = 1;
+			if (query.getResolution() > 0)
+				select.setLong(parameter++, query.getResolution());
+			bindPredicate(select, bind(select, parameter, query), query);
+			try (ResultSet result = select.executeQuery()) {
+				int column = query.getResolution() > 0 ? 1 : 2;	// a bucket is its own timestamp, a vector has one
+				Vector row = null;
+				long group = 0;
+				while (result.next()) {
+					if (row == null || group != result.getLong(1)) {
+						group = result.getLong(1);
+						row = new Vector(result.getLong(column), new float[width]);
+						rows.add(row);
+					}
+					row.getVector()[result.getInt(column + 1) - query.getIndexStart()] = result.getFloat(column + 2);
+					servedRowCount++;
+				}
+			}
+		}
+		queryNanos += System.nanoTime() - start;
+		List<Block> blocks = new ArrayList<>(1);
+		if (!rows.isEmpty()) {
+			BlockHeader header = new BlockHeader(-1, rows.get(0).getTimestamp(), rows.get(rows.size() - 1).getTimestamp(),
+					query.getIndexStart(), query.getIndexEnd());
+			blocks.add(new Block(header, rows.size(), width, rows));
+		}
+		return blocks;
 	}
 
 	@Override
-	public void put(Vector vector) {
-		// TODO Auto-generated method stub
+	public synchronized Aggregate aggregate(Query query) throws Exception {
+		long start = System.nanoTime();
+		aggregateCount++;
+		flush();
+		Aggregate aggregate = new Aggregate();
+		try (PreparedStatement select = connection.prepareStatement(query.getPredicate() == null ? AGGREGATE : AGGREGATE_MATCHING)) {
+			bindPredicate(select, bind(select, 1, query), query);
+			try (ResultSet result = select.executeQuery()) {
+				if (result.next() && result.getLong(4) > 0) {
+					aggregate = new Aggregate(result.getFloat(1), result.getFloat(2), result.getDouble(3), result.getLong(4));
+				}
+			}
+		}
+		queryNanos += System.nanoTime() - start;
+		return aggregate;
+	}
 		
+	/**
+	 * Binds the key range of the query time range, every vector of those timestamps included.
+	 */
+	private int bind(PreparedStatement statement, int parameter, Query query) throws SQLException {
+		parameter = bindKeys(statement, parameter, query);
+		statement.setInt(parameter++, query.getIndexStart());
+		statement.setInt(parameter++, query.getIndexEnd());
+		return parameter;
+	}
+
+	private int bindKeys(PreparedStatement statement, int parameter, Query query) throws SQLException {
+		statement.setLong(parameter++, key(query.getTimeStart(), 0));
+		statement.setLong(parameter++, key(query.getTimeEnd(), (1 << DUPLICATE_BITS) - 1) + N - 1);
+		return parameter;
+	}
+
+	private long key(long timestamp, int duplicate) {
+		long vec = timestamp << DUPLICATE_BITS;
+		if (vec >> DUPLICATE_BITS != timestamp || Math.abs(vec) > Long.MAX_VALUE / N - (1 << DUPLICATE_BITS))
+			return timestamp < 0 ? Long.MIN_VALUE : Long.MAX_VALUE - N;
+		return (vec + duplicate) * N;
+	}
+
+	private void bindPredicate(PreparedStatement statement, int parameter, Query query) throws SQLException {
+		ValuePredicate predicate = query.getPredicate();
+		if (predicate != null) {
+			parameter = bindKeys(statement, parameter, query);
+			statement.setInt(parameter++, predicate.getIndex());
+			statement.setFloat(parameter++, Math.max(predicate.getLow(), -Float.MAX_VALUE));
+			statement.setFloat(parameter++, Math.min(predicate.getHigh(), Float.MAX_VALUE));
+		}
 	}
 
 	@Override
-	public HashMap<String, Object> getStatistics() {
-		// TODO Auto-generated method stub
-		return null;
+	public synchronized HashMap<String, Object> getStatistics() {
+		HashMap<String, Object> statistics = new HashMap<>();
+		statistics.put("vectorCount", vectorCount);
+		statistics.put("rowCount", vectorCount * N);
+		statistics.put("batchCount", batchCount);
+		statistics.put("insertMeanMicros", vectorCount == 0 ? 0.0 : insertNanos / 1000.0 / vectorCount);
+		statistics.put("requestCount", requestCount);
+		statistics.put("aggregateCount", aggregateCount);
+		statistics.put("servedRowCount", servedRowCount);
+		long queryCount = requestCount + aggregateCount;
+		statistics.put("queryMeanMicros", queryCount == 0 ? 0.0 : queryNanos / 1000.0 / queryCount);
+		return statistics;
 	}
 
+	/**
+	 * The table has no blocks, every vector counts as one.
+	 */
 	@Override
-	public int getBlockCount() {
-		// TODO Auto-generated method stub
-		return 0;
+	public synchronized int getBlockCount() {
+		return (int) vectorCount;
 	}
 
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+			insert.close();
+			connection.close();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
 
 }
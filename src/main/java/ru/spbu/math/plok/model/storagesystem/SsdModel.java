@@ -0,0 +1,35 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Flash device: every page touched costs the same, and up to {@code queueDepth}
+ * requests of a batch are served in parallel.
+ */
+public class SsdModel extends DeviceModel {
+
+	private final double pageMicros;
+	private final int queueDepth;
+	private final int pageSize;
+
+	@Inject
+	public SsdModel(@Named("pageMicros") int pageMicros, @Named("queueDepth") int queueDepth, @Named("pageSize") int pageSize) {
+		this.pageMicros = pageMicros;
+		this.queueDepth = queueDepth;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	protected double serve(long[] addresses, int[] lengths) {
+		double total = 0;
+		double longest = 0;
+		for (int k = 0; k < addresses.length; k++) {
+			long pages = (addresses[k] + lengths[k] - 1) / pageSize - addresses[k] / pageSize + 1;
+			total += pages * pageMicros;
+			longest = Math.max(longest, pages * pageMicros);
+		}
+		return Math.max(longest, total / Math.min(queueDepth, addresses.length));
+	}
+
+}
@@ -0,0 +1,115 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder events of the hot paths. They are filled in only after {@code shouldCommit()},
+ * so while no recording asks for them an event costs an allocation the JIT removes and one check.
+ * Stack traces are off, a recording setting turns them on where needed.
+ */
+final class StorageEvents {
+
+	static final String CATEGORY = "PLok";
+
+	private StorageEvents() {
+	}
+
+	@Name("ru.spbu.math.plok.BlockPack")
+	@Label("Block Pack")
+	@Category({CATEGORY, "Write"})
+	@StackTrace(false)
+	static class BlockPack extends Event {
+		@Label("Block Id")
+		long blockId;
+		@Label("Rows")
+		int rows;
+		@Label("Width")
+		int width;
+		@Label("First Column")
+		long iBeg;
+	}
+
+	@Name("ru.spbu.math.plok.IndexPut")
+	@Label("Index Put")
+	@Description("Blocks of a column made visible in the index, the duration is the publication lock hold")
+	@Category({CATEGORY, "Write"})
+	@StackTrace(false)
+	static class IndexPut extends Event {
+		@Label("Blocks")
+		int blocks;
+		@Label("Indexed Blocks")
+		int indexed;
+	}
+
+	@Name("ru.spbu.math.plok.CacheLoad")
+	@Label("Cache Load")
+	@Description("Blocks missing from the block cache read from disk")
+	@Category({CATEGORY, "Read"})
+	@StackTrace(false)
+	static class CacheLoad extends Event {
+		@Label("Requested Blocks")
+		int requested;
+		@Label("Loaded Blocks")
+		int loaded;
+	}
+
+	@Name("ru.spbu.math.plok.DiskRead")
+	@Label("Disk Read")
+	@Category({CATEGORY, "Disk"})
+	@StackTrace(false)
+	static class DiskRead extends Event {
+		@Label("Shard")
+		int shard;
+		@Label("Slot")
+		long slot;
+		@Label("Span")
+		int span;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("ru.spbu.math.plok.DiskWrite")
+	@Label("Disk Write")
+	@Category({CATEGORY, "Disk"})
+	@StackTrace(false)
+	static class DiskWrite extends Event {
+		@Label("Shard")
+		int shard;
+		@Label("Slot")
+		long slot;
+		@Label("Span")
+		int span;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("ru.spbu.math.plok.Serve")
+	@Label("Serve")
+	@Category({CATEGORY, "Read"})
+	@StackTrace(false)
+	static class Serve extends Event {
+		@Label("Time Start")
+		long timeStart;
+		@Label("Time End")
+		long timeEnd;
+		@Label("Index Start")
+		int indexStart;
+		@Label("Index End")
+		int indexEnd;
+		@Label("Resolution")
+		long resolution;
+		@Label("Blocks")
+		int blocks;
+		@Label("Memtable Blocks")
+		int memtableBlocks;
+	}
+
+}
@@ -1,7 +1,13 @@
 package ru.spbu.math.plok.model.storagesystem;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import ru.spbu.math.plok.model.client.Query;
 import ru.spbu.math.plok.model.generator.Vector;
@@ -10,10 +16,78 @@ public interface StorageSystem {
 
 	public List<Block> serve(Query query) throws Exception;
 
+	/**
+	 * Answers of several queries, in their order. Storages that can share work between
+	 * the queries override it, by default they are served one by one.
+	 */
+	public default List<List<Block>> serveBatch(List<Query> queries) throws Exception {
+		List<List<Block>> answers = new ArrayList<>(queries.size());
+		for (Query query : queries){
+			answers.add(serve(query));
+		}
+		return answers;
+	}
+
+	/**
+	 * Completes with the answer once its last block has arrived, handing every block to
+	 * {@code onBlock} as soon as it is there, possibly from an I/O thread. By default the
+	 * query is served synchronously.
+	 */
+	public default CompletableFuture<List<Block>> serveAsync(Query query, Consumer<Block> onBlock) {
+		CompletableFuture<List<Block>> answer = new CompletableFuture<>();
+		try {
+			List<Block> blocks = serve(query);
+			for (Block block : blocks){
+				onBlock.accept(block);
+			}
+			answer.complete(blocks);
+		} catch (Exception e) {
+			answer.completeExceptionally(e);
+		}
+		return answer;
+	}
+
+	public default CompletableFuture<List<Block>> serveAsync(Query query) {
+		return serveAsync(query, block -> {});
+	}
+
+	/**
+	 * Blocks of the answer handed out as the consumer advances. By default the whole
+	 * answer is served first.
+	 */
+	public default BlockCursor cursor(Query query) throws Exception {
+		return BlockCursor.of(serve(query));
+	}
+
+	/**
+	 * Blocks and rows of the query rectangle. Storages keeping block metadata answer it
+	 * without reading any block, by default the query is served and counted.
+	 */
+	public default Coverage coverage(Query query) throws Exception {
+		Coverage coverage = new Coverage(query.getIndexEnd() - query.getIndexStart() + 1);
+		Set<Long> rows = new HashSet<>();
+		for (Block block : serve(query)){
+			for (Vector row : block.getData()){
+				if (row.getTimestamp() >= query.getTimeStart() && row.getTimestamp() <= query.getTimeEnd())
+					rows.add(row.getTimestamp());
+			}
+			coverage.addBlocks(1, 0);
+		}
+		coverage.addExactRows(rows.size());
+		return coverage;
+	}
+
+	public Aggregate aggregate(Query query) throws Exception;
+
 	public void put(Vector vector);
 	
 	public HashMap<String, Object> getStatistics();
 
 	public int getBlockCount();
 
+	/**
+	 * Stops background work and releases files and connections.
+	 */
+	public void close() throws IOException;
+
 }
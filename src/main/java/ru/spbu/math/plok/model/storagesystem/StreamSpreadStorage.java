@@ -0,0 +1,93 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * A {@link MultiStreamStorage} under the benchmark: vectors are dealt round robin to
+ * {@code streams} streams of the same length, a query is answered by all of them.
+ */
+public class StreamSpreadStorage implements StorageSystem {
+
+	private static final String STREAM_NAME_FORMAT = "stream_%d";
+	private final MultiStreamStorage engine;
+	private final int streams;
+	private long vectorCount;
+	protected long requestCount;
+	protected long aggregateCount;
+	protected long servedBlockCount;
+
+	@Inject
+	public StreamSpreadStorage(MultiStreamStorage engine, @Named("streams") int streams) {
+		this.engine = engine;
+		this.streams = Math.max(streams, 1);
+	}
+
+	private static String name(int stream) {
+		return String.format(STREAM_NAME_FORMAT, stream);
+	}
+
+	@Override
+	public synchronized void put(Vector vector) {
+		try {
+			engine.put(name((int) (vectorCount++ % streams)), vector);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public List<Block> serve(Query query) throws Exception {
+		List<Block> blocks = new ArrayList<>();
+		for (int stream = 0; stream < streams; stream++) {
+			blocks.addAll(engine.serve(name(stream), query));
+		}
+		synchronized (this) {
+			requestCount++;
+			servedBlockCount += blocks.size();
+		}
+		return blocks;
+	}
+
+	@Override
+	public Aggregate aggregate(Query query) throws Exception {
+		Aggregate result = new Aggregate();
+		for (int stream = 0; stream < streams; stream++) {
+			result.merge(engine.aggregate(name(stream), query));
+		}
+		synchronized (this) {
+			aggregateCount++;
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized HashMap<String, Object> getStatistics() {
+		HashMap<String, Object> statistics = new HashMap<>(engine.getStatistics());
+		statistics.put("vectorCount", vectorCount);
+		statistics.put("requestCount", requestCount);
+		statistics.put("aggregateCount", aggregateCount);
+		statistics.put("servedBlockCount", servedBlockCount);
+		return statistics;
+	}
+
+	@Override
+	public int getBlockCount() {
+		return (int) (long) engine.getStatistics().get("blocks");
+	}
+
+	@Override
+	public void close() throws IOException {
+		engine.close();
+	}
+
+}
@@ -0,0 +1,290 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Sequential log of incoming vectors that are not persisted as blocks yet.
+ * Every record carries a CRC32. Records live in segments named after their first
+ * sequence number, and the checkpoint keeps the first sequence numbers still needed
+ * by the open common column and by the open special block. Segments lying entirely
+ * below both are deleted, so the log holds about one special block worth of vectors, plus those
+ * of the blocks still waiting for their group commit. Under block durability every record is forced
+ * as it is appended, under group durability the group commit forces the log through {@link #flush}.
+ */
+public class WriteAheadLog implements Closeable, Flushable {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+	private static final String SEGMENT_PREFIX = "wal_";
+	private static final String CHECKPOINT_FILE_NAME = "checkpoint";
+	private static final int RECORD_HEADER_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;	// seq, timestamp, length
+
+	private final Path directory;
+	private final int N;
+	private final boolean force;		// every record
+	private final boolean durable;		// checkpoints and the records at the next flush
+	private final TreeMap<Long, Path> segments;
+	private final List<FileChannel> unforced = new ArrayList<>();	// rolled over before the next flush
+	private FileChannel segment;
+	private boolean dirty;
+	private long forceCount;
+	private long nextSeq;
+	private long commonStart;
+	private long specialStart;
+	private long appendedRecords;
+	private long appendedBytes;
+
+	public WriteAheadLog(String directory, int N, String durability) throws IOException {
+		this.directory = Paths.get(directory);
+		this.N = N;
+		this.force = FilePersistentStorage.DURABILITY_BLOCK.equalsIgnoreCase(durability);
+		this.durable = !FilePersistentStorage.DURABILITY_NONE.equalsIgnoreCase(durability);
+		this.segments = new TreeMap<>();
+		Files.createDirectories(this.directory);
+	}
+
+	public static class Record {
+
+		private final long seq;
+		private final Vector vector;
+
+		Record(long seq, Vector vector) {
+			this.seq = seq;
+			this.vector = vector;
+		}
+
+		public long getSeq() {
+			return seq;
+		}
+
+		public Vector getVector() {
+			return vector;
+		}
+	}
+
+	/**
+	 * Reads the checkpoint and all intact records after it. Replay stops at the first
+	 * torn or corrupt record, the log is cut there. Must be called once before appending.
+	 */
+	public synchronized List<Record> recover() throws IOException {
+		readCheckpoint();
+		File[] files = directory.toFile().listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+		for (File file : files == null ? new File[0] : files) {
+			segments.put(Long.valueOf(file.getName().substring(SEGMENT_PREFIX.length())), file.toPath());
+		}
+		List<Record> records = new ArrayList<>();
+		long expectedSeq = -1;
+		boolean broken = false;
+		for (Map.Entry<Long, Path> entry : new ArrayList<>(segments.entrySet())) {
+			if (broken) {
+				log.warn("Dropping WAL segment {} following a corrupt record", entry.getValue());
+				Files.delete(entry.getValue());
+				segments.remove(entry.getKey());
+				continue;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(entry.getValue()));
+			expectedSeq = expectedSeq == -1 ? entry.getKey() : expectedSeq;
+			while (buffer.hasRemaining()) {
+				Record record = readRecord(buffer, expectedSeq);
+				if (record == null) {
+					log.warn("Torn WAL record at {} of {}, cutting {} bytes", buffer.position(), entry.getValue(), buffer.limit() - buffer.position());
+					try (FileChannel channel = FileChannel.open(entry.getValue(), StandardOpenOption.WRITE)) {
+						channel.truncate(buffer.position());
+					}
+					broken = true;
+					break;
+				}
+				if (record.getSeq() >= Math.min(commonStart, specialStart)) {
+					records.add(record);
+				}
+				expectedSeq++;
+			}
+		}
+		nextSeq = Math.max(expectedSeq == -1 ? 0 : expectedSeq, Math.max(commonStart, specialStart));
+		openSegment();
+		return records;
+	}
+
+	private Record readRecord(ByteBuffer buffer, long expectedSeq) {
+		int start = buffer.position();
+		if (buffer.remaining() < RECORD_HEADER_SIZE) {
+			return null;
+		}
+		long seq = buffer.getLong();
+		long timestamp = buffer.getLong();
+		int length = buffer.getInt();
+		if (seq != expectedSeq || length != N || buffer.remaining() < length * Float.BYTES + Integer.BYTES) {
+			buffer.position(start);
+			return null;
+		}
+		float[] values = new float[length];
+		for (int j = 0; j < length; j++) {
+			values[j] = buffer.getFloat();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), start, buffer.position() - start);
+		if ((int) crc.getValue() != buffer.getInt()) {
+			buffer.position(start);
+			return null;
+		}
+		return new Record(seq, new Vector(timestamp, values));
+	}
+
+	public synchronized long append(Vector vector) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + vector.getLength() * Float.BYTES + Integer.BYTES);
+		long seq = nextSeq++;
+		buffer.putLong(seq);
+		buffer.putLong(vector.getTimestamp());
+		buffer.putInt(vector.getLength());
+		for (float value : vector.getVector()) {
+			buffer.putFloat(value);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			segment.write(buffer);
+		}
+		if (force) {
+			segment.force(false);
+			forceCount++;
+		} else {
+			dirty = true;
+		}
+		appendedRecords++;
+		appendedBytes += buffer.limit();
+		return seq;
+	}
+
+	/**
+	 * Records that all vectors before the given sequence numbers are persisted in blocks
+	 * and drops the segments nobody needs any more.
+	 */
+	public synchronized void checkpoint(long commonStart, long specialStart) throws IOException {
+		this.commonStart = commonStart;
+		this.specialStart = specialStart;
+		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Long.BYTES + Integer.BYTES);
+		buffer.putLong(commonStart);
+		buffer.putLong(specialStart);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+		Path temporary = directory.resolve(CHECKPOINT_FILE_NAME + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			if (durable) {
+				channel.force(false);
+			}
+		}
+		Files.move(temporary, directory.resolve(CHECKPOINT_FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (segment.size() > 0) {
+			if (durable && dirty) {
+				unforced.add(segment);
+				dirty = false;
+			} else {
+				segment.close();
+			}
+			openSegment();
+		}
+		long watermark = Math.min(commonStart, specialStart);
+		while (segments.size() > 1 && segments.higherKey(segments.firstKey()) <= watermark) {
+			Files.deleteIfExists(segments.pollFirstEntry().getValue());
+		}
+	}
+
+	private void readCheckpoint() throws IOException {
+		Path checkpoint = directory.resolve(CHECKPOINT_FILE_NAME);
+		if (!Files.exists(checkpoint)) {
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, Long.BYTES + Long.BYTES);
+		if (buffer.limit() != Long.BYTES + Long.BYTES + Integer.BYTES || (int) crc.getValue() != buffer.getInt(Long.BYTES + Long.BYTES)) {
+			throw new IOException("Corrupt WAL checkpoint " + checkpoint);
+		}
+		commonStart = buffer.getLong();
+		specialStart = buffer.getLong();
+	}
+
+	private void openSegment() throws IOException {
+		Path path = directory.resolve(SEGMENT_PREFIX + nextSeq);
+		segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		segments.put(nextSeq, path);
+	}
+
+	/**
+	 * Forces the records appended since the last flush, those of the segments rolled over since included.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		for (FileChannel channel : unforced) {
+			channel.force(false);
+			channel.close();
+			forceCount++;
+		}
+		unforced.clear();
+		if (dirty && segment != null && segment.isOpen()) {
+			segment.force(false);
+			forceCount++;
+		}
+		dirty = false;
+	}
+
+	public synchronized long getCommonStart() {
+		return commonStart;
+	}
+
+	public synchronized long getSpecialStart() {
+		return specialStart;
+	}
+
+	public long getAppendedRecords() {
+		return appendedRecords;
+	}
+
+	public long getAppendedBytes() {
+		return appendedBytes;
+	}
+
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	public synchronized long getForceCount() {
+		return forceCount;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		flush();
+		if (segment != null) {
+			segment.force(false);
+			segment.close();
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.spbu.math.plok.model.client.ValuePredicate;
+
+/**
+ * Checks a value predicate against the zone maps (per-column min/max) of the
+ * blocks holding the predicate index. Those blocks are ordered by time and do
+ * not overlap, so every other block is judged by the ones sharing its time span.
+ */
+class ZoneMapFilter {
+
+	private final ValuePredicate predicate;
+	private final List<BlockHeader> holders;
+
+	ZoneMapFilter(ValuePredicate predicate, List<BlockHeader> holders) {
+		this.predicate = predicate;
+		this.holders = holders;
+	}
+
+	boolean mayMatch(BlockHeader entry) {
+		for (BlockHeader holder : overlapping(entry)) {
+			int column = column(holder);
+			if (predicate.mayMatch(holder.getSummary().getMin(column), holder.getSummary().getMax(column)))
+				return true;
+		}
+		return false;
+	}
+
+	boolean allMatch(BlockHeader entry) {
+		List<BlockHeader> overlapping = overlapping(entry);
+		if (overlapping.isEmpty()
+				|| overlapping.get(0).gettBeg() > entry.gettBeg()
+				|| overlapping.get(overlapping.size() - 1).gettEnd() < entry.gettEnd()) {
+			return false;
+		}
+		for (BlockHeader holder : overlapping) {
+			int column = column(holder);
+			if (!predicate.allMatch(holder.getSummary().getMin(column), holder.getSummary().getMax(column)))
+				return false;
+		}
+		return true;
+	}
+
+	List<BlockHeader> overlapping(BlockHeader entry) {
+		int lo = 0;
+		int hi = holders.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (holders.get(mid).gettEnd() < entry.gettBeg())
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		List<BlockHeader> result = new ArrayList<>();
+		for (int k = lo; k < holders.size() && holders.get(k).gettBeg() <= entry.gettEnd(); k++) {
+			result.add(holders.get(k));
+		}
+		return result;
+	}
+
+	int column(BlockHeader holder) {
+		return (int) (predicate.getIndex() - holder.getiBeg());
+	}
+
+	ValuePredicate getPredicate() {
+		return predicate;
+	}
+
+}
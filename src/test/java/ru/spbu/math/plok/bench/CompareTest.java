@@ -0,0 +1,44 @@
+package ru.spbu.math.plok.bench;
+
+import junit.framework.TestCase;
+
+public class CompareTest extends TestCase {
+
+	private static final double ALPHA = 0.05;
+	private static final double TOLERANCE = 0.05;
+
+	public void testWelchAgainstKnownPValues() {
+		assertEquals(0.107531, Compare.welch(new double[] {1, 2, 3, 4, 5}, new double[] {2, 4, 6, 8, 10}), 1e-5);
+		assertEquals(0.021378, Compare.welch(
+				new double[] {27.5, 21.0, 19.0, 23.6, 17.0, 17.9, 16.9, 20.1, 21.9, 22.6, 23.1, 19.6, 19.0, 21.7, 21.4},
+				new double[] {27.1, 22.0, 20.8, 23.4, 23.4, 23.5, 25.8, 22.0, 24.8, 20.2, 21.9, 22.1, 22.9, 20.5, 24.4}), 1e-5);
+		assertEquals(1.1718e-4, Compare.welch(new double[] {10.1, 9.8, 10.3, 10.0, 9.9, 10.2},
+				new double[] {10.6, 10.9, 10.4, 10.8, 11.0, 10.7, 10.5}), 1e-7);
+	}
+
+	public void testWelchIsSymmetric() {
+		double[] a = {3, 5, 4, 6, 5};
+		double[] b = {6, 7, 5, 8, 9, 7};
+		assertEquals(Compare.welch(a, b), Compare.welch(b, a), 1e-12);
+	}
+
+	public void testWelchOfConstantOrSingleValues() {
+		assertTrue(Double.isNaN(Compare.welch(new double[] {1}, new double[] {2, 3})));
+		assertEquals(1.0, Compare.welch(new double[] {4, 4}, new double[] {4, 4, 4}));
+		assertEquals(0.0, Compare.welch(new double[] {4, 4}, new double[] {5, 5}));
+	}
+
+	public void testSingleRunOfADeterministicCounterIsJudgedByTolerance() {
+		assertEquals(1, Compare.compare("blocksReadPerQuery", new double[] {100}, new double[] {120}, false, true, ALPHA, TOLERANCE));
+		assertEquals(0, Compare.compare("blocksReadPerQuery", new double[] {100}, new double[] {103}, false, true, ALPHA, TOLERANCE));
+		assertEquals(0, Compare.compare("blocksReadPerQuery", new double[] {100}, new double[] {80}, false, true, ALPHA, TOLERANCE));
+		assertEquals(0, Compare.compare("queriesPerSecond", new double[] {100}, new double[] {80}, true, false, ALPHA, TOLERANCE));
+	}
+
+	public void testNoisySamplesAreNotARegression() {
+		assertEquals(0, Compare.compare("serveLatencyMicros", new double[] {1, 2, 3, 4, 5}, new double[] {2, 4, 6, 8, 10}, false, false, ALPHA, TOLERANCE));
+		assertEquals(1, Compare.compare("serveLatencyMicros", new double[] {10.1, 9.8, 10.3, 10.0, 9.9, 10.2},
+				new double[] {10.6, 10.9, 10.4, 10.8, 11.0, 10.7, 10.5}, false, false, ALPHA, TOLERANCE));
+	}
+
+}
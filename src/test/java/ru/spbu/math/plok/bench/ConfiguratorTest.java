@@ -0,0 +1,48 @@
+package ru.spbu.math.plok.bench;
+
+import org.apache.commons.cli.ParseException;
+
+import junit.framework.TestCase;
+
+public class ConfiguratorTest extends TestCase {
+
+	private static final String[] REQUIRED = {"-N", "8", "-P", "4", "-L", "4", "-T", "1000", "-V", "uni"};
+
+	private static Configurator configure(String... options) throws Exception {
+		String[] args = new String[REQUIRED.length + options.length];
+		System.arraycopy(REQUIRED, 0, args, 0, REQUIRED.length);
+		System.arraycopy(options, 0, args, REQUIRED.length, options.length);
+		return new Configurator(args);
+	}
+
+	public void testAllowedValuesAreAccepted() throws Exception {
+		Configurator configurator = configure("-stripe", "band", "-layout", "PAGED", "-durability", "group", "-device", "memory",
+				"-deviceModel", "ssd", "-placement", "hilbert", "-quantize", "half");
+		assertEquals("hilbert", configurator.getPlacement());
+		assertEquals("PAGED", configurator.getLayout());
+	}
+
+	public void testUnknownValuesAreRejected() throws Exception {
+		String[] options = {"stripe", "layout", "durability", "device", "deviceModel", "placement", "quantize"};
+		for (String option : options) {
+			try {
+				configure("-" + option, "zorderr");
+				fail(option + " accepted an unknown value");
+			} catch (ParseException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith(option + " must be one of"));
+			}
+		}
+	}
+
+	public void testDiskBudgetDefaultsToOnePoint() throws Exception {
+		assertEquals(1, configure().getDiskBudget());
+		assertEquals(0, configure("-diskBudget", "0").getDiskBudget());
+		try {
+			configure("-diskBudget", "-1");
+			fail("negative disk budget accepted");
+		} catch (ParseException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("diskBudget"));
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package ru.spbu.math.plok.bench;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class SweeperTest extends TestCase {
+
+	private static final String SPEC = "P=4,8; L=5..20:5; S=PLok,rowlog";
+
+	public void testGridOfListsAndRanges() {
+		Map<String, List<String>> grid = Sweeper.parse(SPEC);
+		assertEquals(Arrays.asList("P", "L", "S"), Arrays.asList(grid.keySet().toArray()));
+		assertEquals(Arrays.asList("4", "8"), grid.get("P"));
+		assertEquals(Arrays.asList("5", "10", "15", "20"), grid.get("L"));
+		assertEquals(Arrays.asList("PLok", "rowlog"), grid.get("S"));
+		assertEquals(Arrays.asList("1", "2", "3"), Sweeper.parse("T=1..3").get("T"));
+	}
+
+	public void testMalformedAxesAreRejected() {
+		for (String spec : new String[] {"P", "=4", "L=5..20:0", "L=20..5", "S=,"}) {
+			try {
+				Sweeper.parse(spec);
+				fail(spec + " accepted");
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Sweep axis"));
+			}
+		}
+	}
+
+	public void testProductVariesTheLastAxisFastest() {
+		List<Map<String, String>> points = Sweeper.product(Sweeper.parse(SPEC));
+		assertEquals(2 * 4 * 2, points.size());
+		assertEquals("{P=4, L=5, S=PLok}", points.get(0).toString());
+		assertEquals("{P=4, L=5, S=rowlog}", points.get(1).toString());
+		assertEquals("{P=8, L=20, S=rowlog}", points.get(points.size() - 1).toString());
+		assertEquals(points.size(), new HashSet<>(points).size());
+	}
+
+	public void testEveryPointHasItsOwnDirectory() throws Exception {
+		String[] args = {"-N", "20", "-P", "4", "-L", "5", "-T", "1000", "-V", "uni", "-storagePath", "runs",
+				"-sweep", SPEC, "-parallel", "2", "-diskBudget", "2", "-break", "100", "-wal"};
+		Configurator configurator = new Configurator(args);
+		List<Map<String, String>> points = Sweeper.product(Sweeper.parse(configurator.getSweep()));
+		Set<String> directories = new HashSet<>();
+		for (int k = 0; k < points.size(); k++) {
+			List<String> pointArgs = Arrays.asList(Sweeper.override(configurator, args, points.get(k), k));
+			assertFalse(pointArgs.contains("-sweep"));
+			assertFalse(pointArgs.contains("-parallel"));
+			assertFalse(pointArgs.contains("-diskBudget"));
+			assertTrue(pointArgs.contains("-wal"));
+			assertEquals(1, count(pointArgs, "-P"));
+			assertEquals(points.get(k).get("P"), pointArgs.get(pointArgs.indexOf("-P") + 1));
+			assertEquals(points.get(k).get("S"), pointArgs.get(pointArgs.indexOf("-S") + 1));
+			assertEquals("0", pointArgs.get(pointArgs.indexOf("-break") + 1));
+			assertEquals(1, count(pointArgs, "-break"));
+			String directory = pointArgs.get(pointArgs.indexOf("-storagePath") + 1);
+			assertEquals(new File("runs", "sweep_" + k).getPath(), directory);
+			directories.add(directory);
+			new Configurator(pointArgs.toArray(new String[pointArgs.size()]));
+		}
+		assertEquals(points.size(), directories.size());
+	}
+
+	public void testUnknownSweepOptionIsRejected() throws Exception {
+		String[] args = {"-N", "20", "-P", "4", "-L", "5", "-T", "1000", "-V", "uni", "-sweep", "Q=1,2"};
+		Configurator configurator = new Configurator(args);
+		try {
+			Sweeper.override(configurator, args, Sweeper.product(Sweeper.parse(configurator.getSweep())).get(0), 0);
+			fail("unknown option accepted");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("Q"));
+		}
+	}
+
+	private static int count(List<String> args, String option) {
+		int count = 0;
+		for (String arg : args) {
+			if (arg.equals(option))
+				count++;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,54 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+/**
+ * Vectors of 13 values in blocks of 4 rows and 5 columns: special blocks of the last 3 values
+ * hold 6 rows, so they come at two thirds of the rate of the columns. The two common bands and
+ * the special one would share tiles of the curve.
+ */
+public class CurvePlacementTest extends TestCase {
+
+	private static final int N = 13;
+	private static final int VECTORS = 5000;
+	private static final long RETENTION = 400;
+
+	public void testSegmentsOfExpiredBlocksAreDropped() throws Exception {
+		for (String placement : new String[] {"zorder", "hilbert"}) {
+			File directory = Storages.directory();
+			PLokStorage storage = Storages.plok(directory, N, 4, 5, "-placement", placement,
+					"-extentSlots", "16", "-segmentSlots", "64", "-retention", String.valueOf(RETENTION));
+			try {
+				for (long t = 0; t < VECTORS; t++) {
+					storage.put(Storages.vector(0, t, N));
+				}
+				storage.expire();
+				long dropped = (long) storage.getStatistics().get("droppedSegments");
+				int kept = segments(directory);
+				assertTrue(placement + " dropped " + dropped + " segments, kept " + kept, kept <= 12 && dropped > 4 * kept);
+				long from = VECTORS - RETENTION;
+				int cells = Storages.checkedCells(0, storage.serve(new Query(0, N - 1, from, VECTORS - 1)), 0, N - 1, from, VECTORS - 1);
+				assertEquals(placement, N * RETENTION, cells);
+			} finally {
+				storage.close();
+			}
+		}
+	}
+
+	private static int segments(File directory) {
+		int segments = 0;
+		File[] files = directory.listFiles();
+		for (File file : files == null ? new File[0] : files) {
+			if (file.isDirectory())
+				segments += segments(file);
+			else if (file.getParentFile().getName().equals("files"))
+				segments++;
+		}
+		return segments;
+	}
+
+}
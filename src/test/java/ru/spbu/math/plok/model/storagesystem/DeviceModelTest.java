@@ -0,0 +1,86 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Disks of 1 msec seeks and 100 MB/sec, flash of 100 usec pages of 4 KB.
+ */
+public class DeviceModelTest extends TestCase {
+
+	private static final int PAGE = 4096;
+
+	public void testHddChargesASeekPerJump() {
+		HddModel hdd = new HddModel(1000, 100);
+		hdd.charge(new long[] {0, PAGE, 2 * PAGE}, new int[] {PAGE, PAGE, PAGE}, false);
+		assertEquals(1, hdd.getReadSeeks());
+		assertEquals(Math.round(1000 + 3 * PAGE / 100.0), hdd.getReadMicros());
+		hdd.charge(new long[] {3 * PAGE}, new int[] {PAGE}, false);
+		assertEquals("continues where the head stopped", 1, hdd.getReadSeeks());
+		hdd.charge(new long[] {PAGE, 0}, new int[] {PAGE, PAGE}, false);
+		assertEquals(3, hdd.getReadSeeks());
+		hdd.charge(new long[] {5 * PAGE}, new int[] {PAGE}, true);
+		assertEquals(1, hdd.getWriteSeeks());
+		assertEquals(Math.round(1000 + PAGE / 100.0), hdd.getWriteMicros());
+		assertEquals(3, hdd.getReadSeeks());
+	}
+
+	public void testSsdChargesPagesServedInParallel() {
+		SsdModel ssd = new SsdModel(100, 4, PAGE);
+		long[] addresses = new long[8];
+		int[] lengths = new int[8];
+		for (int k = 0; k < 8; k++) {
+			addresses[k] = (7 - k) * 10L * PAGE;
+			lengths[k] = PAGE;
+		}
+		ssd.charge(addresses, lengths, false);
+		assertEquals(8 * 100 / 4, ssd.getReadMicros());
+		ssd.charge(new long[] {PAGE - 100}, new int[] {200}, false);
+		assertEquals("a straddling request touches two pages", 200 + 200, ssd.getReadMicros());
+		assertEquals(0, ssd.getReadSeeks());
+
+		SsdModel serial = new SsdModel(100, 1, PAGE);
+		serial.charge(addresses, lengths, true);
+		assertEquals(8 * 100, serial.getWriteMicros());
+	}
+
+	public void testIdealDeviceCostsNothing() {
+		DeviceModel ideal = new DeviceModel.Ideal();
+		ideal.charge(new long[] {0, 10 * PAGE}, new int[] {PAGE, PAGE}, false);
+		assertEquals(0, ideal.getReadMicros());
+		assertEquals(0, ideal.getReadSeeks());
+	}
+
+	public void testPersisterChargesItsReads() throws Exception {
+		FilePersistentStorage storage = Storages.injector(Storages.directory(), 10, 4, 5,
+				"-deviceModel", "hdd", "-seekMicros", "1000", "-transferMBps", "100").getInstance(FilePersistentStorage.class);
+		try {
+			List<Long> ids = new ArrayList<>();
+			for (int k = 0; k < 20; k++) {
+				Block block = new Block(4, 5);
+				for (long t = k * 4; t < (k + 1) * 4; t++) {
+					block.tryAdd(Storages.vector(0, t, 10).cutCopy(0, 4));
+				}
+				block.pack(storage.nextId(), 0);
+				storage.add(block);
+				ids.add(block.getHeader().getId());
+			}
+			assertTrue(storage.getSimulatedWriteMicros() > 0);
+			storage.getAll(ids);
+			assertEquals("one sequential run", 1, storage.getReadSeeks());
+			long sequential = storage.getSimulatedReadMicros();
+			Collections.reverse(ids);
+			for (long id : ids) {
+				storage.get(id);
+			}
+			assertEquals(1 + ids.size(), storage.getReadSeeks());
+			assertTrue(storage.getSimulatedReadMicros() - sequential > 10 * sequential);
+		} finally {
+			storage.close();
+		}
+	}
+
+}
@@ -0,0 +1,193 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Blocks of 13 values in 4 rows and 5 columns, written, moved and found again through the manifest
+ * after a restart under every way of locating them.
+ */
+public class FilePersistentStorageTest extends TestCase {
+
+	private static final int N = 13;
+	private static final int P = 4;
+	private static final int L = 5;
+	private static final int COLUMNS = 60;
+	private static final String[][] LAYOUTS = {
+			{"-stripe", "band", "-shards", "2"},
+			{"-stripe", "id", "-shards", "2"},
+			{"-placement", "zorder", "-extentSlots", "16", "-shards", "2"},
+			{"-placement", "hilbert", "-extentSlots", "16", "-layout", "paged"}};
+
+	public void testBlocksAreFoundAfterARestart() throws Exception {
+		for (String[] layout : LAYOUTS) {
+			File directory = Storages.directory();
+			FilePersistentStorage storage = open(directory, layout);
+			Map<Long, Block> written = write(storage, 0, COLUMNS / 2);
+			List<Long> moved = new ArrayList<>(written.keySet()).subList(0, 20);
+			storage.relocate(moved);
+			storage.close();
+
+			storage = open(directory, layout);
+			assertFound(Arrays.toString(layout), storage, written);
+			written.putAll(write(storage, COLUMNS / 2, COLUMNS));
+			storage.close();
+
+			storage = open(directory, layout);
+			assertFound(Arrays.toString(layout), storage, written);
+			storage.close();
+		}
+	}
+
+	public void testBlocksAreFoundWithoutReadingThem() throws Exception {
+		File directory = Storages.directory();
+		FilePersistentStorage storage = open(directory);
+		Map<Long, Block> written = write(storage, 0, COLUMNS);
+		storage.close();
+		File segment = new File(new File(directory, "files"), "persister_0.0");
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(storage.getBlockSize() + 30);
+			int value = file.read();
+			file.seek(storage.getBlockSize() + 30);
+			file.write(value ^ 0x04);
+		}
+		storage = open(directory);
+		assertEquals(written.size(), storage.takeRecovered().size());
+		assertEquals(0, storage.getBlocksRead());
+		try {
+			storage.get(1);
+			fail("corrupt block read");
+		} catch (IOException e) {
+			assertEquals(1, storage.getCorruptBlocks());
+		}
+		storage.close();
+	}
+
+	public void testForgottenBlocksAreNotFound() throws Exception {
+		File directory = Storages.directory();
+		FilePersistentStorage storage = open(directory, "-stripe", "band");
+		Map<Long, Block> written = write(storage, 0, COLUMNS);
+		List<Long> ids = new ArrayList<>(written.keySet());
+		ids.sort(null);
+		List<Long> forgotten = new ArrayList<>(ids.subList(ids.size() - 30, ids.size()));
+		storage.forget(forgotten);
+		written.keySet().removeAll(forgotten);
+		storage.close();
+		storage = open(directory, "-stripe", "band");
+		assertFound("band", storage, written);
+		assertTrue("forgotten ids are not handed out again", storage.nextId() > ids.get(ids.size() - 1));
+		storage.close();
+	}
+
+	public void testTornManifestRecordIsCut() throws Exception {
+		File directory = Storages.directory();
+		FilePersistentStorage storage = open(directory);
+		Map<Long, Block> written = write(storage, 0, COLUMNS);
+		storage.close();
+		File manifest = new File(directory, "manifest");
+		try (RandomAccessFile file = new RandomAccessFile(manifest, "rw")) {
+			file.setLength(file.length() - 5);
+		}
+		long cut = manifest.length();
+		storage = open(directory);
+		assertEquals(written.size() - 1, storage.takeRecovered().size());
+		assertTrue(manifest.length() < cut);
+		storage.close();
+	}
+
+	public void testOutdatedManifestIsRewritten() throws Exception {
+		File directory = Storages.directory();
+		FilePersistentStorage storage = open(directory, "-segmentSlots", "8192");
+		Map<Long, Block> written = write(storage, 0, COLUMNS / 2);
+		for (int k = 0; k < 100; k++) {
+			storage.relocate(new ArrayList<>(written.keySet()));
+		}
+		storage.close();
+		File manifest = new File(directory, "manifest");
+		long outdated = manifest.length();
+		storage = open(directory, "-segmentSlots", "8192");
+		assertTrue(manifest.length() * 50 < outdated);
+		assertFound("rewritten", storage, written);
+		storage.close();
+		storage = open(directory, "-segmentSlots", "8192");
+		assertFound("reopened", storage, written);
+		storage.close();
+	}
+
+	public void testUnknownPlacementIsRejected() throws Exception {
+		try {
+			new FilePersistentStorage(Storages.directory().getPath(), "", 1, "id", "packed", 4096, "none", 50, 64, false, 1024,
+					"file", () -> new DeviceModel.Ideal(), 0, "zorderr", 64, "none", "", 0, N, P, L);
+			fail("unknown placement accepted");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("zorderr"));
+		}
+	}
+
+	private static FilePersistentStorage open(File directory, String... options) throws Exception {
+		return Storages.injector(directory, N, P, L, options).getInstance(FilePersistentStorage.class);
+	}
+
+	/**
+	 * Columns of the two common bands and the special blocks of the rows of the given columns.
+	 */
+	private static Map<Long, Block> write(FilePersistentStorage storage, int from, int to) throws Exception {
+		Map<Long, Block> written = new HashMap<>();
+		int specialRows = P * L / (N % L);
+		Block special = new Block(specialRows, N % L);
+		for (int column = from; column < to; column++) {
+			List<Block> blocks = new ArrayList<>();
+			for (int band = 0; band < N / L; band++) {
+				Block block = new Block(P, L);
+				for (long t = column * P; t < (column + 1) * P; t++) {
+					block.tryAdd(Storages.vector(0, t, N).cutCopy(band * L, band * L + L - 1));
+				}
+				block.pack(storage.nextId(storage.spanFor(block, band * L)), band * L);
+				blocks.add(block);
+			}
+			for (long t = column * P; t < (column + 1) * P; t++) {
+				if (special.tryAdd(Storages.vector(0, t, N).cutCopy(N / L * L, N - 1))) {
+					special.pack(storage.nextId(storage.spanFor(special, N / L * L)), N / L * L);
+					blocks.add(special);
+					special = new Block(specialRows, N % L);
+				}
+			}
+			storage.addAll(blocks);
+			for (Block block : blocks) {
+				written.put(block.getHeader().getId(), block);
+			}
+		}
+		return written;
+	}
+
+	private static void assertFound(String layout, FilePersistentStorage storage, Map<Long, Block> written) throws Exception {
+		List<BlockHeader> recovered = storage.takeRecovered();
+		assertEquals(layout, written.size(), recovered.size());
+		for (BlockHeader header : recovered) {
+			Block expected = written.get(header.getId());
+			assertNotNull(layout + " found block " + header.getId(), expected);
+			assertEquals(layout, expected.getHeader(), header);
+			assertEquals(layout, expected.getHeader().getSummary().getMax(0), header.getSummary().getMax(0));
+		}
+		Map<Long, Block> read = storage.getAll(written.keySet());
+		for (Block expected : written.values()) {
+			List<Vector> rows = read.get(expected.getHeader().getId()).getData();
+			assertEquals(layout, expected.getData().size(), rows.size());
+			for (int r = 0; r < rows.size(); r++) {
+				assertEquals(layout, expected.getData().get(r).getTimestamp(), rows.get(r).getTimestamp());
+				assertTrue(layout, Arrays.equals(expected.getData().get(r).getVector(), rows.get(r).getVector()));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class GroupCommitterTest extends TestCase {
+
+	private final List<Integer> batches = new CopyOnWriteArrayList<>();
+
+	public void testBlocksAreForcedWithinTheInterval() throws Exception {
+		GroupCommitter committer = new GroupCommitter(batches::add, 50, 1000);
+		try {
+			long start = System.nanoTime();
+			CompletableFuture<Void> first = committer.written();
+			CompletableFuture<Void> second = committer.written();
+			assertSame(first, second);
+			first.get(5, TimeUnit.SECONDS);
+			long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertTrue("forced after " + waited + " msec", waited < 1000);
+			assertEquals(1, batches.size());
+			assertEquals(2, (int) batches.get(0));
+		} finally {
+			committer.close();
+		}
+	}
+
+	public void testFullBatchIsForcedWithoutWaitingForTheInterval() throws Exception {
+		GroupCommitter committer = new GroupCommitter(batches::add, TimeUnit.MINUTES.toMillis(10), 4);
+		try {
+			CompletableFuture<Void> batch = null;
+			for (int k = 0; k < 4; k++) {
+				batch = committer.written();
+			}
+			batch.get(5, TimeUnit.SECONDS);
+			assertEquals(4, (int) batches.get(0));
+			CompletableFuture<Void> next = committer.written();
+			assertNotSame(batch, next);
+			assertFalse(next.isDone());
+		} finally {
+			committer.close();
+		}
+		assertEquals(2, batches.size());
+		assertEquals(1, (int) batches.get(1));
+	}
+
+	public void testLoggedRecordsAloneAreForced() throws Exception {
+		GroupCommitter committer = new GroupCommitter(batches::add, 20, 64);
+		try {
+			committer.logged().get(5, TimeUnit.SECONDS);
+			assertEquals(0, (int) batches.get(0));
+			Thread.sleep(100);
+			assertEquals("nothing pending is not forced", 1, batches.size());
+		} finally {
+			committer.close();
+		}
+	}
+
+	public void testWritersWaitForTheGroupCommit() throws Exception {
+		FilePersistentStorage storage = Storages.injector(Storages.directory(), 10, 4, 5,
+				"-durability", "group", "-commitMillis", "20", "-commitBlocks", "1000", "-commitWait")
+				.getInstance(FilePersistentStorage.class);
+		try {
+			for (int k = 0; k < 3; k++) {
+				Block block = new Block(4, 5);
+				for (long t = k * 4; t < (k + 1) * 4; t++) {
+					block.tryAdd(Storages.vector(0, t, 10).cutCopy(0, 4));
+				}
+				block.pack(storage.nextId(), 0);
+				storage.add(block);
+				assertTrue(storage.getFsyncCount() > k);
+			}
+		} finally {
+			storage.close();
+		}
+	}
+
+}
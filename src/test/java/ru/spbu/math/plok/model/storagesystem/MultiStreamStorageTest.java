@@ -0,0 +1,64 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+public class MultiStreamStorageTest extends TestCase {
+
+	private static final int[] LENGTHS = {12, 23, 40};
+	private static final int VECTORS = 400;
+	private static final long CACHE_BYTES = 32 * 1024;
+
+	private MultiStreamStorage engine;
+
+	@Override
+	protected void setUp() throws Exception {
+		engine = Storages.injector(Storages.directory(), 10, 4, 5, "-cacheBytes", String.valueOf(CACHE_BYTES))
+				.getInstance(MultiStreamStorage.class);
+		for (long t = 0; t < VECTORS; t++) {
+			for (int s = 0; s < LENGTHS.length; s++) {
+				engine.put("s" + s, Storages.vector(s, t, LENGTHS[s]));
+			}
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		engine.close();
+	}
+
+	public void testAnswersOfStreamsOfDifferentLengths() throws Exception {
+		Random random = new Random(7);
+		for (int k = 0; k < 200; k++) {
+			int s = random.nextInt(LENGTHS.length);
+			int i1 = random.nextInt(LENGTHS[s]);
+			int i2 = i1 + random.nextInt(LENGTHS[s] - i1);
+			long t1 = random.nextInt(VECTORS);
+			long t2 = Math.min(VECTORS - 1, t1 + random.nextInt(60));
+			int cells = Storages.checkedCells(s, engine.serve("s" + s, new Query(i1, i2, t1, t2)), i1, i2, t1, t2);
+			assertEquals("cells of stream " + s, (i2 - i1 + 1) * (t2 - t1 + 1), cells);
+		}
+		assertEquals(LENGTHS.length, engine.getStreamCount());
+	}
+
+	public void testCacheStaysWithinItsBytes() throws Exception {
+		for (int s = 0; s < LENGTHS.length; s++) {
+			engine.serve("s" + s, new Query(0, LENGTHS[s] - 1, 0, VECTORS - 1));
+		}
+		assertTrue(engine.getCachedBytes() > 0);
+		assertTrue("cached " + engine.getCachedBytes(), engine.getCachedBytes() <= CACHE_BYTES);
+	}
+
+	public void testLengthOfAStreamIsFixed() throws Exception {
+		try {
+			engine.put("s0", Storages.vector(0, VECTORS, LENGTHS[0] + 1));
+			fail("a vector of another length went into the stream");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
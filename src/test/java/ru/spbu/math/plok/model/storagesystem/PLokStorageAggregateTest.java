@@ -0,0 +1,83 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.client.ValuePredicate;
+
+/**
+ * Vectors of 23 values in blocks of 4 rows and 5 columns, the last 3 rows still open.
+ */
+public class PLokStorageAggregateTest extends TestCase {
+
+	private static final int N = 23;
+	private static final int VECTORS = 103;
+
+	private PLokStorage storage;
+
+	@Override
+	protected void setUp() throws Exception {
+		File directory = Storages.directory();
+		storage = Storages.plok(directory, N, 4, 5);
+		for (long t = 0; t < VECTORS; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		storage.close();
+	}
+
+	/**
+	 * Aggregate of the rectangle computed value by value.
+	 */
+	private static Aggregate scanned(int i1, int i2, long t1, long t2, ValuePredicate predicate) {
+		Aggregate expected = new Aggregate();
+		for (long t = Math.max(t1, 0); t <= Math.min(t2, VECTORS - 1); t++) {
+			if (predicate != null && !predicate.test(Storages.value(0, t, predicate.getIndex())))
+				continue;
+			for (int i = i1; i <= i2; i++) {
+				expected.add(Storages.value(0, t, i));
+			}
+		}
+		return expected;
+	}
+
+	private void assertMatchesScan(int i1, int i2, long t1, long t2, ValuePredicate predicate) throws Exception {
+		Aggregate expected = scanned(i1, i2, t1, t2, predicate);
+		Aggregate actual = storage.aggregate(new Query(i1, i2, t1, t2, predicate));
+		String rectangle = "[" + i1 + ", " + i2 + "] x [" + t1 + ", " + t2 + "] " + predicate;
+		assertEquals(rectangle, expected.getCount(), actual.getCount());
+		assertEquals(rectangle, expected.getMin(), actual.getMin(), 0f);
+		assertEquals(rectangle, expected.getMax(), actual.getMax(), 0f);
+		assertEquals(rectangle, expected.getSum(), actual.getSum(), 0.0);
+	}
+
+	public void testAggregateMatchesAFullScan() throws Exception {
+		assertMatchesScan(0, N - 1, 0, VECTORS - 1, null);
+		assertMatchesScan(0, 9, 8, 39, null);
+		assertMatchesScan(3, 21, 5, 98, null);
+		assertMatchesScan(20, 22, 0, 102, null);
+		assertMatchesScan(7, 7, 99, 150, null);
+		assertTrue((long) storage.getStatistics().get("summaryBlockCount") > 0);
+		assertTrue((long) storage.getStatistics().get("scannedBlockCount") > 0);
+		assertTrue((long) storage.getStatistics().get("memtableBlockCount") > 0);
+	}
+
+	public void testAggregateWithAPredicateMatchesAFullScan() throws Exception {
+		ValuePredicate predicate = ValuePredicate.between(4, Storages.value(0, 10, 4), Storages.value(0, 57, 4));
+		assertMatchesScan(0, N - 1, 0, VECTORS - 1, predicate);
+		assertMatchesScan(2, 17, 30, 80, ValuePredicate.greaterThan(21, Storages.value(0, 64, 21)));
+		assertMatchesScan(0, 4, 0, VECTORS - 1, ValuePredicate.lessThan(0, 0f));
+	}
+
+	public void testEmptyRectangleHasNoValues() throws Exception {
+		Aggregate empty = storage.aggregate(new Query(0, N - 1, VECTORS + 10, VECTORS + 20));
+		assertEquals(0, empty.getCount());
+		assertTrue(Double.isNaN(empty.getMean()));
+	}
+
+}
@@ -0,0 +1,67 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+/**
+ * Vectors of 10 values in blocks of 4 rows and 5 columns, read by a batch of overlapping queries
+ * after a restart, so the cache starts empty.
+ */
+public class PLokStorageBatchTest extends TestCase {
+
+	private static final int N = 10;
+	private static final int VECTORS = 100;
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Storages.directory();
+		PLokStorage storage = Storages.plok(directory, N, 4, 5);
+		for (long t = 0; t < VECTORS; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+		storage.close();
+	}
+
+	public void testBatchSharesBlockFetches() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, 4, 5);
+		try {
+			List<List<Block>> answers = storage.serveBatch(Arrays.asList(
+					new Query(0, 9, 0, 39), new Query(0, 4, 20, 59), new Query(5, 9, 20, 39)));
+			assertEquals(3, answers.size());
+			assertEquals(10 * 40, Storages.checkedCells(0, answers.get(0), 0, 9, 0, 39));
+			assertEquals(5 * 40, Storages.checkedCells(0, answers.get(1), 0, 4, 20, 59));
+			assertEquals(5 * 20, Storages.checkedCells(0, answers.get(2), 5, 9, 20, 39));
+			assertEquals(35L, storage.getStatistics().get("batchRequestedBlocks"));
+			assertEquals(25L, storage.getStatistics().get("batchFetchedBlocks"));
+			assertEquals(25L, storage.getStatistics().get("blocksRead"));
+			assertEquals(3L, storage.getStatistics().get("requestCount"));
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testBatchAnswersMatchSingleQueries() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, 4, 5);
+		try {
+			List<Query> queries = Arrays.asList(new Query(2, 7, 10, 30), new Query(0, 9, 95, 120), new Query(3, 3, 50, 50));
+			List<List<Block>> answers = storage.serveBatch(queries);
+			for (int k = 0; k < queries.size(); k++) {
+				List<Block> single = storage.serve(queries.get(k));
+				assertEquals(single.size(), answers.get(k).size());
+				for (int b = 0; b < single.size(); b++) {
+					assertEquals(single.get(b).getHeader(), answers.get(k).get(b).getHeader());
+				}
+			}
+		} finally {
+			storage.close();
+		}
+	}
+
+}
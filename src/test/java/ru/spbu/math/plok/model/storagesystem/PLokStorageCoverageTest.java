@@ -0,0 +1,73 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+/**
+ * Vectors of 23 values in blocks of 4 rows and 5 columns, the special band in blocks of 6 rows
+ * and the last 3 rows still open, counted after a restart.
+ */
+public class PLokStorageCoverageTest extends TestCase {
+
+	private static final int N = 23;
+	private static final int VECTORS = 103;
+
+	private PLokStorage storage;
+
+	@Override
+	protected void setUp() throws Exception {
+		File directory = Storages.directory();
+		PLokStorage writer = Storages.plok(directory, N, 4, 5, "-wal");
+		for (long t = 0; t < VECTORS; t++) {
+			writer.put(Storages.vector(0, t, N));
+		}
+		writer.close();
+		storage = Storages.plok(directory, N, 4, 5, "-wal");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		storage.close();
+	}
+
+	public void testCoverageIsAnsweredWithoutReadingBlocks() throws Exception {
+		Query[] queries = {new Query(0, N - 1, 0, VECTORS - 1), new Query(0, 9, 8, 39), new Query(3, 21, 10, 37),
+				new Query(20, 22, 96, 102)};
+		for (Query q : queries) {
+			Coverage coverage = storage.coverage(q);
+			long rows = Math.min(q.getTimeEnd(), VECTORS - 1) - q.getTimeStart() + 1;
+			assertEquals(q.toString(), q.getIndexEnd() - q.getIndexStart() + 1, coverage.getWidth());
+			assertTrue(q + " " + coverage, coverage.getMinRows() <= rows && rows <= coverage.getMaxRows());
+			assertTrue(q + " " + coverage, Math.abs(coverage.getEstimatedRows() - rows) <= 2);
+			assertTrue(coverage.exists());
+		}
+		assertEquals(0L, storage.getStatistics().get("blocksRead"));
+		assertEquals((long) queries.length, storage.getStatistics().get("coverageCount"));
+	}
+
+	public void testCoverageOfAlignedRangeIsExact() throws Exception {
+		Coverage coverage = storage.coverage(new Query(0, 9, 8, 39));
+		assertEquals(32, coverage.getMinRows());
+		assertEquals(32, coverage.getMaxRows());
+		assertEquals(8 * 2, coverage.getBlockCount());
+		assertEquals(coverage.getBlockCount(), coverage.getInnerBlockCount());
+		assertEquals(coverage.getBlockCount(), storage.serve(new Query(0, 9, 8, 39)).size());
+	}
+
+	public void testCoverageCountsTheBlocksServed() throws Exception {
+		Query q = new Query(3, 21, 10, 102);
+		Coverage coverage = storage.coverage(q);
+		assertEquals(0L, storage.getStatistics().get("blocksRead"));
+		assertEquals(storage.serve(q).size(), coverage.getBlockCount());
+	}
+
+	public void testEmptyRectangleIsNotCovered() throws Exception {
+		assertFalse(storage.coverage(new Query(0, N - 1, VECTORS + 1, VECTORS + 50)).mayExist());
+		assertFalse(storage.coverage(new Query(N, N + 5, 0, VECTORS - 1)).mayExist());
+		assertEquals(0L, storage.getStatistics().get("blocksRead"));
+	}
+
+}
@@ -0,0 +1,83 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+/**
+ * Vectors of 23 values in blocks of 4 rows and 5 columns, the special band in blocks of 6 rows
+ * and the last 3 rows still open, read by a cursor after a restart.
+ */
+public class PLokStorageCursorTest extends TestCase {
+
+	private static final int N = 23;
+	private static final int VECTORS = 103;
+	private static final int STEP_BLOCKS = N / 5;		// a step of the cursor is a column or a special block
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Storages.directory();
+		PLokStorage storage = Storages.plok(directory, N, 4, 5, "-wal");
+		for (long t = 0; t < VECTORS; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+		storage.close();
+	}
+
+	public void testCursorReadsAsTheConsumerAdvances() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, 4, 5, "-wal");
+		try {
+			BlockCursor cursor = storage.cursor(new Query(0, N - 1, 0, VECTORS - 1));
+			assertTrue(cursor.hasNext());
+			cursor.next();
+			long read = (long) storage.getStatistics().get("blocksRead");
+			assertTrue("read " + read + " blocks for the first one", read <= 2 * STEP_BLOCKS);
+			cursor.close();
+			assertFalse(cursor.hasNext());
+			assertTrue((long) storage.getStatistics().get("blocksRead") <= 2 * STEP_BLOCKS);
+			assertTrue((long) storage.getStatistics().get("cursorMaxWindow") <= 2 * STEP_BLOCKS);
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testCursorReturnsTheRowsOfServe() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, 4, 5, "-wal");
+		try {
+			Query[] queries = {new Query(0, N - 1, 0, VECTORS - 1), new Query(3, 21, 17, 101), new Query(20, 22, 40, 60)};
+			for (Query q : queries) {
+				List<Block> served = storage.serve(q);
+				List<Block> cursored = new ArrayList<>();
+				try (BlockCursor cursor = storage.cursor(q)) {
+					while (cursor.hasNext()) {
+						cursored.add(cursor.next());
+					}
+				}
+				assertEquals(q.toString(), served.size(), cursored.size());
+				assertEquals(q.toString(), headers(served), headers(cursored));
+				int cells = (q.getIndexEnd() - q.getIndexStart() + 1) * (int) (q.getTimeEnd() - q.getTimeStart() + 1);
+				assertEquals(cells, Storages.checkedCells(0, cursored, q.getIndexStart(), q.getIndexEnd(), q.getTimeStart(), q.getTimeEnd()));
+			}
+		} finally {
+			storage.close();
+		}
+	}
+
+	private static Set<String> headers(List<Block> blocks) {
+		Set<String> headers = new HashSet<>();
+		for (Block block : blocks) {
+			BlockHeader header = block.getHeader();
+			headers.add(header.gettBeg() + ".." + header.gettEnd() + " x " + header.getiBeg() + ".." + header.getiEnd());
+		}
+		return headers;
+	}
+
+}
@@ -0,0 +1,45 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+public class PLokStorageProcessTest extends TestCase {
+
+	private static final int N = 23;
+	private static final int VECTORS = 2000;
+
+	public void testForkedFoldKeepsTimeOrder() throws Exception {
+		PLokStorage storage = Storages.plok(Storages.directory(), N, 4, 5, "-forkMicros", "1");
+		try {
+			for (long t = 0; t < VECTORS; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			Query query = new Query(0, N - 1, 0, VECTORS - 1);
+			List<BlockHeader> answer = null;
+			for (int k = 0; k < 3; k++) {
+				answer = storage.process(query, block -> Collections.singletonList(block.getHeader()), (left, right) -> {
+					List<BlockHeader> both = new ArrayList<>(left);
+					both.addAll(right);
+					return both;
+				}, Collections::<BlockHeader>emptyList);
+			}
+			assertTrue((long) storage.getStatistics().get("forkTaskCount") > 1);
+			long cells = 0;
+			for (int k = 0; k < answer.size(); k++) {
+				BlockHeader header = answer.get(k);
+				if (k > 0)
+					assertTrue("block " + k + " out of time order", answer.get(k - 1).gettBeg() <= header.gettBeg());
+				cells += (header.gettEnd() - header.gettBeg() + 1) * (header.getiEnd() - header.getiBeg() + 1);
+			}
+			assertTrue("cells " + cells, cells >= (long) N * (VECTORS - 4));
+		} finally {
+			storage.close();
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+/**
+ * Vectors of 23 values in blocks of 4 rows and 5 columns: the special band holds the last
+ * 3 values in blocks of 6 rows.
+ */
+public class PLokStorageRecoveryTest extends TestCase {
+
+	private static final int N = 23;
+	private static final int P = 4;
+	private static final int L = 5;
+	private static final int VECTORS = 103;		// 3 rows left in the open column, 1 in the open special block
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Storages.directory();
+	}
+
+	public void testOpenBlocksAreReplayedFromTheLog() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, P, L, "-wal");
+		for (long t = 0; t < VECTORS; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+		storage.close();
+		storage = Storages.plok(directory, N, P, L, "-wal");
+		try {
+			assertEquals(3L, storage.getStatistics().get("recoveredVectorCount"));
+			assertEquals(20 * 3, Storages.checkedCells(0, storage.serve(new Query(0, 19, 100, 102)), 0, 19, 100, 102));
+			assertEquals(3, Storages.checkedCells(0, storage.serve(new Query(20, 22, 102, 102)), 20, 22, 102, 102));
+			for (long t = VECTORS; t < VECTORS + 8; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			long end = VECTORS + 7;
+			assertEquals(20 * 11, Storages.checkedCells(0, storage.serve(new Query(0, 19, 100, end)), 0, 19, 100, end));
+			assertEquals(3 * 9, Storages.checkedCells(0, storage.serve(new Query(20, 22, 102, end)), 20, 22, 102, end));
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testCheckpointWaitsForTheGroupCommit() throws Exception {
+		String[] options = {"-wal", "-durability", "group", "-commitMillis", "60000", "-commitBlocks", "1000000"};
+		PLokStorage storage = Storages.plok(directory, N, P, L, options);
+		try {
+			for (long t = 0; t < VECTORS; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			assertEquals(0L, storage.getStatistics().get("walCheckpointSeq"));
+			assertEquals(0L, storage.getStatistics().get("walForceCount"));
+		} finally {
+			storage.close();
+		}
+		storage = Storages.plok(directory, N, P, L, options);
+		try {
+			assertEquals(3L, storage.getStatistics().get("recoveredVectorCount"));
+			assertEquals(N * VECTORS, Storages.checkedCells(0, storage.serve(new Query(0, N - 1, 0, VECTORS - 1)), 0, N - 1, 0, VECTORS - 1));
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testCheckpointFollowsTheGroupCommits() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, P, L, "-wal", "-durability", "group", "-commitMillis", "60000", "-commitBlocks", "4");
+		try {
+			for (long t = 0; t < VECTORS; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			for (long t = VECTORS; (long) storage.getStatistics().get("walCheckpointSeq") == 0 && t < VECTORS + 200; t++) {
+				Thread.sleep(20);		// the commit completes on the group commit thread, the next put takes the checkpoint
+				storage.put(Storages.vector(0, t, N));
+			}
+			assertTrue((long) storage.getStatistics().get("walCheckpointSeq") > 0);
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testRestartServesEveryRowOnce() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, P, L, "-wal");
+		for (long t = 0; t < VECTORS; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+		storage.close();
+		storage = Storages.plok(directory, N, P, L, "-wal");
+		try {
+			assertTrue((long) storage.getStatistics().get("recoveredBlockCount") > 0);
+			assertEquals(N * VECTORS, Storages.checkedCells(0, storage.serve(new Query(0, N - 1, 0, VECTORS - 1)), 0, N - 1, 0, VECTORS - 1));
+			for (long t = VECTORS; t < 2 * VECTORS; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+		} finally {
+			storage.close();
+		}
+		storage = Storages.plok(directory, N, P, L, "-wal");
+		try {
+			long end = 2 * VECTORS - 1;
+			assertEquals(N * 2 * VECTORS, Storages.checkedCells(0, storage.serve(new Query(0, N - 1, 0, end)), 0, N - 1, 0, end));
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testMergedSpecialBlocksWinOverTheirSources() throws Exception {
+		int vectors = 120;		// no open rows left
+		PLokStorage storage = Storages.plok(directory, N, P, L, "-compactFactor", "2");
+		for (long t = 0; t < vectors; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+		storage.compact();
+		assertTrue((long) storage.getStatistics().get("compactionCount") > 0);
+		storage.close();
+		storage = Storages.plok(directory, N, P, L, "-compactFactor", "2");
+		try {
+			assertEquals(N * vectors, Storages.checkedCells(0, storage.serve(new Query(0, N - 1, 0, vectors - 1)), 0, N - 1, 0, vectors - 1));
+			assertEquals(vectors / P * (N / L) + vectors / (2 * (P * L / (N % L))), storage.getStatistics().get("blockCount"));
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testCacheIsWarmedAfterARestart() throws Exception {
+		String[] options = {"-cacheSnapshotMillis", "60000"};
+		PLokStorage storage = Storages.plok(directory, N, P, L, options);
+		for (long t = 0; t < VECTORS; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+		for (int k = 0; k < 3; k++) {
+			storage.serve(new Query(0, N - 1, 0, 40));
+		}
+		storage.close();
+		storage = Storages.plok(directory, N, P, L, options);
+		try {
+			long deadline = System.currentTimeMillis() + 10000;
+			while ((long) storage.getStatistics().get("warmedUpBlocks") == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertTrue((long) storage.getStatistics().get("warmedUpBlocks") > 0);
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testFlippedByteIsACorruptBlock() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, P, L);
+		try {
+			for (long t = 0; t < 2000; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			File segment = segments(directory).get(0);
+			try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+				file.seek(20);
+				int value = file.read();
+				file.seek(20);
+				file.write(value ^ 0x01);
+			}
+			long corrupt = (long) storage.getStatistics().get("corruptBlocks");
+			int failed = 0;
+			for (int band = 0; band < N / L; band++) {
+				try {
+					storage.serve(new Query(band * L, band * L, 0, 0));
+				} catch (Exception e) {
+					failed++;
+				}
+			}
+			assertEquals(1, failed);
+			assertEquals(corrupt + 1, storage.getStatistics().get("corruptBlocks"));
+		} finally {
+			storage.close();
+		}
+	}
+
+	private static List<File> segments(File directory) {
+		List<File> segments = new ArrayList<>();
+		File[] files = directory.listFiles();
+		for (File file : files == null ? new File[0] : files) {
+			if (file.isDirectory()) {
+				segments.addAll(segments(file));
+			} else if (file.getParentFile().getName().equals("files") && file.getName().endsWith(".0") && file.length() > 0) {
+				segments.add(file);
+			}
+		}
+		return segments;
+	}
+
+}
@@ -0,0 +1,74 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.util.List;
+
+import com.google.inject.ProvisionException;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Vectors of 10 values in blocks of 2 rows and 5 columns, rolled up by 4 into two tiers
+ * of periods 40 and 160.
+ */
+public class PLokStorageRollupTest extends TestCase {
+
+	private static final int N = 10;
+	private static final int VECTORS = 200;
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Storages.directory();
+	}
+
+	public void testCoarseQueryIsServedFromATier() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, 2, 5, "-rollupFactor", "4", "-rollupLevels", "2");
+		try {
+			for (long t = 0; t < VECTORS; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			long deadline = System.currentTimeMillis() + 10000;
+			while (!Integer.valueOf(50).equals(storage.getStatistics().get("rollup_1.blockCount")) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(50, storage.getStatistics().get("rollup_1.blockCount"));
+			Query coarse = new Query(0, N - 1, 0, VECTORS - 1);
+			coarse.setResolution(40);
+			List<Block> blocks = storage.serve(coarse);
+			assertEquals(1L, storage.getStatistics().get("rollupRequestCount"));
+			int cells = 0;
+			for (Block block : blocks) {
+				for (Vector row : block.getData()) {
+					long t = row.getTimestamp();
+					assertEquals(0, t % 4);
+					for (int j = 0; j < block.getL(); j++) {
+						int i = (int) block.getHeader().getiBeg() + j;
+						// average of the values at t to t + 3
+						assertEquals(Storages.value(0, t, i) + 96, row.getVector()[j], 0f);
+						cells++;
+					}
+				}
+			}
+			assertEquals(N * VECTORS / 4, cells);
+			storage.serve(new Query(0, N - 1, 0, VECTORS - 1));
+			assertEquals(1L, storage.getStatistics().get("rollupRequestCount"));
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testTierPeriodOverflowIsRejected() throws Exception {
+		try {
+			Storages.plok(directory, N, 2, 5, "-rollupFactor", "100000", "-rollupLevels", "2");
+			fail("a tier period over Integer.MAX_VALUE was accepted");
+		} catch (ProvisionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Blocks of 4 rows and 5 columns, a few times smaller than the pages of 512 bytes, read one
+ * by one under every layout.
+ */
+public class PageLayoutTest extends TestCase {
+
+	private static final int N = 10;
+	private static final int P = 4;
+	private static final int L = 5;
+	private static final int PAGE_SIZE = 512;
+	private static final int BLOCKS = 90;
+
+	private static FilePersistentStorage open(String layout) throws Exception {
+		File directory = Storages.directory();
+		return Storages.injector(directory, N, P, L, "-layout", layout, "-pageSize", String.valueOf(PAGE_SIZE))
+				.getInstance(FilePersistentStorage.class);
+	}
+
+	/**
+	 * Writes the blocks and reads every one back on its own.
+	 * @return ids of the blocks, in the order written
+	 */
+	private static List<Long> writeAndRead(FilePersistentStorage storage) throws Exception {
+		List<Long> ids = new ArrayList<>();
+		for (int k = 0; k < BLOCKS; k++) {
+			Block block = new Block(P, L);
+			for (long t = k * P; t < (k + 1) * P; t++) {
+				block.tryAdd(Storages.vector(0, t, N).cutCopy(0, L - 1));
+			}
+			block.pack(storage.nextId(storage.spanFor(block, 0)), 0);
+			storage.add(block);
+			ids.add(block.getHeader().getId());
+		}
+		for (long id : ids) {
+			assertEquals(P, storage.get(id).getData().size());
+		}
+		return ids;
+	}
+
+	public void testPackedBlocksStraddlePages() throws Exception {
+		FilePersistentStorage storage = open(FilePersistentStorage.LAYOUT_PACKED);
+		try {
+			int blockSize = storage.getBlockSize();
+			assertTrue(blockSize < PAGE_SIZE && PAGE_SIZE % blockSize != 0);
+			long expected = 0;
+			for (long slot : writeAndRead(storage)) {
+				expected += (slot * blockSize + blockSize - 1) / PAGE_SIZE - slot * blockSize / PAGE_SIZE + 1;
+			}
+			assertEquals(expected, storage.getPagesRead());
+			assertTrue(storage.getPagesRead() > BLOCKS);
+			assertEquals((long) BLOCKS * blockSize, storage.getBytesRead());
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testAlignedBlockTakesAPage() throws Exception {
+		FilePersistentStorage storage = open(FilePersistentStorage.LAYOUT_ALIGNED);
+		try {
+			writeAndRead(storage);
+			assertEquals(BLOCKS, storage.getPagesRead());
+			assertEquals((long) BLOCKS * storage.getBlockSize(), storage.getBytesRead());
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testPagedBlocksNeverStraddlePages() throws Exception {
+		FilePersistentStorage storage = open(FilePersistentStorage.LAYOUT_PAGED);
+		try {
+			writeAndRead(storage);
+			assertEquals(BLOCKS, storage.getPagesRead());
+			assertEquals((long) BLOCKS * storage.getBlockSize(), storage.getBytesRead());
+		} finally {
+			storage.close();
+		}
+	}
+
+}
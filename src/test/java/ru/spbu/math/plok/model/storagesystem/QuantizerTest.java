@@ -0,0 +1,166 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.generator.Vector;
+
+public class QuantizerTest extends TestCase {
+
+	private static final int N = 23;
+	private static final int VECTORS = 400;
+
+	public void testHalfOfExactValues() {
+		assertEquals(0x3c00, Quantizer.toHalf(1f));
+		assertEquals((short) 0xc000, Quantizer.toHalf(-2f));
+		assertEquals(0x7bff, Quantizer.toHalf(65504f));
+		assertEquals(0x0400, Quantizer.toHalf((float) Math.pow(2, -14)));
+		assertEquals(0x0000, Quantizer.toHalf(0f));
+		assertEquals((short) 0x8000, Quantizer.toHalf(-0f));
+		assertEquals(Float.floatToIntBits(-0f), Float.floatToIntBits(Quantizer.fromHalf((short) 0x8000)));
+	}
+
+	public void testHalfSubnormals() {
+		assertEquals(0x0001, Quantizer.toHalf((float) Math.pow(2, -24)));
+		assertEquals(0x03ff, Quantizer.toHalf(1023 * (float) Math.pow(2, -24)));
+		assertEquals((float) Math.pow(2, -24), Quantizer.fromHalf((short) 0x0001));
+		assertEquals(1023 * (float) Math.pow(2, -24), Quantizer.fromHalf((short) 0x03ff));
+		assertEquals(0x0000, Quantizer.toHalf((float) Math.pow(2, -26)));
+		assertEquals((short) 0x8001, Quantizer.toHalf((float) -Math.pow(2, -24)));
+	}
+
+	public void testHalfTiesToEven() {
+		assertEquals(0x3c00, Quantizer.toHalf(1f + (float) Math.pow(2, -11)));
+		assertEquals(0x3c02, Quantizer.toHalf(1f + 3 * (float) Math.pow(2, -11)));
+		assertEquals(0x3c01, Quantizer.toHalf(1f + 1.5f * (float) Math.pow(2, -11)));
+		assertEquals(0x0000, Quantizer.toHalf((float) Math.pow(2, -25)));
+		assertEquals(0x0002, Quantizer.toHalf(3 * (float) Math.pow(2, -25)));
+		assertEquals(0x0001, Quantizer.toHalf(1.5f * (float) Math.pow(2, -25)));
+	}
+
+	public void testHalfOverflowsToInfinity() {
+		assertEquals(0x7bff, Quantizer.toHalf(65519f));
+		assertEquals(0x7c00, Quantizer.toHalf(65520f));
+		assertEquals(0x7c00, Quantizer.toHalf(1e10f));
+		assertEquals((short) 0xfc00, Quantizer.toHalf(-1e10f));
+		assertEquals(0x7c00, Quantizer.toHalf(Float.POSITIVE_INFINITY));
+		assertEquals(Float.NEGATIVE_INFINITY, Quantizer.fromHalf((short) 0xfc00));
+	}
+
+	public void testHalfNaN() {
+		assertTrue(Float.isNaN(Quantizer.fromHalf(Quantizer.toHalf(Float.NaN))));
+		assertTrue(Float.isNaN(Quantizer.fromHalf(Quantizer.toHalf(Float.intBitsToFloat(0x7f800001)))));
+		assertTrue(Float.isNaN(Quantizer.fromHalf(Quantizer.toHalf(Float.intBitsToFloat(0xffc00000)))));
+	}
+
+	public void testEveryHalfSurvivesARoundTrip() {
+		for (int bits = 0; bits <= 0xffff; bits++) {
+			short half = (short) bits;
+			float value = Quantizer.fromHalf(half);
+			if (Float.isNaN(value))
+				assertTrue(Float.isNaN(Quantizer.fromHalf(Quantizer.toHalf(value))));
+			else
+				assertEquals("half " + Integer.toHexString(bits), half, Quantizer.toHalf(value));
+		}
+	}
+
+	public void testByteErrorOfExactLevels() {
+		List<Vector> rows = rows(new float[] {0, 7}, new float[] {255, 7}, new float[] {17, 7});
+		assertEquals(0.0, Quantizer.byteError(rows, 2));
+		assertEquals(Quantizer.BYTE, Quantizer.choose(rows, 2, Quantizer.BYTE, 1e-6f));
+	}
+
+	public void testByteErrorIsHalfAStepAtMost() {
+		List<Vector> rows = rows(new float[] {0}, new float[] {0.3f}, new float[] {255});
+		double error = Quantizer.byteError(rows, 1);
+		assertEquals(0.3, error, 1e-6);
+		assertTrue(error <= 0.5);
+	}
+
+	public void testChooseRefinesToTheCoarsestEncodingWithinTheBound() {
+		List<Vector> rows = rows(new float[] {0}, new float[] {0.3f}, new float[] {255});
+		assertEquals(Quantizer.BYTE, Quantizer.choose(rows, 1, Quantizer.BYTE, 0));
+		assertEquals(Quantizer.BYTE, Quantizer.choose(rows, 1, Quantizer.BYTE, 0.5f));
+		assertEquals(Quantizer.HALF, Quantizer.choose(rows, 1, Quantizer.BYTE, 0.1f));
+		assertEquals(Quantizer.FLOAT, Quantizer.choose(rows, 1, Quantizer.BYTE, 1e-6f));
+		assertEquals(Quantizer.HALF, Quantizer.choose(rows, 1, Quantizer.HALF, 0.5f));
+		assertEquals(Quantizer.FLOAT, Quantizer.choose(rows, 1, Quantizer.FLOAT, 0));
+	}
+
+	public void testValuesOutOfRangeRuleOutAnEncoding() {
+		List<Vector> huge = rows(new float[] {0}, new float[] {1e30f});
+		assertEquals(Quantizer.BYTE, Quantizer.choose(huge, 1, Quantizer.BYTE, 0));
+		assertEquals(Quantizer.FLOAT, Quantizer.choose(huge, 1, Quantizer.HALF, 0));
+		List<Vector> infinite = rows(new float[] {0}, new float[] {Float.POSITIVE_INFINITY});
+		assertEquals(Double.POSITIVE_INFINITY, Quantizer.byteError(infinite, 1));
+		assertEquals(Quantizer.HALF, Quantizer.choose(infinite, 1, Quantizer.BYTE, 0));
+	}
+
+	public void testFloatBlocksReadBackExactly() throws Exception {
+		PLokStorage storage = Storages.plok(Storages.directory(), N, 4, 5);
+		try {
+			for (long t = 0; t < VECTORS; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			int cells = Storages.checkedCells(0, storage.serve(new Query(0, N - 1, 0, VECTORS - 1)), 0, N - 1, 0, VECTORS - 1);
+			assertEquals(N * VECTORS, cells);
+			assertEquals(0L, storage.getStatistics().get("refinedBlocks"));
+		} finally {
+			storage.close();
+		}
+	}
+
+	/**
+	 * Blocks of the first half hold two values per column and are stored as bytes, the others
+	 * are refined to floats and take more slots than the configured byte blocks.
+	 */
+	public void testRefinedBlocksTakeMoreSlots() throws Exception {
+		PLokStorage storage = Storages.plok(Storages.directory(), N, 4, 5,
+				"-quantize", "byte", "-quantizeError", "0.001", "-shards", "2", "-stripe", "id");
+		try {
+			for (long t = 0; t < VECTORS; t++) {
+				storage.put(t < VECTORS / 2 ? twoLevels(t) : Storages.vector(0, t, N));
+			}
+			List<Block> blocks = storage.serve(new Query(0, N - 1, 0, VECTORS - 1));
+			int cells = 0;
+			for (Block block : blocks) {
+				for (Vector row : block.getData()) {
+					float[] expected = row.getTimestamp() < VECTORS / 2 ? twoLevels(row.getTimestamp()).getVector()
+							: Storages.vector(0, row.getTimestamp(), N).getVector();
+					float[] actual = row.getVector();
+					for (int j = 0; j < actual.length; j++) {
+						assertEquals(expected[(int) block.getHeader().getiBeg() + j], actual[j], 0.001f);
+						cells++;
+					}
+				}
+			}
+			assertEquals(N * VECTORS, cells);
+			assertTrue((long) storage.getStatistics().get("byteBlocks") > 0);
+			assertTrue((long) storage.getStatistics().get("refinedBlocks") > 0);
+			assertTrue((long) storage.getStatistics().get("cacheMissCount") > 0);
+		} finally {
+			storage.close();
+		}
+	}
+
+	private static Vector twoLevels(long timestamp) {
+		float[] values = new float[N];
+		for (int j = 0; j < N; j++) {
+			values[j] = j + (timestamp % 2) * 10;
+		}
+		return new Vector(timestamp, values);
+	}
+
+	private static List<Vector> rows(float[]... values) {
+		List<Vector> rows = new ArrayList<>(values.length);
+		for (int r = 0; r < values.length; r++) {
+			rows.add(new Vector(r, Arrays.copyOf(values[r], values[r].length)));
+		}
+		return rows;
+	}
+
+}
@@ -0,0 +1,67 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+/**
+ * Vectors of 10 values in blocks of 4 rows and 5 columns, in segments of 64 slots. The blocks of
+ * the two bands alternate on disk, so a read of one band jumps over every other slot.
+ */
+public class ReorganizeTest extends TestCase {
+
+	private static final int N = 10;
+	private static final int VECTORS = 200;
+	private static final String[] OPTIONS = {"-reorganizeMillis", "3600000", "-segmentSlots", "64"};
+
+	public void testRelocatedBlocksStayReadable() throws Exception {
+		File directory = Storages.directory();
+		PLokStorage storage = Storages.plok(directory, N, 4, 5, OPTIONS);
+		Query band = new Query(0, 4, 0, 59);
+		try {
+			for (long t = 0; t < VECTORS; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			for (int k = 0; k < 2; k++) {
+				assertEquals(5 * 60, Storages.checkedCells(0, storage.serve(band), 0, 4, 0, 59));
+			}
+			storage.reorganize();
+			assertEquals(1L, storage.getStatistics().get("reorganizeCount"));
+			assertEquals(15L, storage.getStatistics().get("reorganizedBlocks"));
+			assertEquals(1.0, storage.getStatistics().get("runLengthBeforeReorganize"));
+			assertEquals(15.0, storage.getStatistics().get("runLengthAfterReorganize"));
+			storage.reorganize();
+			assertEquals("placed blocks are left alone", 1L, storage.getStatistics().get("reorganizeCount"));
+		} finally {
+			storage.close();
+		}
+		storage = Storages.plok(directory, N, 4, 5, OPTIONS);
+		try {
+			assertEquals(5 * 60, Storages.checkedCells(0, storage.serve(band), 0, 4, 0, 59));
+			assertEquals(N * VECTORS, Storages.checkedCells(0, storage.serve(new Query(0, N - 1, 0, VECTORS - 1)), 0, N - 1, 0, VECTORS - 1));
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testBlocksOfTheOpenSegmentStay() throws Exception {
+		PLokStorage storage = Storages.plok(Storages.directory(), N, 4, 5, OPTIONS);
+		try {
+			for (long t = 0; t < 100; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			Query band = new Query(5, 9, 0, 99);	// all 50 blocks lie in the first segment, still open
+			for (int k = 0; k < 2; k++) {
+				storage.serve(band);
+			}
+			storage.reorganize();
+			assertEquals(0L, storage.getStatistics().get("reorganizedBlocks"));
+			assertEquals(5 * 100, Storages.checkedCells(0, storage.serve(band), 5, 9, 0, 99));
+		} finally {
+			storage.close();
+		}
+	}
+
+}
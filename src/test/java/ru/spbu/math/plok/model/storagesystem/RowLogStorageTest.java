@@ -0,0 +1,66 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+/**
+ * Records of 10 values, every 8th indexed.
+ */
+public class RowLogStorageTest extends TestCase {
+
+	private static final int N = 10;
+	private static final int VECTORS = 100;
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Storages.directory();
+	}
+
+	private RowLogStorage rowLog(String... options) throws Exception {
+		String[] args = new String[options.length + 4];
+		args[0] = "-S";
+		args[1] = "rowlog";
+		args[2] = "-rowIndexEvery";
+		args[3] = "8";
+		System.arraycopy(options, 0, args, 4, options.length);
+		return (RowLogStorage) Storages.injector(directory, N, 2, 5, args).getInstance(StorageSystem.class);
+	}
+
+	public void testRecordsTakingSeveralSlotsAreServed() throws Exception {
+		// half floats hold t * 64 + j exactly only below 2048, later records are kept as floats in two slots
+		RowLogStorage storage = rowLog("-quantize", "half", "-quantizeError", "0.000001");
+		try {
+			for (long t = 0; t < VECTORS; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			assertEquals(N * 51, Storages.checkedCells(0, storage.serve(new Query(0, N - 1, 10, 60)), 0, N - 1, 10, 60));
+			assertEquals(N * VECTORS, Storages.checkedCells(0, storage.serve(new Query(0, N - 1, 0, VECTORS)), 0, N - 1, 0, VECTORS));
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testSparseIndexIsRebuiltOnOpen() throws Exception {
+		RowLogStorage storage = rowLog();
+		for (long t = 0; t < VECTORS; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+		storage.close();
+		storage = rowLog();
+		try {
+			assertEquals(VECTORS, storage.getBlockCount());
+			assertEquals(13, storage.getStatistics().get("sparseIndexSize"));
+			assertEquals(N * 21, Storages.checkedCells(0, storage.serve(new Query(0, N - 1, 30, 50)), 0, N - 1, 30, 50));
+			storage.put(Storages.vector(0, VECTORS, N));
+			assertEquals(N, Storages.checkedCells(0, storage.serve(new Query(0, N - 1, VECTORS, VECTORS)), 0, N - 1, VECTORS, VECTORS));
+		} finally {
+			storage.close();
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+public class SQLStorageTest extends TestCase {
+
+	private static final int N = 4;
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Storages.directory();
+	}
+
+	private SQLStorage sql() throws Exception {
+		return (SQLStorage) Storages.injector(directory, N, 2, 2, "-S", "sql", "-sqlBatch", "3").getInstance(StorageSystem.class);
+	}
+
+	public void testRepeatedTimestampsAreAllKept() throws Exception {
+		SQLStorage storage = sql();
+		for (long t = 0; t < 10; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+		storage.put(Storages.vector(1, 5, N));
+		storage.close();
+		storage = sql();
+		try {
+			storage.put(Storages.vector(2, 5, N));
+			storage.put(Storages.vector(2, 10, N));
+			List<Block> blocks = storage.serve(new Query(0, N - 1, 5, 5));
+			assertEquals(1, blocks.size());
+			assertEquals(3, blocks.get(0).getData().size());
+			for (int stream = 0; stream < 3; stream++) {
+				assertEquals(Storages.value(stream, 5, 1), blocks.get(0).getData().get(stream).getVector()[1], 0f);
+			}
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testTimestampOutOfTheKeyRangeIsRejected() throws Exception {
+		SQLStorage storage = sql();
+		try {
+			storage.put(Storages.vector(0, Long.MAX_VALUE / 2, N));
+			fail("a timestamp out of the key range was accepted");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("key range"));
+		} finally {
+			storage.close();
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+
+/**
+ * Vectors of 10 values in blocks of 4 rows and 5 columns written and read back on a cold cache
+ * while a recording asks for every storage event.
+ */
+public class StorageEventsTest extends TestCase {
+
+	private static final int N = 10;
+	private static final int VECTORS = 40;
+	private static final String[] EVENTS = {"BlockPack", "IndexPut", "CacheLoad", "DiskRead", "DiskWrite", "Serve"};
+
+	public void testEventsAreEmittedWhileRecording() throws Exception {
+		File directory = Storages.directory();
+		Path file = new File(directory, "events.jfr").toPath();
+		try (Recording recording = new Recording()) {
+			for (String event : EVENTS) {
+				recording.enable("ru.spbu.math.plok." + event).withThreshold(Duration.ZERO);
+			}
+			recording.start();
+			PLokStorage storage = Storages.plok(directory, N, 4, 5);
+			for (long t = 0; t < VECTORS; t++) {
+				storage.put(Storages.vector(0, t, N));
+			}
+			storage.close();
+			storage = Storages.plok(directory, N, 4, 5);
+			storage.serve(new Query(0, N - 1, 0, VECTORS - 1));
+			storage.close();
+			recording.stop();
+			recording.dump(file);
+		}
+		List<RecordedEvent> recorded = RecordingFile.readAllEvents(file);
+		Map<String, Integer> counts = new HashMap<>();
+		for (RecordedEvent event : recorded) {
+			String name = event.getEventType().getName();
+			if (!name.startsWith("ru.spbu.math.plok."))
+				continue;
+			counts.merge(name.substring("ru.spbu.math.plok.".length()), 1, Integer::sum);
+			assertNull("stack traces are off", event.getStackTrace());
+			if (name.endsWith("DiskRead"))
+				assertTrue(event.getLong("bytes") > 0);
+		}
+		for (String event : EVENTS) {
+			assertTrue(event + " in " + counts, counts.containsKey(event));
+		}
+		assertEquals(VECTORS / 4 * 2, (int) counts.get("BlockPack"));
+		assertEquals(VECTORS / 4 * 2, (int) counts.get("DiskWrite"));
+		assertEquals(VECTORS / 4 * 2, (int) counts.get("DiskRead"));
+		assertEquals(1, (int) counts.get("Serve"));
+	}
+
+}
@@ -0,0 +1,95 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import ru.spbu.math.plok.bench.BuildModule;
+import ru.spbu.math.plok.bench.Configurator;
+import ru.spbu.math.plok.model.generator.Vector;
+
+/**
+ * Storages of the tests, built from command line options the way the benchmark builds them.
+ */
+final class Storages {
+
+	private Storages() {
+	}
+
+	/**
+	 * Temporary directory removed with its contents when the tests are over.
+	 */
+	static File directory() throws IOException {
+		File directory = Files.createTempDirectory("plok-test").toFile();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(directory)));
+		return directory;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		for (File child : children == null ? new File[0] : children) {
+			delete(child);
+		}
+		file.delete();
+	}
+
+	/**
+	 * Injector of a storage at {@code directory} holding vectors of N values in blocks of P rows and L columns.
+	 */
+	static Injector injector(File directory, int N, int P, int L, String... options) throws Exception {
+		List<String> args = new ArrayList<>(Arrays.asList("-N", String.valueOf(N), "-P", String.valueOf(P), "-L", String.valueOf(L),
+				"-T", "1000", "-V", "uni", "-C", "0.5", "-storagePath", directory.getPath()));
+		args.addAll(Arrays.asList(options));
+		Configurator configurator = new Configurator();
+		configurator.initFromArgs(args.toArray(new String[args.size()]));
+		return Guice.createInjector(new BuildModule(configurator));
+	}
+
+	static PLokStorage plok(File directory, int N, int P, int L, String... options) throws Exception {
+		return (PLokStorage) injector(directory, N, P, L, options).getInstance(StorageSystem.class);
+	}
+
+	/**
+	 * Value j of the vector at {@code timestamp}, exact in a float for the sizes of the tests.
+	 */
+	static float value(int stream, long timestamp, int j) {
+		return stream * 100000 + timestamp * 64 + j;
+	}
+
+	static Vector vector(int stream, long timestamp, int N) {
+		float[] values = new float[N];
+		for (int j = 0; j < N; j++) {
+			values[j] = value(stream, timestamp, j);
+		}
+		return new Vector(timestamp, values);
+	}
+
+	/**
+	 * Cells of the blocks inside the rectangle, failing on a wrong value. Every cell of the
+	 * rectangle is expected once, so the count is checked by the caller.
+	 */
+	static int checkedCells(int stream, List<Block> blocks, int i1, int i2, long t1, long t2) {
+		int cells = 0;
+		for (Block block : blocks) {
+			BlockHeader header = block.getHeader();
+			for (Vector row : block.getData()) {
+				if (row.getTimestamp() < t1 || row.getTimestamp() > t2)
+					continue;
+				for (long i = Math.max(i1, header.getiBeg()); i <= Math.min(i2, header.getiEnd()); i++) {
+					float actual = row.getVector()[(int) (i - header.getiBeg())];
+					if (actual != value(stream, row.getTimestamp(), (int) i))
+						throw new AssertionError("Value " + i + " at " + row.getTimestamp() + " is " + actual);
+					cells++;
+				}
+			}
+		}
+		return cells;
+	}
+
+}
@@ -0,0 +1,142 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.generator.Vector;
+
+public class WriteAheadLogTest extends TestCase {
+
+	private static final int N = 7;
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Storages.directory();
+	}
+
+	public void testUncleanCloseReplaysEveryRecord() throws Exception {
+		WriteAheadLog wal = open();
+		assertTrue(wal.recover().isEmpty());
+		for (long t = 0; t < 10; t++) {
+			assertEquals(t, wal.append(Storages.vector(0, t, N)));
+		}
+		wal.close();
+		wal = open();
+		List<WriteAheadLog.Record> records = wal.recover();
+		assertRecords(records, 0, 10);
+		assertEquals(10, wal.append(Storages.vector(0, 10, N)));
+		wal.close();
+	}
+
+	public void testCheckpointRollsSegmentsAndDropsTheOldOnes() throws Exception {
+		WriteAheadLog wal = open();
+		wal.recover();
+		for (long t = 0; t < 30; t++) {
+			wal.append(Storages.vector(0, t, N));
+			if (t % 10 == 9)
+				wal.checkpoint(t + 1, 10);
+		}
+		assertEquals(10, wal.getSpecialStart());
+		assertTrue("segments " + wal.getSegmentCount(), wal.getSegmentCount() <= 3);
+		assertFalse(new File(directory, "wal_0").exists());
+		wal.close();
+		wal = open();
+		List<WriteAheadLog.Record> records = wal.recover();
+		assertEquals(30, wal.getCommonStart());
+		assertRecords(records, 10, 30);
+		wal.close();
+	}
+
+	public void testTornRecordCutsTheLog() throws Exception {
+		WriteAheadLog wal = open();
+		wal.recover();
+		for (long t = 0; t < 10; t++) {
+			wal.append(Storages.vector(0, t, N));
+		}
+		wal.close();
+		File segment = new File(directory, "wal_0");
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.setLength(file.length() - 5);
+		}
+		long cut = segment.length();
+		wal = open();
+		assertRecords(wal.recover(), 0, 9);
+		assertTrue(segment.length() < cut);
+		assertEquals(9, wal.append(Storages.vector(0, 9, N)));
+		wal.close();
+		wal = open();
+		assertRecords(wal.recover(), 0, 10);
+		wal.close();
+	}
+
+	public void testCorruptRecordDropsTheRestOfTheLog() throws Exception {
+		WriteAheadLog wal = open();
+		wal.recover();
+		for (long t = 0; t < 20; t++) {
+			wal.append(Storages.vector(0, t, N));
+			if (t == 9)
+				wal.checkpoint(0, 0);
+		}
+		wal.close();
+		File first = new File(directory, "wal_0");
+		long record = first.length() / 10;
+		try (RandomAccessFile file = new RandomAccessFile(first, "rw")) {
+			file.seek(4 * record + 20);
+			int value = file.read();
+			file.seek(4 * record + 20);
+			file.write(value ^ 0x10);
+		}
+		wal = open();
+		assertRecords(wal.recover(), 0, 4);
+		assertFalse(new File(directory, "wal_10").exists());
+		wal.close();
+	}
+
+	public void testGroupDurabilityForcesRecordsAtTheFlush() throws Exception {
+		WriteAheadLog wal = new WriteAheadLog(directory.getPath(), N, FilePersistentStorage.DURABILITY_GROUP);
+		wal.recover();
+		for (long t = 0; t < 10; t++) {
+			wal.append(Storages.vector(0, t, N));
+			if (t == 4)
+				wal.checkpoint(0, 0);
+		}
+		assertEquals(0, wal.getForceCount());
+		wal.flush();
+		assertEquals(2, wal.getForceCount());
+		wal.flush();
+		assertEquals(2, wal.getForceCount());
+		wal.close();
+	}
+
+	public void testBlockDurabilityForcesEveryRecord() throws Exception {
+		WriteAheadLog wal = new WriteAheadLog(directory.getPath(), N, FilePersistentStorage.DURABILITY_BLOCK);
+		wal.recover();
+		for (long t = 0; t < 10; t++) {
+			wal.append(Storages.vector(0, t, N));
+		}
+		wal.flush();
+		assertEquals(10, wal.getForceCount());
+		wal.close();
+	}
+
+	private WriteAheadLog open() throws Exception {
+		return new WriteAheadLog(directory.getPath(), N, FilePersistentStorage.DURABILITY_NONE);
+	}
+
+	private static void assertRecords(List<WriteAheadLog.Record> records, long from, long to) {
+		assertEquals(to - from, records.size());
+		for (int k = 0; k < records.size(); k++) {
+			WriteAheadLog.Record record = records.get(k);
+			assertEquals(from + k, record.getSeq());
+			assertEquals(from + k, record.getVector().getTimestamp());
+			assertTrue(Arrays.equals(Storages.vector(0, from + k, N).getVector(), record.getVector().getVector()));
+		}
+	}
+
+}
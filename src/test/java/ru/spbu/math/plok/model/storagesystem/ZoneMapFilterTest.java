@@ -0,0 +1,61 @@
+package ru.spbu.math.plok.model.storagesystem;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import ru.spbu.math.plok.model.client.Query;
+import ru.spbu.math.plok.model.client.ValuePredicate;
+
+/**
+ * Vectors of 10 values in blocks of 4 rows and 5 columns. Every value grows with time,
+ * so a value range selects a time range.
+ */
+public class ZoneMapFilterTest extends TestCase {
+
+	private static final int N = 10;
+	private static final int VECTORS = 100;
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Storages.directory();
+		PLokStorage storage = Storages.plok(directory, N, 4, 5);
+		for (long t = 0; t < VECTORS; t++) {
+			storage.put(Storages.vector(0, t, N));
+		}
+		storage.close();
+	}
+
+	public void testBlocksOutsideThePredicateAreSkipped() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, 4, 5);
+		try {
+			ValuePredicate predicate = ValuePredicate.between(7, Storages.value(0, 41, 7), Storages.value(0, 46, 7));
+			List<Block> blocks = storage.serve(new Query(0, N - 1, 0, VECTORS - 1, predicate));
+			assertEquals(4, blocks.size());
+			for (Block block : blocks) {
+				assertTrue(block.getHeader().gettBeg() >= 40 && block.getHeader().gettEnd() <= 47);
+			}
+			assertEquals(50L, storage.getStatistics().get("zoneMapCheckedCount"));
+			assertEquals(46L, storage.getStatistics().get("zoneMapSkippedCount"));
+			assertEquals(4L, storage.getStatistics().get("blocksRead"));
+		} finally {
+			storage.close();
+		}
+	}
+
+	public void testPredicateMatchingNothingReadsNoBlock() throws Exception {
+		PLokStorage storage = Storages.plok(directory, N, 4, 5);
+		try {
+			ValuePredicate predicate = ValuePredicate.greaterThan(2, Storages.value(0, VECTORS, 2));
+			assertTrue(storage.serve(new Query(0, N - 1, 0, VECTORS - 1, predicate)).isEmpty());
+			assertEquals(0, storage.aggregate(new Query(0, N - 1, 0, VECTORS - 1, predicate)).getCount());
+			assertEquals(0L, storage.getStatistics().get("blocksRead"));
+		} finally {
+			storage.close();
+		}
+	}
+
+}